@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import perfModelling.PerfModelling;
+import protocol.Protocol;
+import protocol.UpRight;
+import architecture.Architecture;
+
+/**
+ * Adding and removing the loads of all the communications of UpRight(1, 1, nbClients), with the entities spread
+ * over the processing nodes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommunicationLoadsBenchmark {
+
+    @Param({"sci", "rennes", "multiRack"})
+    public String topology;
+
+    @Param({"1", "4"})
+    public int nbClients;
+
+    private PerfModelling perfModelling;
+
+    @Setup
+    public void setup() {
+        Architecture architecture = Topologies.get(topology);
+        Protocol protocol = new UpRight(1, 1, nbClients);
+        perfModelling = new PerfModelling(architecture, protocol);
+        ArrayList<Integer> processingNodesId = new ArrayList<Integer>(architecture.getProcessingNodesId());
+        Collections.sort(processingNodesId);
+        ArrayList<Integer> entitiesId = new ArrayList<Integer>(protocol.getEntitiesIdSet());
+        Collections.sort(entitiesId);
+        for (int i = 0; i < entitiesId.size(); ++i)
+            protocol.affectEntityToProcessingNode(entitiesId.get(i), processingNodesId.get(i % processingNodesId.size()));
+    }
+
+    @Benchmark
+    public void addRemoveCommunicationLoads() {
+        perfModelling.addCommunicationLoadsOnArchitecture();
+        perfModelling.removeCommunicationLoadsOnArchitecture();
+    }
+
+}
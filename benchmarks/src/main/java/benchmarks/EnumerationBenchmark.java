@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import perfModelling.PerfModelling;
+import protocol.UpRight;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * A full enumerateRepartitions run of UpRight(1, 1, nbClients). On the larger topologies, the first entities are
+ * placed on the first processing nodes so that a run studies about a million repartitions or less. The leaves
+ * counter is reported per operation, that is in ns per repartition studied.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class EnumerationBenchmark {
+
+    @Param({"sci", "rennes", "multiRack"})
+    public String topology;
+
+    @Param({"1"})
+    public int nbClients;
+
+    private Architecture architecture;
+    private CompiledArchitecture compiledArchitecture;
+    private UpRight protocol;
+    private Integer[] prefix;
+    private PerfModelling perfModelling;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Leaves {
+
+        public double leaves; // Repartitions studied
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            leaves = 0;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        architecture = Topologies.get(topology);
+        compiledArchitecture = new CompiledArchitecture(architecture);
+        protocol = new UpRight(1, 1, nbClients);
+        ArrayList<Integer> processingNodesId = new ArrayList<Integer>(architecture.getProcessingNodesId());
+        Collections.sort(processingNodesId);
+        int prefixLength = topology.equals("sci") ? 0 : topology.equals("rennes") ? 5 : 8;
+        prefix = new Integer[prefixLength];
+        for (int i = 0; i < prefixLength; ++i) // Filters, then orders, on distinct processing nodes in increasing order
+            prefix[i] = processingNodesId.get(i);
+    }
+
+    @Setup(Level.Invocation)
+    public void createSearch() { // A search starts with empty results, it leaves the protocol without placed entities
+        perfModelling = new PerfModelling(architecture, compiledArchitecture, protocol);
+    }
+
+    @Benchmark
+    public double enumerateRepartitions(Leaves leaves) {
+        perfModelling.enumerateRepartitionsWithPrefix(prefix);
+        leaves.leaves += perfModelling.getMetrics().getRepartitionsEvaluated();
+        return perfModelling.getMaxThroughput();
+    }
+
+}
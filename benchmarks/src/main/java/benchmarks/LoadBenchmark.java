@@ -0,0 +1,109 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * Adding and removing the load of a message on the path between two processing nodes, and computing the
+ * throughput, on the architecture and on its compiled form. All the CPUs and paths are loaded, so that the
+ * throughput has as many resources to consider as during an enumeration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"sci", "rennes", "multiRack"})
+    public String topology;
+
+    private Architecture architecture;
+    private CompiledArchitecture compiledArchitecture;
+
+    // Couples of distinct processing nodes, by id and by index in the compiled architecture
+    private int nbCouples;
+    private int[] srcNodesId, dstNodesId;
+    private int[] srcIndices, dstIndices;
+    private int couple;
+
+    @Setup
+    public void setup() {
+        architecture = Topologies.get(topology);
+        compiledArchitecture = new CompiledArchitecture(architecture);
+        ArrayList<Integer> processingNodesId = new ArrayList<Integer>(architecture.getProcessingNodesId());
+        Collections.sort(processingNodesId);
+
+        int nbProcessingNodes = processingNodesId.size();
+        nbCouples = nbProcessingNodes * (nbProcessingNodes - 1);
+        srcNodesId = new int[nbCouples];
+        dstNodesId = new int[nbCouples];
+        srcIndices = new int[nbCouples];
+        dstIndices = new int[nbCouples];
+        int i = 0;
+        for (int src : processingNodesId) {
+            architecture.addLoadOnProcessingNode(src, 1000000.0);
+            compiledArchitecture.addLoadOnProcessingNode(compiledArchitecture.getProcessingNodeIndex(src), 1000000.0);
+            for (int dst : processingNodesId) {
+                if (src == dst)
+                    continue;
+                srcNodesId[i] = src;
+                dstNodesId[i] = dst;
+                srcIndices[i] = compiledArchitecture.getProcessingNodeIndex(src);
+                dstIndices[i] = compiledArchitecture.getProcessingNodeIndex(dst);
+                architecture.addLoadOnLink(src, dst, 1000.0, 1.0);
+                compiledArchitecture.addLoadOnLink(srcIndices[i], dstIndices[i], 1000.0, 1.0);
+                ++i;
+            }
+        }
+        couple = 0;
+    }
+
+    private int nextCouple() {
+        if (++couple == nbCouples)
+            couple = 0;
+        return couple;
+    }
+
+    @Benchmark
+    public void addRemoveLoadOnLink() {
+        int i = nextCouple();
+        architecture.addLoadOnLink(srcNodesId[i], dstNodesId[i], 100.0, 1.0);
+        architecture.removeLoadOnLink(srcNodesId[i], dstNodesId[i], 100.0, 1.0);
+    }
+
+    @Benchmark
+    public void compiledAddRemoveLoadOnLink() {
+        int i = nextCouple();
+        compiledArchitecture.addLoadOnLink(srcIndices[i], dstIndices[i], 100.0, 1.0);
+        compiledArchitecture.removeLoadOnLink(srcIndices[i], dstIndices[i], 100.0, 1.0);
+    }
+
+    @Benchmark
+    public double getThroughput() {
+        return architecture.getThroughput();
+    }
+
+    @Benchmark
+    public double compiledGetThroughput() {
+        return compiledArchitecture.getThroughput();
+    }
+
+}
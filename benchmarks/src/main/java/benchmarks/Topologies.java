@@ -0,0 +1,42 @@
+package benchmarks;
+
+import architecture.Architecture;
+import architecture.NetworkNode;
+import architecture.NetworkProcessingNode;
+import architecture.RoutingMetric;
+
+/**
+ * The architectures the benchmarks run on.
+ */
+public class Topologies {
+
+    public static Architecture get(String name) {
+        if (name.equals("sci"))
+            return Architecture.sci();
+        if (name.equals("rennes"))
+            return Architecture.rennes();
+        if (name.equals("multiRack"))
+            return multiRack(4, 8);
+        throw new IllegalArgumentException("Unknown topology " + name);
+    }
+
+    // nbRacks racks of nbMachinesPerRack machines behind a top-of-rack switch, the switches are connected to a core switch
+    public static Architecture multiRack(int nbRacks, int nbMachinesPerRack) {
+        Architecture archi = new Architecture();
+        int nbMachines = nbRacks * nbMachinesPerRack;
+        for (int nodeId = 0; nodeId < nbMachines; ++nodeId)
+            archi.addNewNode(new NetworkProcessingNode(nodeId, "machine" + nodeId, 8, 2400000000.0));
+        int coreSwitchId = nbMachines + nbRacks;
+        archi.addNewNode(new NetworkNode(coreSwitchId));
+        for (int rack = 0; rack < nbRacks; ++rack) {
+            int switchId = nbMachines + rack;
+            archi.addNewNode(new NetworkNode(switchId));
+            archi.addBidirectionalLink(switchId, coreSwitchId, 4000000000.0, 0.000005);
+            for (int i = 0; i < nbMachinesPerRack; ++i)
+                archi.addBidirectionalLink(rack * nbMachinesPerRack + i, switchId, 1000000000.0, 0.000001);
+        }
+        archi.computeRoutes(RoutingMetric.HOP_COUNT);
+        return archi;
+    }
+
+}
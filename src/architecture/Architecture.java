@@ -1,11 +1,11 @@
 package architecture;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.Scanner;
 import java.util.Set;
 
+import config.ConfigReader;
+
 public class Architecture {
 
     private HashMap<Integer, NetworkNode> nodes; // nodeId to network node
@@ -53,9 +53,9 @@ public class Architecture {
         addLink(dstNodeId, srcNodeId, bandwidth, latency);
     }
 
-    public boolean routingMapIsFilled() {
+    public boolean routingMapIsFilled() { // All the nodes have a route towards all the processing nodes
         for (int srcNodeId : nodes.keySet()) {
-            for (int dstNodeId : nodes.keySet()) {
+            for (int dstNodeId : processingNodes.keySet()) {
                 if (!routingMap.containsKey(srcNodeId, dstNodeId)) {
                     System.err.println("Routing map does not contain the key ("+srcNodeId+", "+dstNodeId+")");
                     return false;
@@ -90,12 +90,50 @@ public class Architecture {
         assert(routingMap.containsKey(srcNodeId, dstNodeId)); // A route to this node exists
     }
 
+    void setRoutingMap(RoutingMap routingMap) {
+        this.routingMap = routingMap;
+    }
+    
+    // Replace all the routes by the shortest paths on the links of the architecture towards the processing nodes,
+    // IllegalArgumentException if a node cannot reach one of them
+    public void computeRoutes(RoutingMetric metric) {
+        RoutingBuilder.computeRoutes(this, metric);
+    }
+
+    // Same routes as computeRoutes, but the routes towards a destination are computed the first time they are needed,
+    // for large architectures of which only some processing nodes are studied. Equal cost paths can be spread.
+    public void computeRoutesOnDemand(RoutingMetric metric, boolean spreadEqualCostPaths) {
+        setRoutingMap(new RoutingMap(new RoutingBuilder(this, metric, spreadEqualCostPaths)));
+    }
+
     public NetworkLink getLinkOnPath(int srcNodeId, int dstNodeId) { // return next link on path from srcNodeId to dstNodeId
         assert(nodes.containsKey(srcNodeId) && nodes.containsKey(dstNodeId));
         int nextNodeIdOnPath =  routingMap.get(srcNodeId, dstNodeId);
         return links.get(new CoupleNodesId(srcNodeId, nextNodeIdOnPath));
     }
     
+    Set<Integer> getNodesId() {
+        return nodes.keySet();
+    }
+    
+    NetworkNode getNode(int nodeId) {
+        return nodes.get(nodeId);
+    }
+    
+    Set<CoupleNodesId> getLinksId() {
+        return links.keySet();
+    }
+    
+    NetworkLink getLink(int srcNodeId, int dstNodeId) { // return the direct link from srcNodeId to dstNodeId, null if there is none
+        return links.get(new CoupleNodesId(srcNodeId, dstNodeId));
+    }
+    
+    int getNextNodeIdOnPath(int srcNodeId, int dstNodeId) { // return -1 if there is no route
+        if (!routingMap.containsKey(srcNodeId, dstNodeId))
+            return -1;
+        return routingMap.get(srcNodeId, dstNodeId);
+    }
+    
     public Set<Integer> getProcessingNodesId() {
         return processingNodes.keySet();
     }
@@ -116,7 +154,8 @@ public class Architecture {
         processingNode.removeCPULoad(processingLoad);
     }
     
-    public void addLoadOnLink(int srcNodeId, int dstNodeId, double communicationLoad) {
+    // The bytes load the links of the path, the bytes and the messages load the switches the path goes through
+    public void addLoadOnLink(int srcNodeId, int dstNodeId, double communicationLoad, double nbMessages) {
         assert(nodes.containsKey(srcNodeId) && nodes.containsKey(dstNodeId));
         
         int curNodeId = srcNodeId;
@@ -126,11 +165,13 @@ public class Architecture {
             assert(links.containsKey(coupleNodes));
             NetworkLink curLink = links.get(coupleNodes);
             curLink.addCommunicationLoad(communicationLoad);
+            if (nextNodeId != dstNodeId && nodes.get(nextNodeId).hasForwardingCapacity())
+                nodes.get(nextNodeId).addForwardingLoad(communicationLoad, nbMessages);
             curNodeId = nextNodeId;
         }
     }
     
-    public void removeLoadOnLink(int srcNodeId, int dstNodeId, double communicationLoad) {
+    public void removeLoadOnLink(int srcNodeId, int dstNodeId, double communicationLoad, double nbMessages) {
         assert(nodes.containsKey(srcNodeId) && nodes.containsKey(dstNodeId));
         
         int curNodeId = srcNodeId;
@@ -140,6 +181,8 @@ public class Architecture {
             assert(links.containsKey(coupleNodes));
             NetworkLink curLink = links.get(coupleNodes);
             curLink.removeCommunicationLoad(communicationLoad);
+            if (nextNodeId != dstNodeId && nodes.get(nextNodeId).hasForwardingCapacity())
+                nodes.get(nextNodeId).removeForwardingLoad(communicationLoad, nbMessages);
             curNodeId = nextNodeId;
         }
     }
@@ -147,6 +190,8 @@ public class Architecture {
     public void resetLoadsOnLinks() {
         for (NetworkLink link : links.values())
             link.resetCommunicationLoad();
+        for (NetworkNode node : nodes.values())
+            node.resetForwardingLoad();
     }
     
     public double getThroughput() {
@@ -163,6 +208,12 @@ public class Architecture {
                 throughput = linkThroughput;
             }
         }
+        for (NetworkNode node : nodes.values()) {
+            double switchThroughput = node.getForwardingThroughput();
+            if (switchThroughput != Double.MAX_VALUE && switchThroughput <= throughput) {
+                throughput = switchThroughput;
+            }
+        }
         return throughput;
     }
     
@@ -191,6 +242,16 @@ public class Architecture {
                 throughput = linkThroughput;
             }
         }
+        for (NetworkNode node : nodes.values()) {
+            double switchThroughput = node.getForwardingThroughput();
+            if (switchThroughput != Double.MAX_VALUE && switchThroughput <= throughput) {
+                if (switchThroughput == throughput)
+                    s += String.format("\tLimiting resource: switch %d with %.2f req/s\n", node.getId(), switchThroughput);
+                else 
+                    s = String.format("\tLimiting resource: switch %d with %.2f req/s\n", node.getId(), switchThroughput);
+                throughput = switchThroughput;
+            }
+        }
         return s;
     }
     
@@ -212,24 +273,7 @@ public class Architecture {
         archi.addBidirectionalLink(2, 4, 600000500.0, 0.0);
         archi.addBidirectionalLink(3, 5, 500000060.0, 0.0);
 
-        for (int i = 0; i <= 5; ++i)
-            archi.addRoute(i, i, i);
-
-        for (int i = 0; i <= 5; ++i) {
-            if (i != 0 && i != 1)
-                archi.addRoute(0, i, 1);
-            if (i != 2 && i != 4)
-                archi.addRoute(4, i, 2);
-            if (i != 3 && i != 5)     
-                archi.addRoute(5, i, 3);
-        }
-
-        archi.addRoute(1, 4, 2);
-        archi.addRoute(1, 5, 3);
-        archi.addRoute(2, 0, 1);
-        archi.addRoute(2, 5, 3);
-        archi.addRoute(3, 0, 1);
-        archi.addRoute(3, 4, 2);
+        archi.computeRoutes(RoutingMetric.HOP_COUNT);
         
         return archi;
     }
@@ -250,18 +294,7 @@ public class Architecture {
         for (int i = 0; i <= 6; ++i)
             archi.addBidirectionalLink(i, 7, 1000000000.0, 0.0);
 
-        for (int i = 0; i <= 7; ++i)
-            archi.addRoute(i, i, i);
-        
-        for (int src = 0; src <= 6; ++src) {
-            for (int dst = 0; dst <= 7; ++dst) {
-                if (src != dst)
-                    archi.addRoute(src, dst, 7);
-            }
-        }
-        
-        for (int i = 0; i <= 6; ++i)
-            archi.addRoute(7, i, i);
+        archi.computeRoutes(RoutingMetric.HOP_COUNT);
 
         assert(archi.routingMapIsFilled());
         
@@ -289,18 +322,7 @@ public class Architecture {
         for (int i = 0; i < switchId; ++i)
             archi.addBidirectionalLink(i, switchId, 1000000000.0, 0.0);
         
-        for (int src = 0; src < switchId; ++src) {
-            for (int dst = 0; dst <= switchId; ++dst) {
-                if (src != dst) // Go through the switch
-                    archi.addRoute(src, dst, switchId);
-                else // Local routes
-                    archi.addRoute(src, dst, src);
-            }
-        }
-        
-        // Routes from the switch to nodes (including itself)
-        for (int i = 0; i <= switchId; ++i)
-            archi.addRoute(switchId, i, i);
+        archi.computeRoutes(RoutingMetric.HOP_COUNT);
 
         assert(archi.routingMapIsFilled());
         
@@ -333,90 +355,139 @@ public class Architecture {
         for (int i = 0; i <= 11; ++i)
             archi.addBidirectionalLink(i, 12, 1000000000.0, 0.0);
         
-        for (int src = 0; src <= 11; ++src) {
-            for (int dst = 0; dst <= 12; ++dst) {
-                if (src != dst) // Go through the switch
-                    archi.addRoute(src, dst, 12);
-                else // Local routes
-                    archi.addRoute(src, dst, src);
-            }
-        }
-        
-        // Routes from the switch to nodes (including itself)
-        for (int i = 0; i <= 12; ++i)
-            archi.addRoute(12, i, i);
+        archi.computeRoutes(RoutingMetric.HOP_COUNT);
 
         assert(archi.routingMapIsFilled());
         
         return archi;
     }
     
-    // TODO: not functional !
+    // Read an architecture from a configuration file (see ConfigReader for the syntax of the values):
+    //   nbProcessingNodes, then one line per processing node: id, name, [nbCPUs,] cpuFreq (1 CPU if not given)
+    //   nbSwitches, then one line per switch: id[, bytesPerSecond, messagesPerSecond] (its forwarding capacity, 0 for
+    //   no limit; no limit at all if not given)
+    //   nbBidirectionalLinks, then one line per link: srcNodeId, dstNodeId, bandwidth, latency
+    //   nbUnidirectionalLinks, then one line per link: srcNodeId, dstNodeId, bandwidth, latency
+    //   optionally "routes nbRoutes", then one line per route: srcNodeId, dstNodeId, nextNodeId
+    //   or "auto hops" / "auto bandwidth" to compute the routes, which is the default
     public static Architecture readArchitecture(String configFileName) {
         Architecture architecture = new Architecture();
 
-        File configFile = new File(configFileName);
-
         try {
-            Scanner scanner = new Scanner(configFile);
+            ConfigReader reader = new ConfigReader(configFileName);
+            if (!reader.firstLine())
+                throw reader.error("empty architecture");
 
             // Read processing nodes
-            int nbProcessingNodes = Integer.decode(scanner.nextLine());
+            int nbProcessingNodes = reader.nextCount();
             for (int i = 0; i < nbProcessingNodes; ++i) {
-                String[] values = scanner.nextLine().split(",");
-                int id = Integer.decode(values[0]);
-                String name = values[1];
-                int nbCPUs = Integer.decode(values[2]);
-                double cpuFreq = Double.parseDouble(values[3]);
+                reader.nextRequiredLine();
+                int id = reader.nextInt();
+                String name = reader.nextName();
+                double value = reader.nextDouble();
+                int nbCPUs = 1;
+                double cpuFreq = value;
+                if (reader.hasNextOnLine()) {
+                    nbCPUs = (int) value;
+                    cpuFreq = reader.nextDouble();
+                }
+                reader.endLine();
+                checkNewNode(architecture, reader, id);
                 architecture.addNewNode(new NetworkProcessingNode(id, name, nbCPUs, cpuFreq));
             }
 
             // Read switch nodes
-            int nbSwitchNodes = Integer.decode(scanner.nextLine());
+            int nbSwitchNodes = reader.nextCount();
             for (int i = 0; i < nbSwitchNodes; ++i) {
-                int id = Integer.decode(scanner.nextLine());
-                architecture.addNewNode(new NetworkNode(id));
+                reader.nextRequiredLine();
+                int id = reader.nextInt();
+                double bytesCapacity = 0, messagesCapacity = 0;
+                if (reader.hasNextOnLine()) {
+                    bytesCapacity = reader.nextDouble();
+                    messagesCapacity = reader.nextDouble();
+                    if (bytesCapacity < 0 || messagesCapacity < 0)
+                        throw reader.error("negative switch capacity");
+                }
+                reader.endLine();
+                checkNewNode(architecture, reader, id);
+                architecture.addNewNode(new NetworkNode(id, bytesCapacity, messagesCapacity));
             }
 
-            // Read bidirectional links
-            int nbBidirectionalNodes = Integer.decode(scanner.nextLine());
-            for (int i = 0; i < nbBidirectionalNodes; ++i) {
-                String[] values = scanner.nextLine().split(",");
-                int srcNodeId = Integer.decode(values[0]);
-                int dstNodeId = Integer.decode(values[1]);
-                double bandwidth = Double.parseDouble(values[2]);
-                double latency = Double.parseDouble(values[3]);
-                architecture.addBidirectionalLink(srcNodeId, dstNodeId, bandwidth, latency);
+            // Read bidirectional, then unidirectional links
+            for (int direction = 2; direction >= 1; --direction) {
+                int nbLinks = reader.nextCount();
+                for (int i = 0; i < nbLinks; ++i) {
+                    reader.nextRequiredLine();
+                    int srcNodeId = reader.nextInt();
+                    int dstNodeId = reader.nextInt();
+                    double bandwidth = reader.nextDouble();
+                    double latency = reader.nextDouble();
+                    reader.endLine();
+                    if (!architecture.nodes.containsKey(srcNodeId) || !architecture.nodes.containsKey(dstNodeId))
+                        throw reader.error("link between unknown nodes");
+                    if (direction == 2)
+                        architecture.addBidirectionalLink(srcNodeId, dstNodeId, bandwidth, latency);
+                    else
+                        architecture.addLink(srcNodeId, dstNodeId, bandwidth, latency);
+                }
             }
 
-            // Read unidirectional links
-            int nbUnidirectionalNodes = Integer.decode(scanner.nextLine());
-            for (int i = 0; i < nbUnidirectionalNodes; ++i) {
-                String[] values = scanner.nextLine().split(",");
-                int srcNodeId = Integer.decode(values[0]);
-                int dstNodeId = Integer.decode(values[1]);
-                double bandwidth = Double.parseDouble(values[2]);
-                double latency = Double.parseDouble(values[3]);
-                architecture.addLink(srcNodeId, dstNodeId, bandwidth, latency); 
+            // Read the routes, or compute them from the links
+            RoutingMetric metric = RoutingMetric.HOP_COUNT;
+            if (reader.nextLine()) {
+                if (reader.nextNameIs("routes")) {
+                    int nbRoutes = reader.nextInt();
+                    reader.endLine();
+                    for (int i = 0; i < nbRoutes; ++i) {
+                        reader.nextRequiredLine();
+                        int srcNodeId = reader.nextInt();
+                        int dstNodeId = reader.nextInt();
+                        int nextNodeId = reader.nextInt();
+                        reader.endLine();
+                        if (!architecture.nodes.containsKey(dstNodeId) || architecture.getLink(srcNodeId, nextNodeId) == null)
+                            throw reader.error("route through a missing link");
+                        architecture.routingMap.put(srcNodeId, dstNodeId, nextNodeId);
+                    }
+                    metric = null;
+                } else if (reader.nextNameIs("auto")) {
+                    if (reader.nextNameIs("bandwidth"))
+                        metric = RoutingMetric.BANDWIDTH;
+                    else if (reader.hasNextOnLine() && !reader.nextNameIs("hops"))
+                        throw reader.error("unknown routing metric");
+                    reader.endLine();
+                } else {
+                    throw reader.error("routes or auto expected");
+                }
+                if (reader.nextLine())
+                    throw reader.error("unexpected line");
             }
-
-            // TODO: not finished
-            //            // Read routing map
-            //            int nbRoutes = Integer.decode(scanner.nextLine());
-            //            for (int i = 0; i < nbRoutes; ++i) {
-            //                String[] values = scanner.nextLine().split(",");
-            //            }
-
-            scanner.close();
-        } catch (FileNotFoundException e) {e.printStackTrace();}
+            if (metric != null) {
+                try {
+                    architecture.computeRoutes(metric);
+                } catch (IllegalArgumentException e) { // Disconnected architecture
+                    throw reader.error(e.getMessage());
+                }
+            } else { // The routes of the file must connect the processing nodes
+                for (int dstNodeId : architecture.processingNodes.keySet()) {
+                    int srcNodeId = architecture.routingMap.findUnroutedSource(architecture.processingNodes.keySet(), dstNodeId);
+                    if (srcNodeId != -1)
+                        throw reader.error("no route from node " + srcNodeId + " to node " + dstNodeId);
+                }
+            }
+        } catch (IOException e) {e.printStackTrace();}
 
         return architecture;
     }
+
+    private static void checkNewNode(Architecture architecture, ConfigReader reader, int id) {
+        if (id < 0 || architecture.nodes.containsKey(id))
+            throw reader.error("invalid or duplicate node id " + id);
+    }
     
     public static void main(String[] args) {
         Architecture archi = getExample();
         
-        archi.addLoadOnLink(0, 4, 1000);
+        archi.addLoadOnLink(0, 4, 1000, 1);
         archi.addLoadOnProcessingNode(0, 1000);
 
 //        System.out.println("Number of keys : "+archi.getRoutingMapSize());
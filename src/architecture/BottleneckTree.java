@@ -0,0 +1,62 @@
+package architecture;
+
+/**
+ * A tournament tree over the throughputs of a set of resources, which gives the bottleneck (the minimum throughput)
+ * in O(1) and is updated in O(log(R)) when the throughput of one resource changes.
+ */
+public class BottleneckTree {
+
+    private final int nbResources;
+    private final int nbLeaves; // Power of two
+    private final double[] throughputs; // throughputs[1] is the root, the leaves are throughputs[nbLeaves .. 2 * nbLeaves[
+
+    public BottleneckTree(int nbResources) {
+        this.nbResources = nbResources;
+        int size = 1;
+        while (size < nbResources)
+            size *= 2;
+        nbLeaves = size;
+        throughputs = new double[2 * nbLeaves];
+        reset();
+    }
+
+    public int getNbResources() {
+        return nbResources;
+    }
+
+    public void reset() { // No resource is loaded
+        for (int i = 0; i < throughputs.length; ++i)
+            throughputs[i] = Double.MAX_VALUE;
+    }
+
+    public void update(int resource, double throughput) {
+        int node = nbLeaves + resource;
+        throughputs[node] = throughput;
+        node >>= 1;
+        while (node >= 1) {
+            double left = throughputs[2 * node];
+            double right = throughputs[2 * node + 1];
+            double min = left <= right ? left : right;
+            if (throughputs[node] == min) // The ancestors do not change either
+                return;
+            throughputs[node] = min;
+            node >>= 1;
+        }
+    }
+
+    public double getThroughput(int resource) {
+        return throughputs[nbLeaves + resource];
+    }
+
+    public double getMinThroughput() {
+        return throughputs[1];
+    }
+
+    public int getBottleneck() { // The resource of minimum throughput (the first one in case of tie)
+        int node = 1;
+        while (node < nbLeaves)
+            node = (throughputs[2 * node] <= throughputs[2 * node + 1]) ? 2 * node : 2 * node + 1;
+        return node - nbLeaves;
+    }
+
+}
@@ -0,0 +1,487 @@
+package architecture;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import config.SnapshotIO;
+
+/**
+ * A compiled form of an architecture, used to evaluate many repartitions. Processing nodes and links get dense
+ * indices, the path between each couple of processing nodes is precomputed as an array of link indices, and the
+ * loads are stored in arrays: adding or removing a load neither allocates nor hashes. The switches that have a
+ * forwarding capacity are resources too, loaded by the traffic going through them. The throughputs of the resources
+ * (CPUs, then links, then switches) are kept in a tournament tree, so that the bottleneck is known without any scan.
+ * The description of the architecture is immutable and shared between copies, each copy has its own loads.
+ */
+public class CompiledArchitecture {
+
+    // Processing nodes, by index
+    private final int nbProcessingNodes;
+    private final int[] processingNodesId;
+    private final String[] processingNodesName;
+    private final double[] cpuCapacities; // Number of cycles per second
+    private final double[] cpuFreqs; // Number of cycles per second of a single core
+    private final int[] processingNodeIndex; // nodeId to processing node index, -1 if the node is not a processing node
+
+    // Links, by index
+    private final int nbLinks;
+    private final int[] linksSrcNodeId, linksDstNodeId;
+    private final double[] linksBandwidth; // In Bytes per second
+    private final double[] linksLatency; // In seconds
+
+    // Switches with a forwarding capacity, by index
+    private final int nbSwitches;
+    private final int[] switchesId;
+    private final double[] switchesBytesCapacity; // In Bytes per second, 0 if not limited
+    private final double[] switchesMessagesCapacity; // In messages per second, 0 if not limited
+
+    // The links on the path from the processing node of index src to the one of index dst are
+    // pathsLinks[pathsStart[src * nbProcessingNodes + dst] .. pathsStart[src * nbProcessingNodes + dst + 1][
+    private final int[] pathsStart;
+    private final int[] pathsLinks;
+    // Same for the switches the path goes through, without its ends
+    private final int[] pathsSwitchesStart;
+    private final int[] pathsSwitches;
+
+    // Loads
+    private final double[] cpuLoads;
+    private final double[] linksLoad;
+    private final double[] switchesBytesLoad, switchesMessagesLoad;
+    private final BottleneckTree bottleneckTree;
+
+    public CompiledArchitecture(Architecture archi) {
+        this(archi, archi.getProcessingNodesId().toArray(new Integer[1]));
+    }
+
+    public CompiledArchitecture(Architecture archi, Integer[] processingNodesId) { // Only the given processing nodes can be loaded
+        nbProcessingNodes = processingNodesId.length;
+        this.processingNodesId = new int[nbProcessingNodes];
+        processingNodesName = new String[nbProcessingNodes];
+        cpuCapacities = new double[nbProcessingNodes];
+        cpuFreqs = new double[nbProcessingNodes];
+        int maxNodeId = 0;
+        for (int nodeId : archi.getNodesId())
+            maxNodeId = Math.max(maxNodeId, nodeId);
+        processingNodeIndex = new int[maxNodeId + 1];
+        for (int i = 0; i <= maxNodeId; ++i)
+            processingNodeIndex[i] = -1;
+        for (int i = 0; i < nbProcessingNodes; ++i) {
+            NetworkProcessingNode node = (NetworkProcessingNode) archi.getNode(processingNodesId[i]);
+            this.processingNodesId[i] = node.getId();
+            processingNodesName[i] = node.getName();
+            cpuCapacities[i] = node.getNbCPUs() * node.getCpuFreq();
+            cpuFreqs[i] = node.getCpuFreq();
+            processingNodeIndex[node.getId()] = i;
+        }
+
+        nbLinks = archi.getLinksId().size();
+        linksSrcNodeId = new int[nbLinks];
+        linksDstNodeId = new int[nbLinks];
+        linksBandwidth = new double[nbLinks];
+        linksLatency = new double[nbLinks];
+        HashMap<CoupleNodesId, Integer> linkIndex = new HashMap<CoupleNodesId, Integer>();
+        int index = 0;
+        for (CoupleNodesId coupleNodesId : archi.getLinksId()) {
+            NetworkLink link = archi.getLink(coupleNodesId.getSrcNodeId(), coupleNodesId.getDstNodeId());
+            linksSrcNodeId[index] = coupleNodesId.getSrcNodeId();
+            linksDstNodeId[index] = coupleNodesId.getDstNodeId();
+            linksBandwidth[index] = link.getBandwidth();
+            linksLatency[index] = link.getLatency();
+            linkIndex.put(coupleNodesId, index);
+            ++index;
+        }
+
+        int nbLimitedSwitches = 0;
+        for (int nodeId : archi.getNodesId()) {
+            if (archi.getNode(nodeId).hasForwardingCapacity())
+                ++nbLimitedSwitches;
+        }
+        nbSwitches = nbLimitedSwitches;
+        switchesId = new int[nbSwitches];
+        switchesBytesCapacity = new double[nbSwitches];
+        switchesMessagesCapacity = new double[nbSwitches];
+        int[] switchIndex = new int[maxNodeId + 1];
+        for (int i = 0; i <= maxNodeId; ++i)
+            switchIndex[i] = -1;
+        index = 0;
+        for (int nodeId : archi.getNodesId()) {
+            NetworkNode node = archi.getNode(nodeId);
+            if (!node.hasForwardingCapacity())
+                continue;
+            switchesId[index] = nodeId;
+            switchesBytesCapacity[index] = node.getBytesCapacity();
+            switchesMessagesCapacity[index] = node.getMessagesCapacity();
+            switchIndex[nodeId] = index++;
+        }
+
+        // Follow the routing map once for each couple of processing nodes
+        pathsStart = new int[nbProcessingNodes * nbProcessingNodes + 1];
+        pathsSwitchesStart = new int[nbProcessingNodes * nbProcessingNodes + 1];
+        int[] links = new int[Math.max(16, nbProcessingNodes * nbProcessingNodes)];
+        int[] switches = new int[16];
+        int nbPathsLinks = 0, nbPathsSwitches = 0;
+        for (int src = 0; src < nbProcessingNodes; ++src) {
+            for (int dst = 0; dst < nbProcessingNodes; ++dst) {
+                pathsStart[src * nbProcessingNodes + dst] = nbPathsLinks;
+                pathsSwitchesStart[src * nbProcessingNodes + dst] = nbPathsSwitches;
+                int curNodeId = this.processingNodesId[src];
+                int dstNodeId = this.processingNodesId[dst];
+                while (curNodeId != dstNodeId) { // No load is affected on a message sent from a node to itself
+                    int nextNodeId = archi.getNextNodeIdOnPath(curNodeId, dstNodeId);
+                    Integer curLinkIndex = linkIndex.get(new CoupleNodesId(curNodeId, nextNodeId));
+                    if (curLinkIndex == null || nbPathsLinks - pathsStart[src * nbProcessingNodes + dst] > nbLinks) // No route, or a loop
+                        throw new IllegalArgumentException("No route from node " + this.processingNodesId[src] + " to node " + dstNodeId);
+                    if (nbPathsLinks == links.length) {
+                        int[] newLinks = new int[2 * links.length];
+                        System.arraycopy(links, 0, newLinks, 0, nbPathsLinks);
+                        links = newLinks;
+                    }
+                    links[nbPathsLinks++] = curLinkIndex;
+                    if (nextNodeId != dstNodeId && switchIndex[nextNodeId] != -1) {
+                        if (nbPathsSwitches == switches.length)
+                            switches = Arrays.copyOf(switches, 2 * switches.length);
+                        switches[nbPathsSwitches++] = switchIndex[nextNodeId];
+                    }
+                    curNodeId = nextNodeId;
+                }
+            }
+        }
+        pathsStart[nbProcessingNodes * nbProcessingNodes] = nbPathsLinks;
+        pathsLinks = new int[nbPathsLinks];
+        System.arraycopy(links, 0, pathsLinks, 0, nbPathsLinks);
+        pathsSwitchesStart[nbProcessingNodes * nbProcessingNodes] = nbPathsSwitches;
+        pathsSwitches = Arrays.copyOf(switches, nbPathsSwitches);
+
+        cpuLoads = new double[nbProcessingNodes];
+        linksLoad = new double[nbLinks];
+        switchesBytesLoad = new double[nbSwitches];
+        switchesMessagesLoad = new double[nbSwitches];
+        bottleneckTree = new BottleneckTree(nbProcessingNodes + nbLinks + nbSwitches);
+    }
+
+    private CompiledArchitecture(CompiledArchitecture compiledArchitecture) {
+        nbProcessingNodes = compiledArchitecture.nbProcessingNodes;
+        processingNodesId = compiledArchitecture.processingNodesId;
+        processingNodesName = compiledArchitecture.processingNodesName;
+        cpuCapacities = compiledArchitecture.cpuCapacities;
+        cpuFreqs = compiledArchitecture.cpuFreqs;
+        processingNodeIndex = compiledArchitecture.processingNodeIndex;
+        nbLinks = compiledArchitecture.nbLinks;
+        linksSrcNodeId = compiledArchitecture.linksSrcNodeId;
+        linksDstNodeId = compiledArchitecture.linksDstNodeId;
+        linksBandwidth = compiledArchitecture.linksBandwidth;
+        linksLatency = compiledArchitecture.linksLatency;
+        nbSwitches = compiledArchitecture.nbSwitches;
+        switchesId = compiledArchitecture.switchesId;
+        switchesBytesCapacity = compiledArchitecture.switchesBytesCapacity;
+        switchesMessagesCapacity = compiledArchitecture.switchesMessagesCapacity;
+        pathsStart = compiledArchitecture.pathsStart;
+        pathsLinks = compiledArchitecture.pathsLinks;
+        pathsSwitchesStart = compiledArchitecture.pathsSwitchesStart;
+        pathsSwitches = compiledArchitecture.pathsSwitches;
+
+        cpuLoads = new double[nbProcessingNodes];
+        linksLoad = new double[nbLinks];
+        switchesBytesLoad = new double[nbSwitches];
+        switchesMessagesLoad = new double[nbSwitches];
+        bottleneckTree = new BottleneckTree(nbProcessingNodes + nbLinks + nbSwitches);
+    }
+
+    private CompiledArchitecture(int[] processingNodesId, String[] processingNodesName, double[] cpuCapacities, double[] cpuFreqs,
+            int[] processingNodeIndex, int[] linksSrcNodeId, int[] linksDstNodeId, double[] linksBandwidth, double[] linksLatency,
+            int[] switchesId, double[] switchesBytesCapacity, double[] switchesMessagesCapacity,
+            int[] pathsStart, int[] pathsLinks, int[] pathsSwitchesStart, int[] pathsSwitches) {
+        nbProcessingNodes = processingNodesId.length;
+        this.processingNodesId = processingNodesId;
+        this.processingNodesName = processingNodesName;
+        this.cpuCapacities = cpuCapacities;
+        this.cpuFreqs = cpuFreqs;
+        this.processingNodeIndex = processingNodeIndex;
+        nbLinks = linksSrcNodeId.length;
+        this.linksSrcNodeId = linksSrcNodeId;
+        this.linksDstNodeId = linksDstNodeId;
+        this.linksBandwidth = linksBandwidth;
+        this.linksLatency = linksLatency;
+        nbSwitches = switchesId.length;
+        this.switchesId = switchesId;
+        this.switchesBytesCapacity = switchesBytesCapacity;
+        this.switchesMessagesCapacity = switchesMessagesCapacity;
+        this.pathsStart = pathsStart;
+        this.pathsLinks = pathsLinks;
+        this.pathsSwitchesStart = pathsSwitchesStart;
+        this.pathsSwitches = pathsSwitches;
+
+        cpuLoads = new double[nbProcessingNodes];
+        linksLoad = new double[nbLinks];
+        switchesBytesLoad = new double[nbSwitches];
+        switchesMessagesLoad = new double[nbSwitches];
+        bottleneckTree = new BottleneckTree(nbProcessingNodes + nbLinks + nbSwitches);
+    }
+
+    // The description of the architecture, the loads are not written
+    public void writeTo(DataOutputStream output) throws IOException {
+        SnapshotIO.writeInts(output, processingNodesId);
+        SnapshotIO.writeStrings(output, processingNodesName);
+        SnapshotIO.writeDoubles(output, cpuCapacities);
+        SnapshotIO.writeDoubles(output, cpuFreqs);
+        SnapshotIO.writeInts(output, processingNodeIndex);
+        SnapshotIO.writeInts(output, linksSrcNodeId);
+        SnapshotIO.writeInts(output, linksDstNodeId);
+        SnapshotIO.writeDoubles(output, linksBandwidth);
+        SnapshotIO.writeDoubles(output, linksLatency);
+        SnapshotIO.writeInts(output, switchesId);
+        SnapshotIO.writeDoubles(output, switchesBytesCapacity);
+        SnapshotIO.writeDoubles(output, switchesMessagesCapacity);
+        SnapshotIO.writeInts(output, pathsStart);
+        SnapshotIO.writeInts(output, pathsLinks);
+        SnapshotIO.writeInts(output, pathsSwitchesStart);
+        SnapshotIO.writeInts(output, pathsSwitches);
+    }
+
+    public static CompiledArchitecture readFrom(ByteBuffer buffer) {
+        int[] processingNodesId = SnapshotIO.readInts(buffer);
+        String[] processingNodesName = SnapshotIO.readStrings(buffer);
+        double[] cpuCapacities = SnapshotIO.readDoubles(buffer);
+        double[] cpuFreqs = SnapshotIO.readDoubles(buffer);
+        int[] processingNodeIndex = SnapshotIO.readInts(buffer);
+        int[] linksSrcNodeId = SnapshotIO.readInts(buffer);
+        int[] linksDstNodeId = SnapshotIO.readInts(buffer);
+        double[] linksBandwidth = SnapshotIO.readDoubles(buffer);
+        double[] linksLatency = SnapshotIO.readDoubles(buffer);
+        int[] switchesId = SnapshotIO.readInts(buffer);
+        double[] switchesBytesCapacity = SnapshotIO.readDoubles(buffer);
+        double[] switchesMessagesCapacity = SnapshotIO.readDoubles(buffer);
+        int[] pathsStart = SnapshotIO.readInts(buffer);
+        int[] pathsLinks = SnapshotIO.readInts(buffer);
+        int[] pathsSwitchesStart = SnapshotIO.readInts(buffer);
+        int[] pathsSwitches = SnapshotIO.readInts(buffer);
+
+        int nbProcessingNodes = processingNodesId.length;
+        int nbLinks = linksSrcNodeId.length;
+        if (processingNodesName.length != nbProcessingNodes || cpuCapacities.length != nbProcessingNodes
+                || cpuFreqs.length != nbProcessingNodes || linksDstNodeId.length != nbLinks
+                || linksBandwidth.length != nbLinks || linksLatency.length != nbLinks
+                || pathsStart.length != nbProcessingNodes * nbProcessingNodes + 1
+                || pathsStart[nbProcessingNodes * nbProcessingNodes] != pathsLinks.length
+                || switchesBytesCapacity.length != switchesId.length || switchesMessagesCapacity.length != switchesId.length
+                || pathsSwitchesStart.length != pathsStart.length
+                || pathsSwitchesStart[nbProcessingNodes * nbProcessingNodes] != pathsSwitches.length)
+            throw new IllegalArgumentException("Corrupted snapshot: inconsistent architecture arrays");
+        return new CompiledArchitecture(processingNodesId, processingNodesName, cpuCapacities, cpuFreqs, processingNodeIndex,
+                linksSrcNodeId, linksDstNodeId, linksBandwidth, linksLatency, switchesId, switchesBytesCapacity, switchesMessagesCapacity,
+                pathsStart, pathsLinks, pathsSwitchesStart, pathsSwitches);
+    }
+
+    public CompiledArchitecture copy() { // Same architecture, without any load
+        return new CompiledArchitecture(this);
+    }
+
+    public int getNbProcessingNodes() {
+        return nbProcessingNodes;
+    }
+
+    public int getProcessingNodeId(int index) {
+        return processingNodesId[index];
+    }
+
+    public String getProcessingNodeName(int index) {
+        return processingNodesName[index];
+    }
+
+    public int getProcessingNodeIndex(int nodeId) {
+        assert(0 <= nodeId && nodeId < processingNodeIndex.length && processingNodeIndex[nodeId] != -1);
+        return processingNodeIndex[nodeId];
+    }
+
+    public double getCPUCapacity(int index) {
+        return cpuCapacities[index];
+    }
+
+    public double getCPUFreq(int index) {
+        return cpuFreqs[index];
+    }
+
+    public int getNbLinks() {
+        return nbLinks;
+    }
+
+    public int getLinkSrcNodeId(int linkIndex) {
+        return linksSrcNodeId[linkIndex];
+    }
+
+    public int getLinkDstNodeId(int linkIndex) {
+        return linksDstNodeId[linkIndex];
+    }
+
+    public double getLinkBandwidth(int linkIndex) {
+        return linksBandwidth[linkIndex];
+    }
+
+    public double getLinkLatency(int linkIndex) {
+        return linksLatency[linkIndex];
+    }
+
+    public int getNbSwitches() { // Switches with a forwarding capacity only
+        return nbSwitches;
+    }
+
+    public int getSwitchId(int switchIndex) {
+        return switchesId[switchIndex];
+    }
+
+    public double getSwitchBytesCapacity(int switchIndex) { // 0 if not limited
+        return switchesBytesCapacity[switchIndex];
+    }
+
+    public double getSwitchMessagesCapacity(int switchIndex) { // 0 if not limited
+        return switchesMessagesCapacity[switchIndex];
+    }
+
+    public int getPathStart(int srcIndex, int dstIndex) { // Position of the first link of the path in getPathLink
+        return pathsStart[srcIndex * nbProcessingNodes + dstIndex];
+    }
+
+    public int getPathEnd(int srcIndex, int dstIndex) {
+        return pathsStart[srcIndex * nbProcessingNodes + dstIndex + 1];
+    }
+
+    public int getPathLink(int position) {
+        return pathsLinks[position];
+    }
+
+    private void updateProcessingNodeThroughput(int index) {
+        bottleneckTree.update(index, cpuLoads[index] == 0.0 ? Double.MAX_VALUE : cpuCapacities[index] / cpuLoads[index]);
+    }
+
+    private void updateLinkThroughput(int linkIndex) {
+        bottleneckTree.update(nbProcessingNodes + linkIndex, linksLoad[linkIndex] == 0.0 ? Double.MAX_VALUE : linksBandwidth[linkIndex] / linksLoad[linkIndex]);
+    }
+
+    private void updateSwitchThroughput(int switchIndex) {
+        double throughput = Double.MAX_VALUE;
+        if (switchesBytesCapacity[switchIndex] > 0 && switchesBytesLoad[switchIndex] > 0)
+            throughput = switchesBytesCapacity[switchIndex] / switchesBytesLoad[switchIndex];
+        if (switchesMessagesCapacity[switchIndex] > 0 && switchesMessagesLoad[switchIndex] > 0)
+            throughput = Math.min(throughput, switchesMessagesCapacity[switchIndex] / switchesMessagesLoad[switchIndex]);
+        bottleneckTree.update(nbProcessingNodes + nbLinks + switchIndex, throughput);
+    }
+
+    public void addLoadOnProcessingNode(int index, double processingLoad) {
+        cpuLoads[index] += processingLoad;
+        updateProcessingNodeThroughput(index);
+    }
+
+    public void removeLoadOnProcessingNode(int index, double processingLoad) {
+        assert(cpuLoads[index] + 1 >= processingLoad); // 1 to avoid floating error to cause errors
+        cpuLoads[index] -= processingLoad;
+        if (cpuLoads[index] < 0.0)
+            cpuLoads[index] = 0.0;
+        updateProcessingNodeThroughput(index);
+    }
+
+    // The bytes load the links of the path, the bytes and the messages load the switches the path goes through
+    public void addLoadOnLink(int srcIndex, int dstIndex, double communicationLoad, double nbMessages) {
+        int pathIndex = srcIndex * nbProcessingNodes + dstIndex;
+        int end = pathsStart[pathIndex + 1];
+        for (int i = pathsStart[pathIndex]; i < end; ++i) {
+            int linkIndex = pathsLinks[i];
+            linksLoad[linkIndex] += communicationLoad;
+            updateLinkThroughput(linkIndex);
+        }
+        end = pathsSwitchesStart[pathIndex + 1];
+        for (int i = pathsSwitchesStart[pathIndex]; i < end; ++i) {
+            int switchIndex = pathsSwitches[i];
+            switchesBytesLoad[switchIndex] += communicationLoad;
+            switchesMessagesLoad[switchIndex] += nbMessages;
+            updateSwitchThroughput(switchIndex);
+        }
+    }
+
+    public void removeLoadOnLink(int srcIndex, int dstIndex, double communicationLoad, double nbMessages) {
+        int pathIndex = srcIndex * nbProcessingNodes + dstIndex;
+        int end = pathsStart[pathIndex + 1];
+        for (int i = pathsStart[pathIndex]; i < end; ++i) {
+            int linkIndex = pathsLinks[i];
+            assert(linksLoad[linkIndex] + 1 >= communicationLoad); // 1 to avoid floating error to cause errors
+            linksLoad[linkIndex] -= communicationLoad;
+            if (linksLoad[linkIndex] < 0.0)
+                linksLoad[linkIndex] = 0.0;
+            updateLinkThroughput(linkIndex);
+        }
+        end = pathsSwitchesStart[pathIndex + 1];
+        for (int i = pathsSwitchesStart[pathIndex]; i < end; ++i) {
+            int switchIndex = pathsSwitches[i];
+            switchesBytesLoad[switchIndex] = Math.max(switchesBytesLoad[switchIndex] - communicationLoad, 0.0);
+            switchesMessagesLoad[switchIndex] = Math.max(switchesMessagesLoad[switchIndex] - nbMessages, 0.0);
+            updateSwitchThroughput(switchIndex);
+        }
+    }
+
+    public void resetLoadsOnLinks() {
+        for (int i = 0; i < nbLinks; ++i) {
+            linksLoad[i] = 0.0;
+            updateLinkThroughput(i);
+        }
+        for (int i = 0; i < nbSwitches; ++i) {
+            switchesBytesLoad[i] = 0.0;
+            switchesMessagesLoad[i] = 0.0;
+            updateSwitchThroughput(i);
+        }
+    }
+
+    public void resetLoads() {
+        for (int i = 0; i < nbProcessingNodes; ++i)
+            cpuLoads[i] = 0.0;
+        for (int i = 0; i < nbLinks; ++i)
+            linksLoad[i] = 0.0;
+        for (int i = 0; i < nbSwitches; ++i) {
+            switchesBytesLoad[i] = 0.0;
+            switchesMessagesLoad[i] = 0.0;
+        }
+        bottleneckTree.reset();
+    }
+
+    public double getThroughput() { // Nb requests per second, Double.MAX_VALUE if nothing is loaded
+        return bottleneckTree.getMinThroughput();
+    }
+
+    public String getThroughputInfo() {
+        double throughput = Double.MAX_VALUE;
+        String s = "";
+        for (int i = 0; i < nbProcessingNodes; ++i) {
+            if (cpuLoads[i] == 0.0)
+                continue;
+            double nodeThroughput = bottleneckTree.getThroughput(i);
+            if (nodeThroughput <= throughput) {
+                String info = String.format("\tLimiting resource: node [id %d, %s] with %.2f req/s\n", processingNodesId[i],
+                        processingNodesName[i], nodeThroughput);
+                s = (nodeThroughput == throughput) ? s + info : info;
+                throughput = nodeThroughput;
+            }
+        }
+        for (int i = 0; i < nbLinks; ++i) {
+            if (linksLoad[i] == 0.0)
+                continue;
+            double linkThroughput = bottleneckTree.getThroughput(nbProcessingNodes + i);
+            if (linkThroughput <= throughput) {
+                String info = String.format("\tLimiting resource: link from %d to %d with %.2f req/s\n", linksSrcNodeId[i],
+                        linksDstNodeId[i], linkThroughput);
+                s = (linkThroughput == throughput) ? s + info : info;
+                throughput = linkThroughput;
+            }
+        }
+        for (int i = 0; i < nbSwitches; ++i) {
+            double switchThroughput = bottleneckTree.getThroughput(nbProcessingNodes + nbLinks + i);
+            if (switchThroughput != Double.MAX_VALUE && switchThroughput <= throughput) { // Loaded
+                String info = String.format("\tLimiting resource: switch %d with %.2f req/s\n", switchesId[i], switchThroughput);
+                s = (switchThroughput == throughput) ? s + info : info;
+                throughput = switchThroughput;
+            }
+        }
+        return s;
+    }
+
+}
@@ -1,33 +1,85 @@
 package architecture;
 
 public class NetworkNode {
-    
+
     private final int id;
     private final NetworkNodeType type;
-    
+
+    // Forwarding capacity of a switch (backplane and packet rate), 0 if it does not limit the throughput
+    private final double bytesCapacity; // In Bytes per second
+    private final double messagesCapacity; // In messages per second
+
+    private double sizeInBytes, nbMessages; // Traffic forwarded by the switch
+
     NetworkNode(int id, NetworkNodeType type) {
         this.id = id;
         this.type = type;
+        bytesCapacity = 0;
+        messagesCapacity = 0;
     }
-    
+
     public NetworkNode(int id) { // Used to create internal network nodes
+        this(id, 0, 0);
+    }
+
+    public NetworkNode(int id, double bytesCapacity, double messagesCapacity) { // A switch which forwards a bounded traffic
+        assert(bytesCapacity >= 0 && messagesCapacity >= 0);
         this.id = id;
         this.type = NetworkNodeType.SWITCH;
+        this.bytesCapacity = bytesCapacity;
+        this.messagesCapacity = messagesCapacity;
     }
-    
+
     public int getId() {
         return id;
     }
-    
+
     public NetworkNodeType getType() {
-        return type; 
+        return type;
+    }
+
+    public double getBytesCapacity() {
+        return bytesCapacity;
+    }
+
+    public double getMessagesCapacity() {
+        return messagesCapacity;
+    }
+
+    public boolean hasForwardingCapacity() {
+        return bytesCapacity > 0 || messagesCapacity > 0;
+    }
+
+    public void resetForwardingLoad() {
+        sizeInBytes = 0;
+        nbMessages = 0;
+    }
+
+    public void addForwardingLoad(double msgSizeInBytes, double msgCount) {
+        sizeInBytes += msgSizeInBytes;
+        nbMessages += msgCount;
+    }
+
+    public void removeForwardingLoad(double msgSizeInBytes, double msgCount) {
+        assert(sizeInBytes + 1 >= msgSizeInBytes); // 1 to avoid floating error to cause errors
+        sizeInBytes = Math.max(sizeInBytes - msgSizeInBytes, 0.0);
+        nbMessages = Math.max(nbMessages - msgCount, 0.0);
+    }
+
+    public double getForwardingThroughput() { // Nb requests per second
+        double throughput = Double.MAX_VALUE;
+        if (bytesCapacity > 0 && sizeInBytes > 0)
+            throughput = bytesCapacity / sizeInBytes;
+        if (messagesCapacity > 0 && nbMessages > 0)
+            throughput = Math.min(throughput, messagesCapacity / nbMessages);
+        return throughput;
     }
 
     @Override
     public String toString() {
         return Integer.toString(id);
     }
-    
-    
+
+
 
 }
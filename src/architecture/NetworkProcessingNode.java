@@ -16,6 +16,14 @@ public class NetworkProcessingNode extends NetworkNode {
         this.cpuLoad = 0;
     }
     
+    public int getNbCPUs() {
+        return nbCPUs;
+    }
+    
+    public double getCpuFreq() {
+        return cpuFreq;
+    }
+    
     public double getCPULoad() {
         return cpuLoad;
     }
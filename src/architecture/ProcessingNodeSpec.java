@@ -0,0 +1,35 @@
+package architecture;
+
+/**
+ * The description of a kind of machine, used by the topology generators to create processing nodes.
+ */
+public class ProcessingNodeSpec {
+
+    private final String name;
+    private final int nbCPUs;
+    private final double cpuFreq; // Number of cycles per second of a single core
+
+    public ProcessingNodeSpec(String name, int nbCPUs, double cpuFreq) {
+        assert(nbCPUs > 0 && cpuFreq > 0);
+        this.name = name;
+        this.nbCPUs = nbCPUs;
+        this.cpuFreq = cpuFreq;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNbCPUs() {
+        return nbCPUs;
+    }
+
+    public double getCpuFreq() {
+        return cpuFreq;
+    }
+
+    public NetworkProcessingNode createNode(int nodeId) { // Named after the spec and the node id
+        return new NetworkProcessingNode(nodeId, name + "-" + nodeId, nbCPUs, cpuFreq);
+    }
+
+}
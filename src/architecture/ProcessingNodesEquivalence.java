@@ -0,0 +1,141 @@
+package architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * Groups processing nodes into classes of interchangeable machines. Two machines are interchangeable if they have
+ * the same CPUs, and if swapping them leaves the links and the routing map unchanged (e.g. identical machines
+ * connected to the same switch). Any repartition can then be mapped to a canonical one, in which the machines of
+ * a class are used in increasing order of their position in the class, without changing its throughput. The
+ * positions follow the ids of the machines, as the order of the interchangeable entities of a protocol does.
+ */
+public class ProcessingNodesEquivalence {
+
+    private final int nbClasses;
+    private final int[] classOfCPU; // CPU index (in the cpusId array) to class id
+    private final int[] positionInClass; // Position of a CPU among the CPUs of its class
+    private final int[] classSize;
+
+    public ProcessingNodesEquivalence(Architecture archi, Integer[] cpusId) {
+        int nbCPUs = cpusId.length;
+        classOfCPU = new int[nbCPUs];
+        positionInClass = new int[nbCPUs];
+
+        ArrayList<Integer> nodesId = new ArrayList<Integer>(archi.getNodesId());
+        HashSet<Integer> transitNodesId = getTransitNodesId(archi, nodesId);
+        boolean[] isTransit = new boolean[nbCPUs];
+        for (int i = 0; i < nbCPUs; ++i)
+            isTransit[i] = transitNodesId.contains(cpusId[i]);
+
+        ArrayList<Integer> representatives = new ArrayList<Integer>(); // CPU index of the first CPU of each class
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        for (int i = 0; i < nbCPUs; ++i) {
+            int classId = -1;
+            if (!isTransit[i]) {
+                for (int c = 0; c < representatives.size() && classId == -1; ++c) {
+                    int representative = representatives.get(c);
+                    if (!isTransit[representative] && areInterchangeable(archi, nodesId, cpusId[representative], cpusId[i]))
+                        classId = c;
+                }
+            }
+            if (classId == -1) {
+                classId = representatives.size();
+                representatives.add(i);
+                sizes.add(0);
+            }
+            classOfCPU[i] = classId;
+            sizes.set(classId, sizes.get(classId) + 1);
+        }
+
+        nbClasses = representatives.size();
+        classSize = new int[nbClasses];
+        for (int c = 0; c < nbClasses; ++c)
+            classSize[c] = sizes.get(c);
+
+        // The CPUs of a class are numbered in increasing order of their ids
+        Integer[] cpuIndicesById = new Integer[nbCPUs];
+        for (int i = 0; i < nbCPUs; ++i)
+            cpuIndicesById[i] = i;
+        final Integer[] ids = cpusId;
+        Arrays.sort(cpuIndicesById, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return ids[a].compareTo(ids[b]);
+            }
+        });
+        int[] nbNumbered = new int[nbClasses];
+        for (int i : cpuIndicesById)
+            positionInClass[i] = nbNumbered[classOfCPU[i]]++;
+    }
+
+    public int getNbClasses() {
+        return nbClasses;
+    }
+
+    public int getClassOfCPU(int cpuIndex) {
+        return classOfCPU[cpuIndex];
+    }
+
+    public int getPositionInClass(int cpuIndex) {
+        return positionInClass[cpuIndex];
+    }
+
+    public int getClassSize(int classId) {
+        return classSize[classId];
+    }
+
+    // A node is a transit node if some route between two other nodes goes through it
+    private static HashSet<Integer> getTransitNodesId(Architecture archi, ArrayList<Integer> nodesId) {
+        HashSet<Integer> transitNodesId = new HashSet<Integer>();
+        for (int srcNodeId : nodesId) {
+            for (int dstNodeId : nodesId) {
+                int nextNodeId = archi.getNextNodeIdOnPath(srcNodeId, dstNodeId);
+                if (nextNodeId != srcNodeId && nextNodeId != dstNodeId && nextNodeId != -1)
+                    transitNodesId.add(nextNodeId);
+            }
+        }
+        return transitNodesId;
+    }
+
+    // Check that swapping the non transit nodes a and b maps the architecture onto itself
+    private static boolean areInterchangeable(Architecture archi, ArrayList<Integer> nodesId, int a, int b) {
+        NetworkProcessingNode nodeA = (NetworkProcessingNode) archi.getNode(a);
+        NetworkProcessingNode nodeB = (NetworkProcessingNode) archi.getNode(b);
+        if (nodeA.getNbCPUs() != nodeB.getNbCPUs() || nodeA.getCpuFreq() != nodeB.getCpuFreq())
+            return false;
+
+        if (!sameLink(archi.getLink(a, b), archi.getLink(b, a))
+                || swap(archi.getNextNodeIdOnPath(a, b), a, b) != archi.getNextNodeIdOnPath(b, a)
+                || swap(archi.getNextNodeIdOnPath(a, a), a, b) != archi.getNextNodeIdOnPath(b, b))
+            return false;
+
+        for (int nodeId : nodesId) {
+            if (nodeId == a || nodeId == b)
+                continue;
+            if (!sameLink(archi.getLink(a, nodeId), archi.getLink(b, nodeId))
+                    || !sameLink(archi.getLink(nodeId, a), archi.getLink(nodeId, b)))
+                return false;
+            if (swap(archi.getNextNodeIdOnPath(a, nodeId), a, b) != archi.getNextNodeIdOnPath(b, nodeId)
+                    || swap(archi.getNextNodeIdOnPath(nodeId, a), a, b) != archi.getNextNodeIdOnPath(nodeId, b))
+                return false;
+        }
+        return true;
+    }
+
+    private static int swap(int nodeId, int a, int b) {
+        if (nodeId == a)
+            return b;
+        if (nodeId == b)
+            return a;
+        return nodeId;
+    }
+
+    private static boolean sameLink(NetworkLink linkA, NetworkLink linkB) {
+        if (linkA == null || linkB == null)
+            return linkA == linkB;
+        return linkA.getBandwidth() == linkB.getBandwidth() && linkA.getLatency() == linkB.getLatency();
+    }
+
+}
@@ -0,0 +1,321 @@
+package architecture;
+
+import java.util.Arrays;
+
+/**
+ * Computes the routing map of an architecture from its links. For each destination, a shortest path tree is built
+ * on the reversed link graph, which gives the next node towards the destination from every other node:
+ * O(N+E) per destination with hop count routing (BFS), O(E.log(N)) with bandwidth weighted routing (Dijkstra, where
+ * a link costs the time to send one byte on it). Messages only go to processing nodes, so only they are destinations
+ * when all the routes are computed at once. Routes only go through switches, unless a node can reach the destination
+ * through processing nodes only (e.g. a machine only linked to another machine): the processing nodes then forward
+ * its messages.
+ * Between paths of the same cost, the lowest node index is preferred, or, when equal cost paths are spread, the next
+ * node is chosen by a hash of the node and the destination, as ECMP does in multi-rooted topologies.
+ */
+public class RoutingBuilder {
+
+    private final RoutingMetric metric;
+    private final boolean spreadEqualCostPaths;
+    private final int nbNodes;
+    private final int[] nodesId; // index to nodeId
+    private final boolean[] isProcessingNode;
+
+    // Reversed link graph in compressed form: the links arriving to the node of index i go from the nodes
+    // linksSrc[linksStart[i] .. linksStart[i + 1][, with the given costs
+    private final int[] linksStart;
+    private final int[] linksSrc;
+    private final double[] linksCost;
+
+    // Link graph: the links leaving the node of index i go to outLinksDst[outLinksStart[i] .. outLinksStart[i + 1][,
+    // only built to spread the routes over equal cost paths
+    private final int[] outLinksStart;
+    private final int[] outLinksDst;
+    private final double[] outLinksCost;
+
+    // Working arrays, for one destination at a time
+    private final int[] nextNode; // index of the next node towards the destination, -1 if the destination cannot be reached
+    private final double[] distance;
+    private final boolean[] isForwardedByProcessingNodes; // The node cannot reach the destination through switches only
+    private final int[] switchedNextNode; // Routes through switches only
+    private final double[] switchedDistance;
+    private final int[] queue;
+    private final boolean[] done;
+    private double[] heapDistances;
+    private int[] heapNodes;
+
+    public RoutingBuilder(Architecture archi, RoutingMetric metric) {
+        this(archi, metric, false);
+    }
+
+    public RoutingBuilder(Architecture archi, RoutingMetric metric, boolean spreadEqualCostPaths) {
+        this.metric = metric;
+        this.spreadEqualCostPaths = spreadEqualCostPaths;
+        nbNodes = archi.getNodesId().size();
+        nodesId = new int[nbNodes];
+        isProcessingNode = new boolean[nbNodes];
+        int maxNodeId = 0;
+        int index = 0;
+        for (int nodeId : archi.getNodesId()) {
+            nodesId[index] = nodeId;
+            maxNodeId = Math.max(maxNodeId, nodeId);
+            ++index;
+        }
+        Arrays.sort(nodesId); // Deterministic tie breaking between paths of the same cost: the lowest node index is preferred
+        int[] nodeIndex = new int[maxNodeId + 1];
+        for (int i = 0; i < nbNodes; ++i)
+            nodeIndex[nodesId[i]] = i;
+        for (int i = 0; i < nbNodes; ++i)
+            isProcessingNode[i] = archi.getNode(nodesId[i]).getType() == NetworkNodeType.PROCESSING_NODE;
+
+        int nbLinks = archi.getLinksId().size();
+        linksStart = new int[nbNodes + 1];
+        for (CoupleNodesId coupleNodesId : archi.getLinksId())
+            ++linksStart[nodeIndex[coupleNodesId.getDstNodeId()] + 1];
+        for (int i = 0; i < nbNodes; ++i)
+            linksStart[i + 1] += linksStart[i];
+        int[] filled = new int[nbNodes];
+        int[] src = new int[nbLinks];
+        double[] cost = new double[nbLinks];
+        for (CoupleNodesId coupleNodesId : archi.getLinksId()) {
+            int dstIndex = nodeIndex[coupleNodesId.getDstNodeId()];
+            int position = linksStart[dstIndex] + filled[dstIndex]++;
+            src[position] = nodeIndex[coupleNodesId.getSrcNodeId()];
+            if (metric == RoutingMetric.HOP_COUNT)
+                cost[position] = 1.0;
+            else
+                cost[position] = 1.0 / archi.getLink(coupleNodesId.getSrcNodeId(), coupleNodesId.getDstNodeId()).getBandwidth();
+        }
+        // Sort the links arriving to each node by source index
+        linksSrc = new int[nbLinks];
+        linksCost = new double[nbLinks];
+        for (int i = 0; i < nbNodes; ++i) {
+            long[] sorted = new long[linksStart[i + 1] - linksStart[i]];
+            for (int j = 0; j < sorted.length; ++j)
+                sorted[j] = ((long) src[linksStart[i] + j] << 32) | j;
+            Arrays.sort(sorted);
+            for (int j = 0; j < sorted.length; ++j) {
+                int position = linksStart[i] + (int) (sorted[j] & 0xFFFFFFFFL);
+                linksSrc[linksStart[i] + j] = src[position];
+                linksCost[linksStart[i] + j] = cost[position];
+            }
+        }
+
+        if (spreadEqualCostPaths) {
+            outLinksStart = new int[nbNodes + 1];
+            for (int i = 0; i < nbLinks; ++i)
+                ++outLinksStart[linksSrc[i] + 1];
+            for (int i = 0; i < nbNodes; ++i)
+                outLinksStart[i + 1] += outLinksStart[i];
+            outLinksDst = new int[nbLinks];
+            outLinksCost = new double[nbLinks];
+            filled = new int[nbNodes];
+            for (int dst = 0; dst < nbNodes; ++dst) { // Sorted by destination index, as the sources are visited in order
+                for (int i = linksStart[dst]; i < linksStart[dst + 1]; ++i) {
+                    int position = outLinksStart[linksSrc[i]] + filled[linksSrc[i]]++;
+                    outLinksDst[position] = dst;
+                    outLinksCost[position] = linksCost[i];
+                }
+            }
+        } else {
+            outLinksStart = null;
+            outLinksDst = null;
+            outLinksCost = null;
+        }
+
+        nextNode = new int[nbNodes];
+        distance = new double[nbNodes];
+        isForwardedByProcessingNodes = new boolean[nbNodes];
+        switchedNextNode = new int[nbNodes];
+        switchedDistance = new double[nbNodes];
+        queue = new int[nbNodes];
+        done = new boolean[nbNodes];
+        heapDistances = new double[Math.max(16, nbLinks + 1)];
+        heapNodes = new int[heapDistances.length];
+    }
+
+    public int getNbNodes() {
+        return nbNodes;
+    }
+
+    public int getNodeId(int index) {
+        return nodesId[index];
+    }
+
+    // Compute, for the destination of index dstIndex, the index of the next node from each node (-1 if there is no path)
+    public int[] computeRoutesTowards(int dstIndex) {
+        computeShortestPaths(dstIndex, false);
+        Arrays.fill(isForwardedByProcessingNodes, false);
+        boolean allNodesReachDestination = true;
+        for (int i = 0; i < nbNodes && allNodesReachDestination; ++i)
+            allNodesReachDestination = nextNode[i] != -1;
+        if (!allNodesReachDestination) { // The nodes that already reach it keep their routes through switches
+            System.arraycopy(nextNode, 0, switchedNextNode, 0, nbNodes);
+            System.arraycopy(distance, 0, switchedDistance, 0, nbNodes);
+            computeShortestPaths(dstIndex, true);
+            for (int i = 0; i < nbNodes; ++i) {
+                if (switchedNextNode[i] != -1) {
+                    nextNode[i] = switchedNextNode[i];
+                    distance[i] = switchedDistance[i];
+                } else {
+                    isForwardedByProcessingNodes[i] = nextNode[i] != -1;
+                }
+            }
+        }
+        if (spreadEqualCostPaths)
+            spreadOverEqualCostPaths(dstIndex);
+        return nextNode;
+    }
+
+    // Replace the routing map of the architecture by the shortest paths routes from all nodes to the processing nodes,
+    // all the nodes must be able to reach them
+    public static void computeRoutes(Architecture archi, RoutingMetric metric) {
+        RoutingBuilder builder = new RoutingBuilder(archi, metric);
+        RoutingMap routingMap = new RoutingMap();
+        for (int dstIndex = 0; dstIndex < builder.nbNodes; ++dstIndex) {
+            if (!builder.isProcessingNode[dstIndex])
+                continue;
+            int[] nextNode = builder.computeRoutesTowards(dstIndex);
+            int dstNodeId = builder.nodesId[dstIndex];
+            for (int srcIndex = 0; srcIndex < builder.nbNodes; ++srcIndex) {
+                if (nextNode[srcIndex] == -1)
+                    throw new IllegalArgumentException("No route from node " + builder.nodesId[srcIndex] + " to node " + dstNodeId);
+                routingMap.put(builder.nodesId[srcIndex], dstNodeId, builder.nodesId[nextNode[srcIndex]]);
+            }
+        }
+        archi.setRoutingMap(routingMap);
+    }
+
+    private void computeShortestPaths(int dstIndex, boolean processingNodesForward) {
+        if (metric == RoutingMetric.HOP_COUNT)
+            breadthFirstSearch(dstIndex, processingNodesForward);
+        else
+            dijkstra(dstIndex, processingNodesForward);
+    }
+
+    private void breadthFirstSearch(int dstIndex, boolean processingNodesForward) {
+        Arrays.fill(nextNode, -1);
+        nextNode[dstIndex] = dstIndex;
+        distance[dstIndex] = 0.0;
+        int head = 0, tail = 0;
+        queue[tail++] = dstIndex;
+        while (head < tail) {
+            int node = queue[head++];
+            if (node != dstIndex && isProcessingNode[node] && !processingNodesForward)
+                continue;
+            for (int i = linksStart[node]; i < linksStart[node + 1]; ++i) {
+                int src = linksSrc[i];
+                if (nextNode[src] == -1) {
+                    nextNode[src] = node;
+                    distance[src] = distance[node] + 1.0;
+                    queue[tail++] = src;
+                }
+            }
+        }
+    }
+
+    private void dijkstra(int dstIndex, boolean processingNodesForward) {
+        Arrays.fill(nextNode, -1);
+        Arrays.fill(distance, Double.MAX_VALUE);
+        Arrays.fill(done, false);
+        distance[dstIndex] = 0.0;
+        nextNode[dstIndex] = dstIndex;
+        int heapSize = 0;
+        heapSize = heapPush(heapSize, 0.0, dstIndex);
+        while (heapSize > 0) {
+            int node = heapNodes[0];
+            double nodeDistance = heapDistances[0];
+            heapSize = heapPop(heapSize);
+            if (done[node] || nodeDistance > distance[node])
+                continue;
+            done[node] = true;
+            if (node != dstIndex && isProcessingNode[node] && !processingNodesForward)
+                continue;
+            for (int i = linksStart[node]; i < linksStart[node + 1]; ++i) {
+                int src = linksSrc[i];
+                double srcDistance = nodeDistance + linksCost[i];
+                if (srcDistance < distance[src]) {
+                    distance[src] = srcDistance;
+                    nextNode[src] = node;
+                    heapSize = heapPush(heapSize, srcDistance, src);
+                }
+            }
+        }
+    }
+
+    // Choose the next node of each node among all the nodes that are on a shortest path towards the destination
+    private void spreadOverEqualCostPaths(int dstIndex) {
+        for (int src = 0; src < nbNodes; ++src) {
+            if (src == dstIndex || nextNode[src] == -1)
+                continue;
+            int nbCandidates = 0;
+            for (int i = outLinksStart[src]; i < outLinksStart[src + 1]; ++i) {
+                if (isOnShortestPath(src, i, dstIndex))
+                    ++nbCandidates;
+            }
+            if (nbCandidates < 2)
+                continue;
+            int hash = dstIndex * 0x9E3779B1 + src * 0x85EBCA6B;
+            hash ^= hash >>> 16;
+            hash *= 0x7FEB352D;
+            hash ^= hash >>> 15;
+            int candidate = (hash & 0x7FFFFFFF) % nbCandidates;
+            for (int i = outLinksStart[src]; i < outLinksStart[src + 1]; ++i) {
+                if (isOnShortestPath(src, i, dstIndex) && candidate-- == 0) {
+                    nextNode[src] = outLinksDst[i];
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean isOnShortestPath(int src, int outLink, int dstIndex) {
+        int next = outLinksDst[outLink];
+        if (next != dstIndex && (isProcessingNode[next] || nextNode[next] == -1))
+            return false;
+        if (isForwardedByProcessingNodes[next] != isForwardedByProcessingNodes[src]) // The distances are not comparable
+            return false;
+        // The costs are sums of doubles with bandwidth routing: equal costs can differ by rounding errors
+        return Math.abs(distance[next] + outLinksCost[outLink] - distance[src]) <= 1e-9 * distance[src];
+    }
+
+    private int heapPush(int heapSize, double nodeDistance, int node) {
+        if (heapSize == heapNodes.length) {
+            heapDistances = Arrays.copyOf(heapDistances, 2 * heapSize);
+            heapNodes = Arrays.copyOf(heapNodes, 2 * heapSize);
+        }
+        int i = heapSize;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapDistances[parent] <= nodeDistance)
+                break;
+            heapDistances[i] = heapDistances[parent];
+            heapNodes[i] = heapNodes[parent];
+            i = parent;
+        }
+        heapDistances[i] = nodeDistance;
+        heapNodes[i] = node;
+        return heapSize + 1;
+    }
+
+    private int heapPop(int heapSize) {
+        --heapSize;
+        double lastDistance = heapDistances[heapSize];
+        int lastNode = heapNodes[heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapDistances[child + 1] < heapDistances[child])
+                ++child;
+            if (heapDistances[child] >= lastDistance)
+                break;
+            heapDistances[i] = heapDistances[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapDistances[i] = lastDistance;
+        heapNodes[i] = lastNode;
+        return heapSize;
+    }
+
+}
@@ -1,43 +1,195 @@
 package architecture;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * The next node on the path from each node to each destination. The routes are either all given with put, or, for
+ * large architectures, computed towards a destination by a RoutingBuilder the first time they are needed.
+ */
 public class RoutingMap {
 
-    private HashMap<CoupleNodesId, Integer> routingMap; // For each node gives the following node on path towards destination
+    // Nodes get a dense index in the order they appear in the map
+    private int[] nodeIndex; // nodeId to index, -1 if the node does not appear in the map
+    private int[] nodesId; // index to nodeId
+    private int nbNodes;
+
+    private int[][] routingMap; // For each destination index, gives for each node index the following node on path towards destination (-1 if none)
+    private int size;
+
+    private final RoutingBuilder builder; // null if the routes are not computed on demand
 
     public RoutingMap() {
-        routingMap = new HashMap<CoupleNodesId, Integer>();
+        nodeIndex = new int[0];
+        nodesId = new int[16];
+        nbNodes = 0;
+        routingMap = new int[16][];
+        size = 0;
+        builder = null;
+    }
+
+    public RoutingMap(RoutingBuilder builder) { // The routes towards a destination are computed when first needed
+        nodeIndex = new int[0];
+        nodesId = new int[16];
+        nbNodes = 0;
+        routingMap = new int[16][];
+        size = 0;
+        for (int i = 0; i < builder.getNbNodes(); ++i) // Same indices as the builder
+            getOrCreateIndex(builder.getNodeId(i));
+        this.builder = builder;
+    }
+
+    // Fill the routes towards the destination of this index, if they are computed on demand and not yet known
+    private synchronized int[] getRoutesTowards(int dstIndex) {
+        if (routingMap[dstIndex] == null && builder != null && dstIndex < builder.getNbNodes()) {
+            int[] nextNodes = builder.computeRoutesTowards(dstIndex);
+            int[] nextNodesId = new int[nbNodes];
+            for (int srcIndex = 0; srcIndex < nbNodes; ++srcIndex) {
+                if (srcIndex < nextNodes.length && nextNodes[srcIndex] != -1) {
+                    nextNodesId[srcIndex] = nodesId[nextNodes[srcIndex]];
+                    ++size;
+                } else {
+                    nextNodesId[srcIndex] = -1;
+                }
+            }
+            routingMap[dstIndex] = nextNodesId;
+        }
+        return routingMap[dstIndex];
+    }
+
+    private void computeAllRoutes() {
+        if (builder == null)
+            return;
+        for (int dstIndex = 0; dstIndex < nbNodes; ++dstIndex)
+            getRoutesTowards(dstIndex);
+    }
+
+    public boolean computesRoutesOnDemand() {
+        return builder != null;
+    }
+
+    private int getIndex(int nodeId) { // -1 if the node does not appear in the map
+        if (nodeId < 0 || nodeId >= nodeIndex.length)
+            return -1;
+        return nodeIndex[nodeId];
+    }
+
+    private int getOrCreateIndex(int nodeId) {
+        assert(nodeId >= 0);
+        if (nodeId >= nodeIndex.length) {
+            int[] newNodeIndex = new int[Math.max(nodeId + 1, 2 * nodeIndex.length)];
+            System.arraycopy(nodeIndex, 0, newNodeIndex, 0, nodeIndex.length);
+            for (int i = nodeIndex.length; i < newNodeIndex.length; ++i)
+                newNodeIndex[i] = -1;
+            nodeIndex = newNodeIndex;
+        }
+        if (nodeIndex[nodeId] == -1) {
+            if (nbNodes == nodesId.length) {
+                int[] newNodesId = new int[2 * nbNodes];
+                System.arraycopy(nodesId, 0, newNodesId, 0, nbNodes);
+                nodesId = newNodesId;
+                int[][] newRoutingMap = new int[2 * nbNodes][];
+                System.arraycopy(routingMap, 0, newRoutingMap, 0, nbNodes);
+                routingMap = newRoutingMap;
+            }
+            nodesId[nbNodes] = nodeId;
+            nodeIndex[nodeId] = nbNodes++;
+        }
+        return nodeIndex[nodeId];
+    }
+
+    private int getNextNodeId(int srcIndex, int dstIndex) {
+        if (srcIndex == -1 || dstIndex == -1)
+            return -1;
+        int[] nextNodesId = (builder == null) ? routingMap[dstIndex] : getRoutesTowards(dstIndex);
+        if (nextNodesId == null || srcIndex >= nextNodesId.length)
+            return -1;
+        return nextNodesId[srcIndex];
     }
 
     public boolean containsKey(int srcNodeId, int dstNodeId) {
-        return routingMap.containsKey(new CoupleNodesId(srcNodeId, dstNodeId));
+        return getNextNodeId(getIndex(srcNodeId), getIndex(dstNodeId)) != -1;
     }
 
     public int getSize() {
-        return routingMap.size();
+        computeAllRoutes();
+        return size;
     }
 
     public int get(int srcNodeId, int dstNodeId) {
+        int nextNodeId = getNextNodeId(getIndex(srcNodeId), getIndex(dstNodeId));
         try {
-            assert(routingMap.containsKey(new CoupleNodesId(srcNodeId, dstNodeId)));
+            assert(nextNodeId != -1);
         } catch (AssertionError e) {
             System.out.println("Key ("+srcNodeId+", "+dstNodeId+") does not exist in routingMap");
         }
-        return routingMap.get(new CoupleNodesId(srcNodeId, dstNodeId));
+        return nextNodeId;
     }
 
     public void put(int srcNodeId, int dstNodeId, int goToNodeId) {
-        routingMap.put(new CoupleNodesId(srcNodeId, dstNodeId), goToNodeId);
+        assert(goToNodeId >= 0);
+        int srcIndex = getOrCreateIndex(srcNodeId);
+        int dstIndex = getOrCreateIndex(dstNodeId);
+        int[] nextNodesId = (builder == null) ? routingMap[dstIndex] : getRoutesTowards(dstIndex);
+        if (nextNodesId == null || srcIndex >= nextNodesId.length) {
+            int[] newNextNodesId = new int[Math.max(srcIndex + 1, nbNodes)];
+            int nbCopied = 0;
+            if (nextNodesId != null) {
+                System.arraycopy(nextNodesId, 0, newNextNodesId, 0, nextNodesId.length);
+                nbCopied = nextNodesId.length;
+            }
+            for (int i = nbCopied; i < newNextNodesId.length; ++i)
+                newNextNodesId[i] = -1;
+            nextNodesId = newNextNodesId;
+            routingMap[dstIndex] = nextNodesId;
+        }
+        if (nextNodesId[srcIndex] == -1)
+            ++size;
+        nextNodesId[srcIndex] = goToNodeId;
+    }
+
+    // A node of srcNodesId whose route towards dstNodeId is missing or loops, -1 if they all reach it. The route of a
+    // node is followed once for all the sources: O(number of nodes)
+    public int findUnroutedSource(Collection<Integer> srcNodesId, int dstNodeId) {
+        int dstIndex = getIndex(dstNodeId);
+        int[] state = new int[nbNodes]; // 0 not visited, 1 on the route being followed, 2 reaches the destination
+        int[] route = new int[nbNodes];
+        for (int srcNodeId : srcNodesId) {
+            int nbOnRoute = 0;
+            int curIndex = getIndex(srcNodeId);
+            while (srcNodeId != dstNodeId && curIndex != dstIndex) {
+                if (curIndex == -1 || state[curIndex] == 1) // No route, or a loop
+                    return srcNodeId;
+                if (state[curIndex] == 2)
+                    break;
+                state[curIndex] = 1;
+                route[nbOnRoute++] = curIndex;
+                curIndex = getIndex(getNextNodeId(curIndex, dstIndex));
+            }
+            for (int i = 0; i < nbOnRoute; ++i)
+                state[route[i]] = 2;
+        }
+        return -1;
     }
 
     public void printRoutingMapKeys() {
-        for (CoupleNodesId key : routingMap.keySet())
+        for (CoupleNodesId key : getKeys())
             System.out.println(key);
     }
 
     public Set<CoupleNodesId> getKeys() {
-        return routingMap.keySet();
+        computeAllRoutes();
+        HashSet<CoupleNodesId> keys = new HashSet<CoupleNodesId>();
+        for (int dstIndex = 0; dstIndex < nbNodes; ++dstIndex) {
+            int[] nextNodesId = routingMap[dstIndex];
+            if (nextNodesId == null)
+                continue;
+            for (int srcIndex = 0; srcIndex < nextNodesId.length; ++srcIndex) {
+                if (nextNodesId[srcIndex] != -1)
+                    keys.add(new CoupleNodesId(nodesId[srcIndex], nodesId[dstIndex]));
+            }
+        }
+        return keys;
     }
 }
@@ -0,0 +1,6 @@
+package architecture;
+
+public enum RoutingMetric {
+    HOP_COUNT,
+    BANDWIDTH;
+}
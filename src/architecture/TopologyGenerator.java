@@ -0,0 +1,176 @@
+package architecture;
+
+/**
+ * Generators of datacenter topologies, to study how the model and the searches scale. The machines get the ids
+ * 0 .. nbMachines - 1, machine i being created from specs[i % specs.length], then the switches get the following
+ * ids. Bandwidths are in Bytes per second and latencies in seconds. The routes follow the shortest paths in number
+ * of hops, spread over the equal cost paths, and are computed on demand: building a topology costs O(nodes + links),
+ * the routes towards a destination are only computed when a path to it is needed.
+ */
+public class TopologyGenerator {
+
+    // Each leaf switch connects nbMachinesPerLeaf machines, and is connected to every spine switch
+    public static Architecture leafSpine(int nbSpines, int nbLeaves, int nbMachinesPerLeaf, double machineBandwidth,
+            double uplinkBandwidth, double latency, ProcessingNodeSpec[] specs) {
+        checkPositive(nbSpines, "spines");
+        checkPositive(nbLeaves, "leaves");
+        checkPositive(nbMachinesPerLeaf, "machines per leaf");
+        Architecture archi = new Architecture();
+        int nbMachines = nbLeaves * nbMachinesPerLeaf;
+        addMachines(archi, 0, nbMachines, specs);
+        int firstLeafId = nbMachines;
+        int firstSpineId = firstLeafId + nbLeaves;
+        for (int spine = 0; spine < nbSpines; ++spine)
+            archi.addNewNode(new NetworkNode(firstSpineId + spine));
+        for (int leaf = 0; leaf < nbLeaves; ++leaf) {
+            int leafId = firstLeafId + leaf;
+            archi.addNewNode(new NetworkNode(leafId));
+            for (int i = 0; i < nbMachinesPerLeaf; ++i)
+                archi.addBidirectionalLink(leaf * nbMachinesPerLeaf + i, leafId, machineBandwidth, latency);
+            for (int spine = 0; spine < nbSpines; ++spine)
+                archi.addBidirectionalLink(leafId, firstSpineId + spine, uplinkBandwidth, latency);
+        }
+        archi.computeRoutesOnDemand(RoutingMetric.HOP_COUNT, true);
+        return archi;
+    }
+
+    // k-ary fat-tree: k pods of k/2 edge and k/2 aggregation switches, (k/2)^2 core switches and k^3/4 machines, all
+    // the links have the same bandwidth
+    public static Architecture fatTree(int k, double bandwidth, double latency, ProcessingNodeSpec[] specs) {
+        if (k < 2 || k % 2 != 0)
+            throw new IllegalArgumentException("The arity of a fat-tree must be even, not " + k);
+        Architecture archi = new Architecture();
+        int half = k / 2;
+        int nbMachines = k * half * half;
+        addMachines(archi, 0, nbMachines, specs);
+        int firstEdgeId = nbMachines;
+        int firstAggregationId = firstEdgeId + k * half;
+        int firstCoreId = firstAggregationId + k * half;
+        for (int core = 0; core < half * half; ++core)
+            archi.addNewNode(new NetworkNode(firstCoreId + core));
+        for (int pod = 0; pod < k; ++pod) {
+            for (int i = 0; i < half; ++i) {
+                archi.addNewNode(new NetworkNode(firstEdgeId + pod * half + i));
+                archi.addNewNode(new NetworkNode(firstAggregationId + pod * half + i));
+            }
+            for (int edge = 0; edge < half; ++edge) {
+                int edgeId = firstEdgeId + pod * half + edge;
+                for (int i = 0; i < half; ++i)
+                    archi.addBidirectionalLink((pod * half + edge) * half + i, edgeId, bandwidth, latency);
+                for (int aggregation = 0; aggregation < half; ++aggregation)
+                    archi.addBidirectionalLink(edgeId, firstAggregationId + pod * half + aggregation, bandwidth, latency);
+            }
+            for (int aggregation = 0; aggregation < half; ++aggregation) { // The a-th aggregation switch of each pod reaches the a-th group of cores
+                int aggregationId = firstAggregationId + pod * half + aggregation;
+                for (int i = 0; i < half; ++i)
+                    archi.addBidirectionalLink(aggregationId, firstCoreId + aggregation * half + i, bandwidth, latency);
+            }
+        }
+        archi.computeRoutesOnDemand(RoutingMetric.HOP_COUNT, true);
+        return archi;
+    }
+
+    // Racks of nbMachinesPerRack machines behind a top-of-rack switch, whose uplink to the core switch is
+    // oversubscribed: its bandwidth is nbMachinesPerRack * machineBandwidth / oversubscription
+    public static Architecture multiRack(int nbRacks, int nbMachinesPerRack, double machineBandwidth,
+            double oversubscription, double latency, ProcessingNodeSpec[] specs) {
+        Architecture archi = new Architecture();
+        int nbMachines = nbRacks * nbMachinesPerRack;
+        addMachines(archi, 0, nbMachines, specs);
+        addSite(archi, 0, nbRacks, nbMachinesPerRack, nbMachines, machineBandwidth, oversubscription, latency);
+        archi.computeRoutesOnDemand(RoutingMetric.HOP_COUNT, true);
+        return archi;
+    }
+
+    // Two multi-rack sites whose core switches are connected by a wide area link
+    public static Architecture twoSiteWan(int nbRacksPerSite, int nbMachinesPerRack, double machineBandwidth,
+            double oversubscription, double latency, double wanBandwidth, double wanLatency, ProcessingNodeSpec[] specs) {
+        Architecture archi = new Architecture();
+        int nbMachinesPerSite = nbRacksPerSite * nbMachinesPerRack;
+        addMachines(archi, 0, 2 * nbMachinesPerSite, specs);
+        int firstSwitchId = 2 * nbMachinesPerSite;
+        int firstCoreId = addSite(archi, 0, nbRacksPerSite, nbMachinesPerRack, firstSwitchId, machineBandwidth,
+                oversubscription, latency);
+        int secondCoreId = addSite(archi, nbMachinesPerSite, nbRacksPerSite, nbMachinesPerRack, firstCoreId + 1,
+                machineBandwidth, oversubscription, latency);
+        archi.addBidirectionalLink(firstCoreId, secondCoreId, wanBandwidth, wanLatency);
+        archi.computeRoutesOnDemand(RoutingMetric.HOP_COUNT, true);
+        return archi;
+    }
+
+    private static void addMachines(Architecture archi, int firstMachineId, int nbMachines, ProcessingNodeSpec[] specs) {
+        if (specs.length == 0)
+            throw new IllegalArgumentException("At least one processing node spec is needed");
+        for (int i = 0; i < nbMachines; ++i)
+            archi.addNewNode(specs[(firstMachineId + i) % specs.length].createNode(firstMachineId + i));
+    }
+
+    // Connect the machines firstMachineId.. to top-of-rack switches and a core switch, return the id of the core switch
+    private static int addSite(Architecture archi, int firstMachineId, int nbRacks, int nbMachinesPerRack, int firstSwitchId,
+            double machineBandwidth, double oversubscription, double latency) {
+        checkPositive(nbRacks, "racks");
+        checkPositive(nbMachinesPerRack, "machines per rack");
+        if (oversubscription <= 0)
+            throw new IllegalArgumentException("The oversubscription must be positive, not " + oversubscription);
+        double uplinkBandwidth = nbMachinesPerRack * machineBandwidth / oversubscription;
+        int coreId = firstSwitchId + nbRacks;
+        archi.addNewNode(new NetworkNode(coreId));
+        for (int rack = 0; rack < nbRacks; ++rack) {
+            int switchId = firstSwitchId + rack;
+            archi.addNewNode(new NetworkNode(switchId));
+            for (int i = 0; i < nbMachinesPerRack; ++i)
+                archi.addBidirectionalLink(firstMachineId + rack * nbMachinesPerRack + i, switchId, machineBandwidth, latency);
+            archi.addBidirectionalLink(switchId, coreId, uplinkBandwidth, latency);
+        }
+        return coreId;
+    }
+
+    private static void checkPositive(int value, String what) {
+        if (value <= 0)
+            throw new IllegalArgumentException("The number of " + what + " must be positive, not " + value);
+    }
+
+    public static void main(String[] args) {
+        ProcessingNodeSpec[] specs = {
+            new ProcessingNodeSpec("xeon", 16, 2400000000.0),
+            new ProcessingNodeSpec("epyc", 64, 2000000000.0),
+            new ProcessingNodeSpec("atom", 4, 1500000000.0)
+        };
+        String[] names = { "leaf-spine 16x256x40", "fat-tree k=36", "multi-rack 256x40, 4:1", "two-site WAN 2x128x40" };
+        for (int t = 0; t < names.length; ++t) {
+            long startTime = System.nanoTime();
+            Architecture archi;
+            if (t == 0)
+                archi = leafSpine(16, 256, 40, 1.25e9, 5e9, 1e-6, specs);
+            else if (t == 1)
+                archi = fatTree(36, 1.25e9, 1e-6, specs);
+            else if (t == 2)
+                archi = multiRack(256, 40, 1.25e9, 4.0, 1e-6, specs);
+            else
+                archi = twoSiteWan(128, 40, 1.25e9, 4.0, 1e-6, 1.25e9, 0.01, specs);
+            long buildTime = System.nanoTime() - startTime;
+
+            // Compile 32 machines spread over the topology: only the routes towards them are computed
+            int nbMachines = archi.getProcessingNodesId().size();
+            Integer[] studied = new Integer[32];
+            for (int i = 0; i < studied.length; ++i)
+                studied[i] = (int) ((long) i * nbMachines / studied.length);
+            CompiledArchitecture compiledArchitecture = new CompiledArchitecture(archi, studied);
+            long compileTime = System.nanoTime() - startTime - buildTime;
+
+            System.out.printf("%s: %d nodes, %d links, built in %.1f ms, paths between %d machines compiled in %.1f ms"
+                    + " (longest path: %d links)\n", names[t], archi.getNodesId().size(), archi.getLinksId().size(),
+                    buildTime / 1e6, studied.length, compileTime / 1e6, getLongestPath(compiledArchitecture));
+        }
+    }
+
+    private static int getLongestPath(CompiledArchitecture compiledArchitecture) {
+        int longestPath = 0;
+        for (int src = 0; src < compiledArchitecture.getNbProcessingNodes(); ++src) {
+            for (int dst = 0; dst < compiledArchitecture.getNbProcessingNodes(); ++dst)
+                longestPath = Math.max(longestPath, compiledArchitecture.getPathEnd(src, dst) - compiledArchitecture.getPathStart(src, dst));
+        }
+        return longestPath;
+    }
+
+}
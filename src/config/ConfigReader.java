@@ -0,0 +1,275 @@
+package config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the values of a configuration file, line by line. The file is memory-mapped and parsed byte by byte: values
+ * are separated by commas and blanks, names can be quoted with ' or ", and everything after a # is a comment.
+ * Empty lines and comment lines are skipped. Numbers are parsed without creating any string.
+ */
+public class ConfigReader {
+
+    private final String fileName;
+    private final ByteBuffer buffer;
+    private final int length;
+    private int position;
+    private int lineNumber;
+
+    public ConfigReader(String fileName) throws IOException {
+        this.fileName = fileName;
+        RandomAccessFile file = new RandomAccessFile(new File(fileName), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer = mappedBuffer;
+            length = (int) channel.size();
+        } finally {
+            file.close(); // The mapping stays valid
+        }
+        position = 0;
+        lineNumber = 1;
+    }
+
+    // Go to the first value of the next line that has one, return false at the end of the file
+    public boolean nextLine() {
+        skipToEndOfLine();
+        while (position < length) {
+            skipSeparators();
+            if (hasNextOnLine())
+                return true;
+            skipToEndOfLine();
+        }
+        return false;
+    }
+
+    // Go to the next line, unless the current one has not been read yet, the end of the file is an error
+    public void nextRequiredLine() {
+        if (!hasNextOnLine() && !nextLine())
+            throw error("unexpected end of file");
+    }
+
+    // A line with a single natural number
+    public int nextCount() {
+        nextRequiredLine();
+        int count = nextInt();
+        endLine();
+        if (count < 0)
+            throw error("negative count");
+        return count;
+    }
+
+    // Go to the first value of the file
+    public boolean firstLine() {
+        skipSeparators();
+        if (hasNextOnLine())
+            return true;
+        return nextLine();
+    }
+
+    public boolean hasNextOnLine() {
+        if (position >= length)
+            return false;
+        byte b = buffer.get(position);
+        return b != '\n' && b != '\r' && b != '#';
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw error("integer out of range");
+        return (int) value;
+    }
+
+    public long nextLong() {
+        if (!hasNextOnLine())
+            throw error("integer expected");
+        boolean isNegative = false;
+        byte b = buffer.get(position);
+        if (b == '-' || b == '+') {
+            isNegative = (b == '-');
+            ++position;
+        }
+        int start = position;
+        long value = 0;
+        while (position < length && isDigit(b = buffer.get(position))) {
+            value = 10 * value + (b - '0');
+            ++position;
+        }
+        if (position == start || (position < length && !isSeparator(buffer.get(position))))
+            throw error("integer expected");
+        skipSeparators();
+        return isNegative ? -value : value;
+    }
+
+    public double nextDouble() {
+        if (!hasNextOnLine())
+            throw error("number expected");
+        int start = position;
+        boolean isNegative = false;
+        byte b = buffer.get(position);
+        if (b == '-' || b == '+') {
+            isNegative = (b == '-');
+            ++position;
+        }
+        long mantissa = 0;
+        int nbDigits = 0, exponent = 0;
+        boolean isExact = true;
+        int digitsStart = position, nbDotsRead = 0;
+        while (position < length && isDigit(b = buffer.get(position))) {
+            if (nbDigits < 18) {
+                mantissa = 10 * mantissa + (b - '0');
+                if (mantissa != 0)
+                    ++nbDigits;
+            } else {
+                ++exponent;
+                isExact = false;
+            }
+            ++position;
+        }
+        if (position < length && buffer.get(position) == '.') {
+            ++position;
+            ++nbDotsRead;
+            while (position < length && isDigit(b = buffer.get(position))) {
+                if (nbDigits < 18) {
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (mantissa != 0)
+                        ++nbDigits;
+                    --exponent;
+                } else {
+                    isExact = false;
+                }
+                ++position;
+            }
+        }
+        if (position - digitsStart == nbDotsRead) // No digit
+            throw error("number expected");
+        if (position < length && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            ++position;
+            boolean isExponentNegative = false;
+            if (position < length && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                isExponentNegative = buffer.get(position) == '-';
+                ++position;
+            }
+            int exponentStart = position, explicitExponent = 0;
+            while (position < length && isDigit(b = buffer.get(position))) {
+                explicitExponent = Math.min(10 * explicitExponent + (b - '0'), 100000);
+                ++position;
+            }
+            if (position == exponentStart)
+                throw error("number expected");
+            exponent += isExponentNegative ? -explicitExponent : explicitExponent;
+        }
+        if (position == start || (position < length && !isSeparator(buffer.get(position))))
+            throw error("number expected");
+
+        double value;
+        if (isExact && mantissa < (1L << 53) && -22 <= exponent && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact doubles, so a single operation rounds correctly
+            value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            if (isNegative)
+                value = -value;
+        } else {
+            value = Double.parseDouble(getString(start, position));
+        }
+        skipSeparators();
+        return value;
+    }
+
+    // A name, quoted or not (then it ends at the first separator)
+    public String nextName() {
+        if (!hasNextOnLine())
+            throw error("name expected");
+        byte b = buffer.get(position);
+        String name;
+        if (b == '\'' || b == '"') {
+            int start = ++position;
+            while (position < length && buffer.get(position) != b && buffer.get(position) != '\n')
+                ++position;
+            if (position >= length || buffer.get(position) != b)
+                throw error("unterminated name");
+            name = getString(start, position);
+            ++position;
+        } else {
+            int start = position;
+            while (position < length && !isSeparator(buffer.get(position)))
+                ++position;
+            name = getString(start, position);
+        }
+        skipSeparators();
+        return name;
+    }
+
+    public boolean nextNameIs(String keyword) { // Consume the next value if it is the given unquoted keyword
+        if (!hasNextOnLine())
+            return false;
+        int end = position;
+        while (end < length && !isSeparator(buffer.get(end)))
+            ++end;
+        if (end - position != keyword.length())
+            return false;
+        for (int i = 0; i < keyword.length(); ++i) {
+            if (buffer.get(position + i) != keyword.charAt(i))
+                return false;
+        }
+        position = end;
+        skipSeparators();
+        return true;
+    }
+
+    public void endLine() { // Check that the current line has no value left
+        if (hasNextOnLine())
+            throw error("unexpected value");
+    }
+
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + lineNumber + ": " + message);
+    }
+
+    private void skipSeparators() { // Commas and blanks, not the end of the line
+        while (position < length) {
+            byte b = buffer.get(position);
+            if (b != ' ' && b != '\t' && b != ',')
+                return;
+            ++position;
+        }
+    }
+
+    private void skipToEndOfLine() {
+        while (position < length && buffer.get(position) != '\n')
+            ++position;
+        if (position < length) {
+            ++position;
+            ++lineNumber;
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == ' ' || b == '\t' || b == ',' || b == '\n' || b == '\r' || b == '#';
+    }
+
+    private String getString(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; ++i)
+            chars[i - start] = (char) (buffer.get(i) & 0xFF);
+        return new String(chars);
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+}
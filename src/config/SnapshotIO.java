@@ -0,0 +1,102 @@
+package config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes arrays to a binary snapshot and reads them back from a (memory-mapped) buffer or a stream. An array is
+ * stored as its length followed by its values, in big-endian order.
+ */
+public class SnapshotIO {
+
+    public static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values)
+            output.writeInt(value);
+    }
+
+    public static void writeDoubles(DataOutputStream output, double[] values) throws IOException {
+        output.writeInt(values.length);
+        for (double value : values)
+            output.writeDouble(value);
+    }
+
+    public static void writeStrings(DataOutputStream output, String[] values) throws IOException {
+        output.writeInt(values.length);
+        for (String value : values)
+            output.writeUTF(value);
+    }
+
+    public static int[] readInts(ByteBuffer buffer) {
+        int[] values = new int[readLength(buffer, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+        return values;
+    }
+
+    public static double[] readDoubles(ByteBuffer buffer) {
+        double[] values = new double[readLength(buffer, 8)];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * values.length);
+        return values;
+    }
+
+    public static String[] readStrings(ByteBuffer buffer) {
+        String[] values = new String[readLength(buffer, 2)];
+        for (int i = 0; i < values.length; ++i) {
+            byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(bytes);
+            values[i] = decodeModifiedUTF8(bytes);
+        }
+        return values;
+    }
+
+    public static int[] readInts(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0)
+            throw new IOException("Corrupted file: array of " + length + " values");
+        int[] values = new int[length];
+        for (int i = 0; i < length; ++i)
+            values[i] = input.readInt();
+        return values;
+    }
+
+    // Replace file by tmpFile, so that a reader finds either the previous file or the new one, never a partial one
+    public static void replaceFile(File tmpFile, File file) throws IOException {
+        if (!tmpFile.renameTo(file)) { // Fails on some systems when file exists
+            file.delete();
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Cannot rename " + tmpFile + " to " + file);
+        }
+    }
+
+    private static int readLength(ByteBuffer buffer, int bytesPerValue) {
+        int length = buffer.getInt();
+        if (length < 0 || (long) length * bytesPerValue > buffer.remaining())
+            throw new IllegalArgumentException("Corrupted snapshot: array of " + length + " values");
+        return length;
+    }
+
+    private static String decodeModifiedUTF8(byte[] bytes) { // As written by DataOutputStream.writeUTF
+        char[] chars = new char[bytes.length];
+        int nbChars = 0;
+        for (int i = 0; i < bytes.length; ++nbChars) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                chars[nbChars] = (char) b;
+                i += 1;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[nbChars] = (char) (((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F));
+                i += 2;
+            } else {
+                chars[nbChars] = (char) (((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6) | (bytes[i + 2] & 0x3F));
+                i += 3;
+            }
+        }
+        return new String(chars, 0, nbChars);
+    }
+
+}
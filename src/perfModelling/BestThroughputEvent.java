@@ -0,0 +1,21 @@
+package perfModelling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("perfModelling.BestThroughput")
+@Label("Best Throughput Improved")
+@Category("Performance Modelling")
+class BestThroughputEvent extends jdk.jfr.Event {
+
+    @Label("Throughput (req/s)")
+    double throughput;
+
+    @Label("Machines Used")
+    int nbMachines;
+
+    @Label("Configurations Seen")
+    double configurationsSeen;
+
+}
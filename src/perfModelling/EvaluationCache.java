@@ -0,0 +1,233 @@
+package perfModelling;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import protocol.CompiledProtocol;
+import protocol.Protocol;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+import architecture.ProcessingNodesEquivalence;
+
+/**
+ * Throughputs of the last evaluated repartitions, at most capacity of them, the least recently used one being evicted
+ * first. A repartition is keyed by an equivalent one, packed into a few longs: the CPUs of the interchangeable entities
+ * of the protocol are sorted, and the interchangeable machines of the architecture are renumbered in the order of their
+ * first use. Equivalent repartitions usually share their key, and a repartition always has the same throughput as
+ * the repartitions that share its key. Not thread-safe: each search has its own cache.
+ */
+public class EvaluationCache {
+
+    private final int capacity;
+    private final LinkedHashMap<PlacementKey, Double> throughputs;
+    private long nbHits, nbMisses;
+    private PlacementKey lastMissedKey;
+
+    private final int nbEntities;
+    private final int[][] interchangeableGroups; // Entity indices of each group of interchangeable entities
+
+    // Interchangeable machines, null if the machines are not renumbered
+    private final int[] classOfCPU;
+    private final int[][] cpuIndexInClass; // CPU index of each position of each class
+    private final int[] nbUsedCPUsInClass;
+    private final int[] renumberedCPUIndex; // -1 if the CPU is not used yet
+
+    private final int bitsPerEntity;
+    private final int[] key; // Working copy of the repartition being keyed
+
+    // The protocol and the architecture give the symmetries, each of them can be null
+    public EvaluationCache(int capacity, Architecture architecture, CompiledArchitecture compiledArchitecture,
+            Protocol protocol, CompiledProtocol compiledProtocol) {
+        this.capacity = capacity;
+        throughputs = new LinkedHashMap<PlacementKey, Double>(16, 0.75f, true) { // In access order
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PlacementKey, Double> eldest) {
+                return size() > EvaluationCache.this.capacity;
+            }
+        };
+
+        nbEntities = compiledProtocol.getNbEntities();
+        int nbGroups = 0;
+        int[] groupOfEntity = new int[nbEntities];
+        for (int i = 0; i < nbEntities; ++i) {
+            groupOfEntity[i] = (protocol == null) ? -1 : protocol.getInterchangeableGroup(compiledProtocol.getEntityId(i));
+            nbGroups = Math.max(nbGroups, groupOfEntity[i] + 1);
+        }
+        int[] groupSize = new int[nbGroups];
+        for (int i = 0; i < nbEntities; ++i) {
+            if (groupOfEntity[i] != -1)
+                ++groupSize[groupOfEntity[i]];
+        }
+        interchangeableGroups = new int[nbGroups][];
+        for (int group = 0; group < nbGroups; ++group)
+            interchangeableGroups[group] = new int[groupSize[group]];
+        Arrays.fill(groupSize, 0);
+        for (int i = 0; i < nbEntities; ++i) {
+            if (groupOfEntity[i] != -1)
+                interchangeableGroups[groupOfEntity[i]][groupSize[groupOfEntity[i]]++] = i;
+        }
+
+        int nbCPUs = compiledArchitecture.getNbProcessingNodes();
+        if (architecture != null) {
+            Integer[] cpusId = new Integer[nbCPUs];
+            for (int i = 0; i < nbCPUs; ++i)
+                cpusId[i] = compiledArchitecture.getProcessingNodeId(i);
+            ProcessingNodesEquivalence equivalence = new ProcessingNodesEquivalence(architecture, cpusId);
+            classOfCPU = new int[nbCPUs];
+            cpuIndexInClass = new int[equivalence.getNbClasses()][];
+            for (int classId = 0; classId < equivalence.getNbClasses(); ++classId)
+                cpuIndexInClass[classId] = new int[equivalence.getClassSize(classId)];
+            for (int cpuIndex = 0; cpuIndex < nbCPUs; ++cpuIndex) {
+                classOfCPU[cpuIndex] = equivalence.getClassOfCPU(cpuIndex);
+                cpuIndexInClass[classOfCPU[cpuIndex]][equivalence.getPositionInClass(cpuIndex)] = cpuIndex;
+            }
+            nbUsedCPUsInClass = new int[equivalence.getNbClasses()];
+            renumberedCPUIndex = new int[nbCPUs];
+        } else {
+            classOfCPU = null;
+            cpuIndexInClass = null;
+            nbUsedCPUsInClass = null;
+            renumberedCPUIndex = null;
+        }
+
+        bitsPerEntity = 32 - Integer.numberOfLeadingZeros(Math.max(nbCPUs - 1, 1));
+        key = new int[nbEntities];
+    }
+
+    private EvaluationCache(EvaluationCache evaluationCache) { // Empty, the symmetries are shared
+        this.capacity = evaluationCache.capacity;
+        throughputs = new LinkedHashMap<PlacementKey, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PlacementKey, Double> eldest) {
+                return size() > EvaluationCache.this.capacity;
+            }
+        };
+        nbEntities = evaluationCache.nbEntities;
+        interchangeableGroups = evaluationCache.interchangeableGroups;
+        classOfCPU = evaluationCache.classOfCPU;
+        cpuIndexInClass = evaluationCache.cpuIndexInClass;
+        nbUsedCPUsInClass = (classOfCPU == null) ? null : new int[cpuIndexInClass.length];
+        renumberedCPUIndex = (classOfCPU == null) ? null : new int[classOfCPU.length];
+        bitsPerEntity = evaluationCache.bitsPerEntity;
+        key = new int[nbEntities];
+    }
+
+    // An empty cache with the same capacity and symmetries, for another thread
+    public EvaluationCache copy() {
+        return new EvaluationCache(this);
+    }
+
+    // Throughput of an equivalent repartition, NaN if none is cached
+    public double get(int[] cpuIndexOfEntity) {
+        PlacementKey placementKey = getKey(cpuIndexOfEntity);
+        Double throughput = throughputs.get(placementKey);
+        if (throughput == null) {
+            ++nbMisses;
+            lastMissedKey = placementKey;
+            return Double.NaN;
+        }
+        ++nbHits;
+        lastMissedKey = null;
+        return throughput;
+    }
+
+    // The key of the repartition, shared by the equivalent repartitions that have the same key in the cache
+    Object getCanonicalKey(int[] cpuIndexOfEntity) {
+        return getKey(cpuIndexOfEntity);
+    }
+
+    // Cache the throughput of the repartition of the last get, which was not cached
+    public void putLastMissed(double throughput) {
+        assert(lastMissedKey != null);
+        throughputs.put(lastMissedKey, throughput);
+        lastMissedKey = null;
+    }
+
+    public long getNbHits() {
+        return nbHits;
+    }
+
+    public long getNbMisses() {
+        return nbMisses;
+    }
+
+    public double getHitRate() {
+        return (nbHits + nbMisses == 0) ? 0 : (double) nbHits / (nbHits + nbMisses);
+    }
+
+    public int getSize() {
+        return throughputs.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private PlacementKey getKey(int[] cpuIndexOfEntity) {
+        System.arraycopy(cpuIndexOfEntity, 0, key, 0, nbEntities);
+        sortInterchangeableEntities();
+        if (classOfCPU != null) { // Renumbering the machines can unsort the interchangeable entities
+            Arrays.fill(nbUsedCPUsInClass, 0);
+            Arrays.fill(renumberedCPUIndex, -1);
+            for (int i = 0; i < nbEntities; ++i) {
+                int cpuIndex = key[i];
+                if (renumberedCPUIndex[cpuIndex] == -1) {
+                    int classId = classOfCPU[cpuIndex];
+                    renumberedCPUIndex[cpuIndex] = cpuIndexInClass[classId][nbUsedCPUsInClass[classId]++];
+                }
+                key[i] = renumberedCPUIndex[cpuIndex];
+            }
+            sortInterchangeableEntities();
+        }
+
+        long[] words = new long[(nbEntities * bitsPerEntity + 63) / 64];
+        for (int i = 0; i < nbEntities; ++i) {
+            int bit = i * bitsPerEntity;
+            words[bit / 64] |= (long) key[i] << (bit % 64);
+            if (bit % 64 + bitsPerEntity > 64) // Spans two words
+                words[bit / 64 + 1] |= (long) key[i] >>> (64 - bit % 64);
+        }
+        return new PlacementKey(words);
+    }
+
+    private void sortInterchangeableEntities() { // Insertion sort, the groups are small
+        for (int[] group : interchangeableGroups) {
+            for (int j = 1; j < group.length; ++j) {
+                int cpuIndex = key[group[j]];
+                int k = j - 1;
+                while (k >= 0 && key[group[k]] > cpuIndex) {
+                    key[group[k + 1]] = key[group[k]];
+                    --k;
+                }
+                key[group[k + 1]] = cpuIndex;
+            }
+        }
+    }
+
+    private static final class PlacementKey {
+
+        private final long[] words;
+        private final int hash;
+
+        PlacementKey(long[] words) {
+            this.words = words;
+            hash = Arrays.hashCode(words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PlacementKey && Arrays.equals(words, ((PlacementKey) other).words);
+        }
+    }
+
+}
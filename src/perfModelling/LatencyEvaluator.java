@@ -0,0 +1,131 @@
+package perfModelling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import protocol.CompiledProtocol;
+import protocol.CriticalPath;
+import protocol.Phase;
+import protocol.Protocol;
+import architecture.CompiledArchitecture;
+
+/**
+ * Predicts the latency of the requests of a protocol for a repartition, without any contention: the phases of the
+ * critical paths are followed, a message takes the latency plus the serialization time (msgSize / bandwidth) of each
+ * link of its path, and a processing takes its number of cycles divided by the frequency of one core of its CPU.
+ * The latency of a repartition is the one of its slowest critical path.
+ */
+public class LatencyEvaluator {
+
+    private final CompiledArchitecture compiledArchitecture;
+
+    // Phases of all the critical paths, with entity indices
+    private final int nbPhases;
+    private final int[] pathsStart; // The phases of path p are pathsStart[p] .. pathsStart[p + 1][
+    private final int[][] senders, receivers;
+    private final double[] msgSizesBytes;
+    private final int[] quorums;
+    private final double[] nbCyclesBeforeSending, nbCyclesAfterReceiving;
+
+    // Working arrays
+    private final double[] readyTime; // Time at which each entity is done with the previous phases
+    private final double[] newReadyTime;
+    private final double[] arrivalTimes;
+
+    public LatencyEvaluator(CompiledArchitecture compiledArchitecture, CompiledProtocol compiledProtocol, Protocol protocol) {
+        this.compiledArchitecture = compiledArchitecture;
+
+        ArrayList<CriticalPath> criticalPaths = protocol.getCriticalPaths();
+        pathsStart = new int[criticalPaths.size() + 1];
+        int nbAllPhases = 0;
+        for (int path = 0; path < criticalPaths.size(); ++path) {
+            pathsStart[path] = nbAllPhases;
+            nbAllPhases += criticalPaths.get(path).getPhases().size();
+        }
+        pathsStart[criticalPaths.size()] = nbAllPhases;
+        nbPhases = nbAllPhases;
+
+        senders = new int[nbPhases][];
+        receivers = new int[nbPhases][];
+        msgSizesBytes = new double[nbPhases];
+        quorums = new int[nbPhases];
+        nbCyclesBeforeSending = new double[nbPhases];
+        nbCyclesAfterReceiving = new double[nbPhases];
+        int maxNbSenders = 1;
+        int phaseIndex = 0;
+        for (CriticalPath criticalPath : criticalPaths) {
+            for (Phase phase : criticalPath.getPhases()) {
+                senders[phaseIndex] = getEntitiesIndex(compiledProtocol, phase.getSendersId());
+                receivers[phaseIndex] = getEntitiesIndex(compiledProtocol, phase.getReceiversId());
+                msgSizesBytes[phaseIndex] = phase.getMsgSizeBytes();
+                quorums[phaseIndex] = phase.getQuorum();
+                nbCyclesBeforeSending[phaseIndex] = phase.getNbCyclesBeforeSending();
+                nbCyclesAfterReceiving[phaseIndex] = phase.getNbCyclesAfterReceiving();
+                maxNbSenders = Math.max(maxNbSenders, senders[phaseIndex].length);
+                ++phaseIndex;
+            }
+        }
+
+        readyTime = new double[compiledProtocol.getNbEntities()];
+        newReadyTime = new double[compiledProtocol.getNbEntities()];
+        arrivalTimes = new double[maxNbSenders];
+    }
+
+    private static int[] getEntitiesIndex(CompiledProtocol compiledProtocol, int[] entitiesId) {
+        int[] entitiesIndex = new int[entitiesId.length];
+        for (int i = 0; i < entitiesId.length; ++i)
+            entitiesIndex[i] = compiledProtocol.getEntityIndex(entitiesId[i]);
+        return entitiesIndex;
+    }
+
+    public boolean hasCriticalPaths() {
+        return nbPhases > 0;
+    }
+
+    // Latency in seconds of the slowest request, for the repartition giving the CPU index of each entity index
+    public double getLatency(int[] cpuIndexOfEntity) {
+        double latency = 0;
+        for (int path = 0; path + 1 < pathsStart.length; ++path)
+            latency = Math.max(latency, getPathLatency(path, cpuIndexOfEntity));
+        return latency;
+    }
+
+    private double getPathLatency(int path, int[] cpuIndexOfEntity) {
+        Arrays.fill(readyTime, 0.0);
+        double endTime = 0.0;
+        for (int phase = pathsStart[path]; phase < pathsStart[path + 1]; ++phase) {
+            int[] phaseSenders = senders[phase];
+            int[] phaseReceivers = receivers[phase];
+            for (int receiver : phaseReceivers) {
+                int receiverCPU = cpuIndexOfEntity[receiver];
+                for (int i = 0; i < phaseSenders.length; ++i) {
+                    int sender = phaseSenders[i];
+                    int senderCPU = cpuIndexOfEntity[sender];
+                    double sendTime = readyTime[sender] + nbCyclesBeforeSending[phase] / compiledArchitecture.getCPUFreq(senderCPU);
+                    arrivalTimes[i] = (sender == receiver) ? sendTime : sendTime + getTransferTime(senderCPU, receiverCPU, msgSizesBytes[phase]);
+                }
+                Arrays.sort(arrivalTimes, 0, phaseSenders.length);
+                newReadyTime[receiver] = arrivalTimes[quorums[phase] - 1]
+                        + nbCyclesAfterReceiving[phase] / compiledArchitecture.getCPUFreq(receiverCPU);
+            }
+            // The receivers are updated once all of them are computed, as senders and receivers can be the same entities
+            endTime = 0.0;
+            for (int receiver : phaseReceivers) {
+                readyTime[receiver] = newReadyTime[receiver];
+                endTime = Math.max(endTime, readyTime[receiver]);
+            }
+        }
+        return endTime;
+    }
+
+    private double getTransferTime(int srcCPU, int dstCPU, double msgSizeBytes) {
+        double time = 0.0;
+        int end = compiledArchitecture.getPathEnd(srcCPU, dstCPU);
+        for (int position = compiledArchitecture.getPathStart(srcCPU, dstCPU); position < end; ++position) {
+            int link = compiledArchitecture.getPathLink(position);
+            time += compiledArchitecture.getLinkLatency(link) + msgSizeBytes / compiledArchitecture.getLinkBandwidth(link);
+        }
+        return time;
+    }
+
+}
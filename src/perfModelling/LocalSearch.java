@@ -0,0 +1,342 @@
+package perfModelling;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import protocol.CompiledProtocol;
+import protocol.Protocol;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * Searches for a max throughput repartition when there are too many repartitions to enumerate them all. Starting
+ * from a valid repartition, entities are moved to another CPU or swapped with an entity placed on another CPU, with
+ * simulated annealing or tabu search. A move is evaluated incrementally: only the CPU loads of the moved entities
+ * and the link loads of their communications are updated. Only repartitions that the protocol accepts are visited.
+ */
+public class LocalSearch {
+
+    private Architecture architecture;
+    private Protocol protocol; // Its entities are placed on the current repartition, to check the moves
+    private CompiledArchitecture compiledArchitecture; // Holds the loads of the current repartition
+    private CompiledProtocol compiledProtocol;
+
+    private int nbCPUs;
+    private int nbEntities;
+    private int[] entitiesId;
+    private int[] cpuIndexOfEntity; // Current repartition
+    private int[] nbEntitiesOnCPU;
+    private int nbUsedCPUs;
+
+    private EvaluationCache evaluationCache; // null if the neighbours are always evaluated
+    private int[] candidateCpuIndexOfEntity; // Neighbour looked up in the cache
+
+    private Random random;
+
+    // Budget of the search
+    private long maxIterations;
+    private long maxTimeMillis;
+    private long startTime;
+    private long nbIterations;
+
+    // Best repartition found
+    private double bestThroughput;
+    private int nbCPUsBestThroughput;
+    private int[] bestCpuIndexOfEntity;
+    private String bestThroughputInfo;
+
+    private boolean printProgress;
+
+    public LocalSearch(Architecture architecture, Protocol protocol, long seed) {
+        this.architecture = architecture;
+        this.protocol = protocol.copy();
+        compiledArchitecture = new CompiledArchitecture(architecture);
+        compiledProtocol = protocol.compile(protocol.getEntitiesIdSet().toArray(new Integer[1]));
+
+        nbCPUs = compiledArchitecture.getNbProcessingNodes();
+        nbEntities = compiledProtocol.getNbEntities();
+        entitiesId = new int[nbEntities];
+        for (int i = 0; i < nbEntities; ++i)
+            entitiesId[i] = compiledProtocol.getEntityId(i);
+        cpuIndexOfEntity = new int[nbEntities];
+        nbEntitiesOnCPU = new int[nbCPUs];
+        bestCpuIndexOfEntity = new int[nbEntities];
+
+        random = new Random(seed);
+        printProgress = true;
+    }
+
+    public void setPrintProgress(boolean printProgress) {
+        this.printProgress = printProgress;
+    }
+
+    // Remember the throughputs of the last evaluated neighbours, up to equivalence: a neighbour equivalent to one of
+    // them is not evaluated again
+    public void useEvaluationCache(int capacity) {
+        evaluationCache = new EvaluationCache(capacity, architecture, compiledArchitecture, protocol, compiledProtocol);
+        candidateCpuIndexOfEntity = new int[nbEntities];
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
+    public double getBestThroughput() {
+        return bestThroughput;
+    }
+
+    public HashMap<Integer, Integer> getBestRepartition() { // entityId to cpuId
+        HashMap<Integer, Integer> repartition = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nbEntities; ++i)
+            repartition.put(entitiesId[i], compiledArchitecture.getProcessingNodeId(bestCpuIndexOfEntity[i]));
+        return repartition;
+    }
+
+    public long getNbIterations() {
+        return nbIterations;
+    }
+
+    public void printBestRepartition() {
+        System.out.printf("\nStudied %d moves in %.2fs\n", nbIterations, (System.currentTimeMillis() - startTime) / 1000.0);
+        System.out.printf("Max throughput found : %.1f req/s using %d machines\n", bestThroughput, nbCPUsBestThroughput);
+        for (int i = 0; i < nbEntities; ++i) {
+            System.out.printf("(%s, %s) ", protocol.getEntity(entitiesId[i]).getName(),
+                    architecture.getProcessingNodeName(compiledArchitecture.getProcessingNodeId(bestCpuIndexOfEntity[i])));
+        }
+        System.out.printf("\n");
+        System.out.println(bestThroughputInfo);
+    }
+
+    // Simulated annealing: a random neighbour is accepted if it is better, or with a probability that decreases with
+    // its relative throughput loss and with the temperature, which decreases geometrically along the budget
+    public void simulatedAnnealing(long maxIterations, long maxTimeMillis) {
+        final double initialTemperature = 0.1, finalTemperature = 0.0001;
+
+        startSearch(maxIterations, maxTimeMillis);
+        double throughput = getThroughput();
+        while (!budgetIsExhausted()) {
+            double progress = getProgress();
+            double temperature = initialTemperature * Math.pow(finalTemperature / initialTemperature, progress);
+            ++nbIterations;
+
+            int entityIndex = random.nextInt(nbEntities);
+            int otherEntityIndex = -1, cpuIndex;
+            if (random.nextBoolean()) { // Move
+                cpuIndex = random.nextInt(nbCPUs);
+            } else { // Swap
+                otherEntityIndex = random.nextInt(nbEntities);
+                cpuIndex = cpuIndexOfEntity[otherEntityIndex];
+            }
+            int oldCPUIndex = cpuIndexOfEntity[entityIndex];
+            if (cpuIndex == oldCPUIndex || !moveIsValid(entityIndex, cpuIndex, otherEntityIndex))
+                continue;
+
+            double newThroughput = getCachedThroughput(entityIndex, cpuIndex, otherEntityIndex);
+            boolean moveIsApplied = Double.isNaN(newThroughput);
+            if (moveIsApplied) {
+                applyMove(entityIndex, cpuIndex, otherEntityIndex);
+                newThroughput = getThroughput();
+                if (evaluationCache != null)
+                    evaluationCache.putLastMissed(newThroughput);
+            }
+            double loss = (throughput - newThroughput) / throughput;
+            if (loss <= 0 || random.nextDouble() < Math.exp(-loss / temperature)) {
+                if (!moveIsApplied)
+                    applyMove(entityIndex, cpuIndex, otherEntityIndex);
+                throughput = newThroughput;
+                updateBest(throughput);
+            } else if (moveIsApplied) {
+                applyMove(entityIndex, oldCPUIndex, otherEntityIndex); // Undo
+            }
+        }
+    }
+
+    // Tabu search: the best move of the neighbourhood is applied, even if it is worse than the current repartition,
+    // but an entity cannot go back to a CPU it left during the tenure, unless it gives a new best repartition
+    public void tabuSearch(long maxIterations, long maxTimeMillis) {
+        int tenure = Math.max(5, Math.min(nbEntities * nbCPUs / 4, 50));
+        long[] tabuUntil = new long[nbEntities * nbCPUs]; // Iteration until which an entity cannot go back to a CPU
+
+        startSearch(maxIterations, maxTimeMillis);
+        while (!budgetIsExhausted()) {
+            ++nbIterations;
+
+            double bestMoveThroughput = -1;
+            int bestMoveEntity = -1, bestMoveCPU = -1, bestMoveOther = -1;
+            for (int entityIndex = 0; entityIndex < nbEntities; ++entityIndex) {
+                int oldCPUIndex = cpuIndexOfEntity[entityIndex];
+                // Moves, then swaps with the entities of higher index
+                for (int k = 0; k < nbCPUs + nbEntities - entityIndex - 1; ++k) {
+                    int otherEntityIndex = (k < nbCPUs) ? -1 : entityIndex + 1 + k - nbCPUs;
+                    int cpuIndex = (k < nbCPUs) ? k : cpuIndexOfEntity[otherEntityIndex];
+                    if (cpuIndex == oldCPUIndex || !moveIsValid(entityIndex, cpuIndex, otherEntityIndex))
+                        continue;
+
+                    double throughput = getCachedThroughput(entityIndex, cpuIndex, otherEntityIndex);
+                    if (Double.isNaN(throughput)) {
+                        applyMove(entityIndex, cpuIndex, otherEntityIndex);
+                        throughput = getThroughput();
+                        applyMove(entityIndex, oldCPUIndex, otherEntityIndex);
+                        if (evaluationCache != null)
+                            evaluationCache.putLastMissed(throughput);
+                    }
+
+                    boolean isTabu = tabuUntil[entityIndex * nbCPUs + cpuIndex] > nbIterations
+                            || (otherEntityIndex != -1 && tabuUntil[otherEntityIndex * nbCPUs + oldCPUIndex] > nbIterations);
+                    if (isTabu && throughput <= bestThroughput)
+                        continue;
+                    if (throughput > bestMoveThroughput) {
+                        bestMoveThroughput = throughput;
+                        bestMoveEntity = entityIndex;
+                        bestMoveCPU = cpuIndex;
+                        bestMoveOther = otherEntityIndex;
+                    }
+                }
+            }
+            if (bestMoveEntity == -1) // All the neighbours are tabu
+                continue;
+
+            int oldCPUIndex = cpuIndexOfEntity[bestMoveEntity];
+            tabuUntil[bestMoveEntity * nbCPUs + oldCPUIndex] = nbIterations + tenure;
+            if (bestMoveOther != -1)
+                tabuUntil[bestMoveOther * nbCPUs + bestMoveCPU] = nbIterations + tenure;
+            applyMove(bestMoveEntity, bestMoveCPU, bestMoveOther);
+            updateBest(getThroughput());
+        }
+    }
+
+    private void startSearch(long maxIterations, long maxTimeMillis) {
+        this.maxIterations = maxIterations;
+        this.maxTimeMillis = maxTimeMillis;
+        startTime = System.currentTimeMillis();
+        nbIterations = 0;
+        bestThroughput = -1;
+        nbCPUsBestThroughput = Integer.MAX_VALUE;
+
+        compiledArchitecture.resetLoads();
+        for (int i = 0; i < nbCPUs; ++i)
+            nbEntitiesOnCPU[i] = 0;
+        nbUsedCPUs = 0;
+        protocol.resetEntityProcessingNodes();
+        if (!placeFirstValidRepartition(0))
+            throw new IllegalArgumentException("No repartition of the entities on the processing nodes is valid");
+
+        for (int i = 0; i < nbEntities; ++i) {
+            compiledArchitecture.addLoadOnProcessingNode(cpuIndexOfEntity[i], compiledProtocol.getCPULoad(i));
+            if (nbEntitiesOnCPU[cpuIndexOfEntity[i]]++ == 0)
+                ++nbUsedCPUs;
+        }
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair) {
+            compiledArchitecture.addLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)],
+                    cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
+        }
+        updateBest(getThroughput());
+    }
+
+    // The first valid repartition in the order of the enumeration
+    private boolean placeFirstValidRepartition(int entityIndex) {
+        if (entityIndex == nbEntities)
+            return true;
+        for (int cpuIndex = 0; cpuIndex < nbCPUs; ++cpuIndex) {
+            int cpuId = compiledArchitecture.getProcessingNodeId(cpuIndex);
+            if (entityIndex == 0 || protocol.repartitionWillBeValid(entitiesId[entityIndex], cpuId)) {
+                protocol.affectEntityToProcessingNode(entitiesId[entityIndex], cpuId);
+                cpuIndexOfEntity[entityIndex] = cpuIndex;
+                if (placeFirstValidRepartition(entityIndex + 1))
+                    return true;
+                protocol.removeEntityFromProcessingNode(entitiesId[entityIndex], cpuId);
+            }
+        }
+        return false;
+    }
+
+    private boolean budgetIsExhausted() {
+        return nbIterations >= maxIterations || System.currentTimeMillis() - startTime >= maxTimeMillis;
+    }
+
+    private double getProgress() { // Fraction of the budget already used
+        double progress = (double) nbIterations / maxIterations;
+        if (maxTimeMillis != Long.MAX_VALUE)
+            progress = Math.max(progress, (double) (System.currentTimeMillis() - startTime) / maxTimeMillis);
+        return Math.min(progress, 1.0);
+    }
+
+    private double getThroughput() {
+        return compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+    }
+
+    // Throughput of the neighbour if an equivalent repartition is in the cache, NaN otherwise
+    private double getCachedThroughput(int entityIndex, int cpuIndex, int otherEntityIndex) {
+        if (evaluationCache == null)
+            return Double.NaN;
+        System.arraycopy(cpuIndexOfEntity, 0, candidateCpuIndexOfEntity, 0, nbEntities);
+        if (otherEntityIndex != -1)
+            candidateCpuIndexOfEntity[otherEntityIndex] = cpuIndexOfEntity[entityIndex];
+        candidateCpuIndexOfEntity[entityIndex] = cpuIndex;
+        return evaluationCache.get(candidateCpuIndexOfEntity);
+    }
+
+    // Check with the protocol the repartition where the entity goes to the CPU and, if otherEntityIndex is not -1,
+    // the other entity goes to the CPU of the entity
+    private boolean moveIsValid(int entityIndex, int cpuIndex, int otherEntityIndex) {
+        return protocol.moveWillBeValid(entitiesId[entityIndex], compiledArchitecture.getProcessingNodeId(cpuIndex),
+                (otherEntityIndex == -1) ? -1 : entitiesId[otherEntityIndex]);
+    }
+
+    // Move the entity to the CPU and, if otherEntityIndex is not -1, the other entity to the CPU the entity leaves
+    private void applyMove(int entityIndex, int cpuIndex, int otherEntityIndex) {
+        int oldCPUIndex = cpuIndexOfEntity[entityIndex];
+        // Both entities leave before any arrives, as two entities of a group cannot share a CPU in the protocol
+        protocol.removeEntityFromProcessingNode(entitiesId[entityIndex]);
+        if (otherEntityIndex != -1)
+            protocol.removeEntityFromProcessingNode(entitiesId[otherEntityIndex]);
+        protocol.affectEntityToProcessingNode(entitiesId[entityIndex], compiledArchitecture.getProcessingNodeId(cpuIndex));
+        if (otherEntityIndex != -1)
+            protocol.affectEntityToProcessingNode(entitiesId[otherEntityIndex], compiledArchitecture.getProcessingNodeId(oldCPUIndex));
+
+        moveEntity(entityIndex, cpuIndex);
+        if (otherEntityIndex != -1)
+            moveEntity(otherEntityIndex, oldCPUIndex);
+    }
+
+    private void moveEntity(int entityIndex, int cpuIndex) {
+        int oldCPUIndex = cpuIndexOfEntity[entityIndex];
+        double cpuLoad = compiledProtocol.getCPULoad(entityIndex);
+        compiledArchitecture.removeLoadOnProcessingNode(oldCPUIndex, cpuLoad);
+        compiledArchitecture.addLoadOnProcessingNode(cpuIndex, cpuLoad);
+        if (--nbEntitiesOnCPU[oldCPUIndex] == 0)
+            --nbUsedCPUs;
+        if (nbEntitiesOnCPU[cpuIndex]++ == 0)
+            ++nbUsedCPUs;
+
+        int end = compiledProtocol.getEntityPairsEnd(entityIndex);
+        for (int position = compiledProtocol.getEntityPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getEntityPair(position);
+            compiledArchitecture.removeLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)],
+                    cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
+        }
+        cpuIndexOfEntity[entityIndex] = cpuIndex;
+        for (int position = compiledProtocol.getEntityPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getEntityPair(position);
+            compiledArchitecture.addLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)],
+                    cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
+        }
+    }
+
+    private void updateBest(double throughput) {
+        if (throughput > bestThroughput || (throughput == bestThroughput && nbUsedCPUs < nbCPUsBestThroughput)) {
+            bestThroughput = throughput;
+            nbCPUsBestThroughput = nbUsedCPUs;
+            System.arraycopy(cpuIndexOfEntity, 0, bestCpuIndexOfEntity, 0, nbEntities);
+            bestThroughputInfo = compiledArchitecture.getThroughputInfo();
+            if (printProgress) {
+                System.out.printf("%.2fs, move %d: %.1f req/s using %d machines\n", (System.currentTimeMillis() - startTime) / 1000.0,
+                        nbIterations, bestThroughput, nbCPUsBestThroughput);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package perfModelling;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import config.SnapshotIO;
+import protocol.CompiledProtocol;
+import protocol.Protocol;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * A binary snapshot of a fully prepared model: the compiled architecture (processing nodes, links, and the routing
+ * as the list of links of the path between each couple of processing nodes) and the compiled protocol (aggregated
+ * processing loads and traffics). The file starts with a magic number and a format version; it is memory-mapped
+ * when read, so a process that only evaluates a few repartitions does not rebuild the routing and the protocol.
+ */
+public class ModelSnapshot {
+
+    public static final int MAGIC = 0x4453504D; // "DSPM"
+    public static final int VERSION = 2; // 2: switch forwarding capacities
+
+    private final CompiledArchitecture compiledArchitecture;
+    private final CompiledProtocol compiledProtocol;
+    private EvaluationCache evaluationCache; // null if the repartitions are always evaluated
+
+    public ModelSnapshot(CompiledArchitecture compiledArchitecture, CompiledProtocol compiledProtocol) {
+        this.compiledArchitecture = compiledArchitecture;
+        this.compiledProtocol = compiledProtocol;
+    }
+
+    public ModelSnapshot(Architecture architecture, Protocol protocol) {
+        this(new CompiledArchitecture(architecture), protocol.compile(protocol.getEntitiesIdSet().toArray(new Integer[1])));
+    }
+
+    public CompiledArchitecture getCompiledArchitecture() {
+        return compiledArchitecture;
+    }
+
+    public CompiledProtocol getCompiledProtocol() {
+        return compiledProtocol;
+    }
+
+    // Remember the throughputs of the last queried repartitions. The snapshot does not know the symmetries, so only
+    // the same repartition is found in the cache, and then the loads of the architecture are not those of the query.
+    public void useEvaluationCache(int capacity) {
+        evaluationCache = new EvaluationCache(capacity, null, compiledArchitecture, null, compiledProtocol);
+    }
+
+    public EvaluationCache getEvaluationCache() {
+        return evaluationCache;
+    }
+
+    public void write(String fileName) throws IOException {
+        File file = new File(fileName);
+        File tmpFile = new File(fileName + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            compiledArchitecture.writeTo(output);
+            compiledProtocol.writeTo(output);
+        } finally {
+            output.close();
+        }
+        SnapshotIO.replaceFile(tmpFile, file);
+    }
+
+    public static ModelSnapshot read(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(fileName), "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close(); // The mapping stays valid
+        }
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException(fileName + " is not a model snapshot");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException(fileName + ": unsupported snapshot version " + version + " (expected " + VERSION + ")");
+        try {
+            CompiledArchitecture compiledArchitecture = CompiledArchitecture.readFrom(buffer);
+            CompiledProtocol compiledProtocol = CompiledProtocol.readFrom(buffer);
+            return new ModelSnapshot(compiledArchitecture, compiledProtocol);
+        } catch (RuntimeException e) { // Truncated or corrupted file
+            throw new IOException(fileName + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Throughput in requests per second of the repartition giving the CPU index of each entity index
+    public double getThroughput(int[] cpuIndexOfEntity) {
+        if (evaluationCache != null) {
+            double throughput = evaluationCache.get(cpuIndexOfEntity);
+            if (!Double.isNaN(throughput))
+                return throughput;
+        }
+        compiledArchitecture.resetLoads();
+        for (int i = 0; i < compiledProtocol.getNbEntities(); ++i)
+            compiledArchitecture.addLoadOnProcessingNode(cpuIndexOfEntity[i], compiledProtocol.getCPULoad(i));
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair) {
+            compiledArchitecture.addLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)],
+                    cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
+        }
+        double throughput = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+        if (evaluationCache != null)
+            evaluationCache.putLastMissed(throughput);
+        return throughput;
+    }
+
+    // Usage: ModelSnapshot snapshotFile cpuNodeId... (the processing node of each entity, in the order of the entities)
+    public static void main(String[] args) throws IOException {
+        long startTime = System.nanoTime();
+        ModelSnapshot snapshot = ModelSnapshot.read(args[0]);
+        long loadTime = System.nanoTime() - startTime;
+        CompiledArchitecture compiledArchitecture = snapshot.getCompiledArchitecture();
+        CompiledProtocol compiledProtocol = snapshot.getCompiledProtocol();
+        System.out.printf("Snapshot loaded in %.2f ms: %d processing nodes, %d links, %d entities, %d communicating couples\n",
+                loadTime / 1e6, compiledArchitecture.getNbProcessingNodes(), compiledArchitecture.getNbLinks(),
+                compiledProtocol.getNbEntities(), compiledProtocol.getNbPairs());
+        if (args.length == 1)
+            return;
+
+        if (args.length != 1 + compiledProtocol.getNbEntities())
+            throw new IllegalArgumentException("Expected the processing node of each of the " + compiledProtocol.getNbEntities() + " entities");
+        int[] cpuIndexOfEntity = new int[compiledProtocol.getNbEntities()];
+        for (int i = 0; i < cpuIndexOfEntity.length; ++i)
+            cpuIndexOfEntity[i] = compiledArchitecture.getProcessingNodeIndex(Integer.parseInt(args[1 + i]));
+        System.out.printf("Throughput: %.2f req/s\n", snapshot.getThroughput(cpuIndexOfEntity));
+        System.out.print(compiledArchitecture.getThroughputInfo());
+    }
+
+}
@@ -0,0 +1,207 @@
+package perfModelling;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import protocol.Protocol;
+import protocol.ProtocolSpec;
+import protocol.UpRight;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * Searches the max throughput repartition for each point of a grid of protocol parameters and architectures, with a
+ * bounded pool of threads. Each architecture is compiled once: the searches on it share its compiled topology and
+ * routing, and only have their own loads. A result row is printed as soon as the search of its point is done, so the
+ * rows come in the order the searches end. The protocol is UpRight, whose parameters are u, r, nbClients,
+ * nbRequestsInBatch and nbClientEntities (nbClients by default, see UpRight), or a protocol spec with its own parameters.
+ */
+public class ParameterSweep {
+
+    private final LinkedHashMap<String, Architecture> architectures;
+    private final LinkedHashMap<String, CompiledArchitecture> compiledArchitectures;
+    private final LinkedHashMap<String, double[]> parameters; // Values of each parameter of the grid
+    private final ProtocolSpec protocolSpec; // null for UpRight
+    private boolean useBranchAndBound;
+
+    public ParameterSweep(ProtocolSpec protocolSpec) {
+        this.protocolSpec = protocolSpec;
+        architectures = new LinkedHashMap<String, Architecture>();
+        compiledArchitectures = new LinkedHashMap<String, CompiledArchitecture>();
+        parameters = new LinkedHashMap<String, double[]>();
+        useBranchAndBound = true;
+    }
+
+    public void addArchitecture(String name, Architecture architecture) {
+        architectures.put(name, architecture);
+        compiledArchitectures.put(name, new CompiledArchitecture(architecture));
+    }
+
+    public void addParameter(String name, double[] values) {
+        if (protocolSpec == null && !name.equals("u") && !name.equals("r") && !name.equals("nbClients") && !name.equals("nbRequestsInBatch")
+                && !name.equals("nbClientEntities"))
+            throw new IllegalArgumentException("Unknown UpRight parameter " + name);
+        parameters.put(name, values);
+    }
+
+    // Enumerate all the repartitions instead of pruning with the branch and bound
+    public void enumerateAllRepartitions() {
+        useBranchAndBound = false;
+    }
+
+    public void run(int nbThreads, PrintStream output) {
+        // The points of the grid, the last parameter changing the fastest
+        ArrayList<HashMap<String, Double>> points = new ArrayList<HashMap<String, Double>>();
+        points.add(new HashMap<String, Double>());
+        for (Map.Entry<String, double[]> parameter : parameters.entrySet()) {
+            ArrayList<HashMap<String, Double>> newPoints = new ArrayList<HashMap<String, Double>>();
+            for (HashMap<String, Double> point : points) {
+                for (double value : parameter.getValue()) {
+                    HashMap<String, Double> newPoint = new HashMap<String, Double>(point);
+                    newPoint.put(parameter.getKey(), value);
+                    newPoints.add(newPoint);
+                }
+            }
+            points = newPoints;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        ExecutorCompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+        int nbRuns = 0;
+        for (String architectureName : architectures.keySet()) {
+            for (HashMap<String, Double> point : points) {
+                completionService.submit(createRun(architectureName, point, createProtocol(point)));
+                ++nbRuns;
+            }
+        }
+
+        String header = "architecture";
+        for (String name : parameters.keySet())
+            header += "," + name;
+        output.println(header + ",maxThroughput,nbMachines,nbRepartitionsEvaluated,seconds");
+        try {
+            for (int i = 0; i < nbRuns; ++i) {
+                try {
+                    output.println(completionService.take().get());
+                } catch (ExecutionException e) {
+                    System.err.println("Search failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Created by the calling thread. UpRight does not print its replicas, the output is only the CSV rows
+    private Protocol createProtocol(HashMap<String, Double> point) {
+        if (protocolSpec != null)
+            return protocolSpec.instantiate(point);
+        int nbClients = getIntParameter(point, "nbClients", 1);
+        return new UpRight(getIntParameter(point, "u", 1), getIntParameter(point, "r", 1), nbClients,
+                getIntParameter(point, "nbRequestsInBatch", 30), getIntParameter(point, "nbClientEntities", nbClients), false);
+    }
+
+    private static int getIntParameter(HashMap<String, Double> point, String name, int defaultValue) {
+        Double value = point.get(name);
+        if (value == null)
+            return defaultValue;
+        if (value != Math.rint(value))
+            throw new IllegalArgumentException("The parameter " + name + " must be an integer, not " + value);
+        return value.intValue();
+    }
+
+    private Callable<String> createRun(final String architectureName, final HashMap<String, Double> point, final Protocol protocol) {
+        return new Callable<String>() {
+            public String call() {
+                long startTime = System.currentTimeMillis();
+                PerfModelling perfModelling = new PerfModelling(architectures.get(architectureName),
+                        compiledArchitectures.get(architectureName), protocol);
+                perfModelling.setPrintProgress(false);
+                if (useBranchAndBound)
+                    perfModelling.enumerateRepartitionsWithBranchAndBound();
+                else
+                    perfModelling.enumerateRepartitions();
+
+                String row = architectureName;
+                for (String name : parameters.keySet())
+                    row += "," + formatValue(point.get(name));
+                return row + String.format(",%.1f,%d,%.0f,%.2f", perfModelling.getMaxThroughput(), perfModelling.getNbCPUsMaxThroughput(),
+                        perfModelling.getMetrics().getRepartitionsEvaluated(), (System.currentTimeMillis() - startTime) / 1000.0);
+            }
+        };
+    }
+
+    private static String formatValue(double value) {
+        return (value == Math.rint(value)) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static Architecture getArchitecture(String name) {
+        if (name.equals("sci"))
+            return Architecture.sci();
+        if (name.equals("rennes"))
+            return Architecture.rennes();
+        if (name.equals("sevenCPUOneSwitch"))
+            return Architecture.sevenCPUOneSwitch();
+        return Architecture.readArchitecture(name);
+    }
+
+    // ParameterSweep [-threads n] [-architecture sci|rennes|sevenCPUOneSwitch|file]... [-protocolSpec file] [-enumerate]
+    //                name=value,value... ...
+    public static void main(String[] args) {
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> architectureNames = new ArrayList<String>();
+        String protocolSpecFileName = null;
+        boolean enumerate = false;
+        LinkedHashMap<String, double[]> grid = new LinkedHashMap<String, double[]>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-threads"))
+                nbThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-architecture"))
+                architectureNames.add(args[++i]);
+            else if (args[i].equals("-protocolSpec"))
+                protocolSpecFileName = args[++i];
+            else if (args[i].equals("-enumerate"))
+                enumerate = true;
+            else { // name=value,value...
+                String[] parameter = args[i].split("=", 2);
+                String[] values = parameter[1].split(",");
+                double[] parameterValues = new double[values.length];
+                for (int j = 0; j < values.length; ++j)
+                    parameterValues[j] = Double.parseDouble(values[j]);
+                grid.put(parameter[0], parameterValues);
+            }
+        }
+        if (architectureNames.isEmpty())
+            architectureNames.add("sevenCPUOneSwitch");
+
+        ProtocolSpec protocolSpec = null;
+        if (protocolSpecFileName != null) {
+            try {
+                protocolSpec = ProtocolSpec.read(protocolSpecFileName);
+            } catch (IOException e) {
+                System.err.println("Cannot read the protocol spec: " + e.getMessage());
+                return;
+            }
+        }
+        ParameterSweep sweep = new ParameterSweep(protocolSpec);
+        for (String name : architectureNames)
+            sweep.addArchitecture(name, getArchitecture(name));
+        for (Map.Entry<String, double[]> parameter : grid.entrySet())
+            sweep.addParameter(parameter.getKey(), parameter.getValue());
+        if (enumerate)
+            sweep.enumerateAllRepartitions();
+        sweep.run(nbThreads, System.out);
+    }
+
+}
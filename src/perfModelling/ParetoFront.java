@@ -0,0 +1,98 @@
+package perfModelling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The Pareto front of the repartitions for two objectives: maximize the throughput and minimize the number of
+ * machines used. The best repartition is kept for each number of machines; the front is made of those that have a
+ * higher throughput than all the repartitions using less machines. A partial repartition that already uses u
+ * machines and whose throughput is at most the best one found with at most u machines cannot improve the front.
+ */
+public class ParetoFront {
+
+    private final int nbCPUs;
+    private final double[] bestThroughput; // Using exactly m machines, -1 if none has been found
+    private final int[][] bestRepartition; // CPU index of each entity index
+    private final double[] bestThroughputWithAtMost; // Using at most m machines, -1 if none has been found
+
+    public ParetoFront(int nbCPUs) {
+        this.nbCPUs = nbCPUs;
+        bestThroughput = new double[nbCPUs + 1];
+        bestRepartition = new int[nbCPUs + 1][];
+        bestThroughputWithAtMost = new double[nbCPUs + 1];
+        for (int m = 0; m <= nbCPUs; ++m) {
+            bestThroughput[m] = -1;
+            bestThroughputWithAtMost[m] = -1;
+        }
+    }
+
+    public void offer(double throughput, int nbUsedCPUs, int[] repartition) {
+        if (throughput <= bestThroughput[nbUsedCPUs])
+            return;
+        bestThroughput[nbUsedCPUs] = throughput;
+        if (bestRepartition[nbUsedCPUs] == null)
+            bestRepartition[nbUsedCPUs] = repartition.clone();
+        else
+            System.arraycopy(repartition, 0, bestRepartition[nbUsedCPUs], 0, repartition.length);
+        for (int m = nbUsedCPUs; m <= nbCPUs && bestThroughputWithAtMost[m] < throughput; ++m)
+            bestThroughputWithAtMost[m] = throughput;
+    }
+
+    // Can a repartition using at least nbUsedCPUs machines, with a throughput of at most upperBound, improve the front
+    public boolean isDominated(double upperBound, int nbUsedCPUs) {
+        return upperBound <= bestThroughputWithAtMost[nbUsedCPUs];
+    }
+
+    public void merge(ParetoFront other) {
+        for (int m = 0; m <= nbCPUs; ++m) {
+            if (other.bestRepartition[m] != null)
+                offer(other.bestThroughput[m], m, other.bestRepartition[m]);
+        }
+    }
+
+    void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(nbCPUs);
+        for (int m = 0; m <= nbCPUs; ++m) {
+            output.writeBoolean(bestRepartition[m] != null);
+            if (bestRepartition[m] == null)
+                continue;
+            output.writeDouble(bestThroughput[m]);
+            for (int cpuIndex : bestRepartition[m])
+                output.writeInt(cpuIndex);
+        }
+    }
+
+    static ParetoFront readFrom(DataInputStream input, int nbEntities) throws IOException {
+        ParetoFront paretoFront = new ParetoFront(input.readInt());
+        int[] repartition = new int[nbEntities];
+        for (int m = 0; m <= paretoFront.nbCPUs; ++m) {
+            if (!input.readBoolean())
+                continue;
+            double throughput = input.readDouble();
+            for (int j = 0; j < nbEntities; ++j)
+                repartition[j] = input.readInt();
+            paretoFront.offer(throughput, m, repartition);
+        }
+        return paretoFront;
+    }
+
+    public boolean isOnFront(int nbUsedCPUs) {
+        return bestRepartition[nbUsedCPUs] != null
+                && (nbUsedCPUs == 0 || bestThroughput[nbUsedCPUs] > bestThroughputWithAtMost[nbUsedCPUs - 1]);
+    }
+
+    public int getMaxNbCPUs() {
+        return nbCPUs;
+    }
+
+    public double getThroughput(int nbUsedCPUs) {
+        return bestThroughput[nbUsedCPUs];
+    }
+
+    public int[] getRepartition(int nbUsedCPUs) {
+        return bestRepartition[nbUsedCPUs];
+    }
+
+}
@@ -1,20 +1,38 @@
 package perfModelling;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 
-import protocol.Communication;
-import protocol.Processing;
+import javax.management.JMException;
+
+import protocol.CompiledProtocol;
 import protocol.Protocol;
+import protocol.ProtocolSpec;
 import protocol.UpRight;
+import simulation.Simulation;
 import architecture.Architecture;
+import architecture.CompiledArchitecture;
+import architecture.ProcessingNodesEquivalence;
+import config.SnapshotIO;
 
 public class PerfModelling {
 
     // Architecture on which the protocol has to be deployed
     private Architecture architecture;
     private Protocol protocol;
+    private CompiledArchitecture compiledArchitecture; // Holds the loads of the repartition being studied
+    private CompiledProtocol compiledProtocol;
 
     private int nbCPUs;
     private Integer[] CPUsId;
@@ -22,32 +40,116 @@ public class PerfModelling {
     private int curEntityIndex;
     private int nbEntities;
     private Integer[] entitiesId;
+    private int[] cpuIndexOfEntity; // Index of the CPU of each placed entity, in the compiled architecture
+    private int[] nbEntitiesOnCPU;
+    private int nbUsedCPUs;
 
     // Store the best and the worst repartitions
     private double minThroughput, maxThroughput;
     private int nbCPUsMinThroughput, nbCPUsMaxThroughput; // Used to choose the configuration that use the lowest number of machines
     private HashMap<Integer, Integer> minThroughputRepartition, maxThroughputRepartition;
     private String minThroughputInfo, maxThroughputInfo;
+    private TopKRepartitions topKRepartitions; // null if only the min and max repartitions are kept
+    private ParetoFront paretoFront; // Best throughput for each number of machines used, null if not kept
+
+    private LatencyEvaluator latencyEvaluator; // null if latencies are not predicted
+    private double maxLatency; // In seconds, repartitions with a higher latency are ignored
 
     private double nbConfigurationsToSee, nbConfigurationsSeen;
+    private double nbRepartitionsEvaluated; // Same as nbConfigurationsSeen, but not restored from a checkpoint
+
+    // Used by the enumeration of canonical repartitions only
+    private ProcessingNodesEquivalence equivalence;
+    private int[] nbUsedCPUsInClass; // The CPUs of a class are used in the order of their position in the class
+    private int[][] cpuIndexInClass; // CPU index of each position of each class
+    private int[] groupOfEntity; // Interchangeable group of each entity index, -1 if none
+    private int[][] entityIndicesOfGroup; // Entity indices of each interchangeable group, in the order of the group
+    private int[] cpuIndicesById; // In increasing order of the ids of the CPUs
+    private int[] nbEntitiesOfGroupOnCPU; // cpuIndex * nbGroups + group
+    private int[] firstOtherEntityOnCPU; // Smallest index of an entity that is not interchangeable, nbEntities if none
+    private int[] usedCPUIndicesById, nbEntitiesOfGroupAssigned, lastFirstUseInClass;
+    private boolean[][] positionIsAssigned;
+    private double nbRawConfigurationsSeen; // Valid repartitions of the plain enumeration the canonical ones stand for
+
+    private double nbPrunedSubtrees; // By the branch and bound enumeration
+
+    private int[] grayCodeDirection; // During the Gray code enumeration, direction in which the CPUs of each entity are tried
+    private double nbEntityMoves;
+
+    private boolean printProgress; // Disabled for the sub-searches of a parallel search
+
+    // The metrics, the progress printing and the checkpoints are handled every PERIODIC_TASKS_INTERVAL repartitions
+    private static final int PERIODIC_TASKS_INTERVAL = 1 << 14;
+    private static final long PROGRESS_PERIOD_MILLIS = 10000;
+    private int nbRepartitionsBeforePeriodicTasks;
+    private long nextProgressTime;
+
+    // Counted since the last publication to the metrics
+    private SearchMetrics metrics;
+    private final long[] nbNodesAtDepth, nbPrunedAtDepth;
+    private double publishedNbConfigurationsSeen, publishedNbRepartitionsEvaluated, publishedNbPrunedSubtrees;
+
+    // Checkpoints of a sequential search: the cursor is the last repartition studied, a search resumed from a
+    // checkpoint goes down to it directly and continues with the following repartition
+    private static final int CHECKPOINT_MAGIC = 0x44535043; // "DSPC"
+    private static final int CHECKPOINT_VERSION = 2;
+    private String searchName; // Enumeration the checkpoints are taken by
+    private String checkpointFileName; // null if no checkpoint is taken
+    private long checkpointPeriodMillis, nextCheckpointTime;
+    private int[] resumeCursor; // CPU index of each entity index, null once the cursor has been reached
+    private String resumeSearchName;
 
     public PerfModelling(Architecture architecture, Protocol protocol) {
+        this(architecture, protocol, new CompiledArchitecture(architecture), protocol.compile(protocol.getEntitiesIdSet().toArray(new Integer[1])));
+    }
+
+    // Search on an architecture compiled once for several searches: they share its topology and routing, and only
+    // have their own loads
+    public PerfModelling(Architecture architecture, CompiledArchitecture compiledArchitecture, Protocol protocol) {
+        this(architecture, protocol, compiledArchitecture.copy(), protocol.compile(protocol.getEntitiesIdSet().toArray(new Integer[1])));
+    }
+
+    private PerfModelling(Architecture architecture, Protocol protocol, CompiledArchitecture compiledArchitecture, CompiledProtocol compiledProtocol) {
         this.architecture = architecture;
         this.protocol = protocol;
+        this.compiledArchitecture = compiledArchitecture;
+        this.compiledProtocol = compiledProtocol;
 
-        nbCPUs = architecture.getProcessingNodesSize();
-        CPUsId = architecture.getProcessingNodesId().toArray(new Integer[1]);
+        nbCPUs = compiledArchitecture.getNbProcessingNodes();
+        CPUsId = new Integer[nbCPUs];
+        for (int i = 0; i < nbCPUs; ++i)
+            CPUsId[i] = compiledArchitecture.getProcessingNodeId(i);
 
         curEntityIndex = 0;
-        nbEntities = protocol.getEntitiesSize();
-        entitiesId = protocol.getEntitiesIdSet().toArray(new Integer[1]);
+        nbEntities = compiledProtocol.getNbEntities();
+        entitiesId = new Integer[nbEntities];
+        for (int i = 0; i < nbEntities; ++i)
+            entitiesId[i] = compiledProtocol.getEntityId(i);
+        cpuIndexOfEntity = new int[nbEntities];
+        nbEntitiesOnCPU = new int[nbCPUs];
+        nbUsedCPUs = 0;
 
+        printProgress = true;
         maxThroughput = Double.MIN_VALUE;
         minThroughput = Double.MAX_VALUE;
         nbCPUsMinThroughput = Integer.MAX_VALUE;
         nbCPUsMaxThroughput = Integer.MAX_VALUE;
         nbConfigurationsSeen = 0;
+        nbRepartitionsEvaluated = 0;
+        nbPrunedSubtrees = 0;
+        maxLatency = Double.MAX_VALUE;
         nbConfigurationsToSee = Math.pow(nbCPUs, nbEntities);
+        searchName = "enumerateRepartitions";
+
+        metrics = new SearchMetrics(nbConfigurationsToSee, nbEntities);
+        nbNodesAtDepth = new long[nbEntities];
+        nbPrunedAtDepth = new long[nbEntities];
+        nbRepartitionsBeforePeriodicTasks = PERIODIC_TASKS_INTERVAL;
+        nextProgressTime = System.currentTimeMillis() + PROGRESS_PERIOD_MILLIS;
+    }
+
+    public SearchMetrics getMetrics() {
+        return metrics;
     }
 
     public void printRepartition(HashMap<Integer, Integer> repartition) {
@@ -58,37 +160,114 @@ public class PerfModelling {
         System.out.printf("\n");
     }
 
-    public void updateMinMaxRepartitions(double throughput) {
-        HashSet<Integer> cpuIds = new HashSet<Integer>();
-        for (int entityId : protocol.getEntitiesIdSet())
-            cpuIds.add(protocol.getEntity(entityId).getcpuId());
+    public void keepTopKRepartitions(int k) { // Keep the k best repartitions, in addition to the min and max ones
+        assert(k > 0);
+        topKRepartitions = new TopKRepartitions(k, createCanonicalKeys());
+    }
+
+    private EvaluationCache createCanonicalKeys() { // Only its keys are used, equivalent repartitions share them
+        return new EvaluationCache(0, architecture, compiledArchitecture, protocol, compiledProtocol);
+    }
+
+    public void keepParetoFront() { // Keep the best repartition for each number of machines used
+        paretoFront = new ParetoFront(nbCPUs);
+    }
+
+    public void evaluateLatencies() { // Predict the latency of the kept repartitions
+        latencyEvaluator = new LatencyEvaluator(compiledArchitecture, compiledProtocol, protocol);
+        if (!latencyEvaluator.hasCriticalPaths()) {
+            latencyEvaluator = null;
+            throw new IllegalArgumentException("The latency of the protocol is not modelled: it has no critical path");
+        }
+    }
+
+    public void setMaxLatency(double maxLatency) { // Search the repartitions whose predicted latency is at most maxLatency seconds
+        evaluateLatencies();
+        this.maxLatency = maxLatency;
+    }
 
+    private String getRepartitionInfo() {
+        if (latencyEvaluator == null)
+            return compiledArchitecture.getThroughputInfo();
+        return compiledArchitecture.getThroughputInfo() 
+                + String.format("\tPredicted latency: %.3f ms\n", latencyEvaluator.getLatency(cpuIndexOfEntity) * 1000);
+    }
+
+    public void updateMinMaxRepartitions(double throughput) {
         // Update the worst config if its throughput is less 
-        if (throughput < minThroughput || (throughput == minThroughput && cpuIds.size() < nbCPUsMinThroughput)) {
+        if (throughput < minThroughput || (throughput == minThroughput && nbUsedCPUs < nbCPUsMinThroughput)) {
             minThroughput = throughput;
 
-            nbCPUsMinThroughput = cpuIds.size();
+            nbCPUsMinThroughput = nbUsedCPUs;
             minThroughputRepartition = new HashMap<Integer, Integer>();
             for (int entityId : protocol.getEntitiesIdSet()) {
                 minThroughputRepartition.put(entityId, protocol.getEntity(entityId).getcpuId());
             }
-            minThroughputInfo = architecture.getThroughputInfo();
+            minThroughputInfo = getRepartitionInfo();
         } 
 
-        if (throughput > maxThroughput || (throughput == maxThroughput && cpuIds.size() < nbCPUsMinThroughput)) {
+        if (throughput > maxThroughput || (throughput == maxThroughput && nbUsedCPUs < nbCPUsMaxThroughput)) {
             maxThroughput = throughput;
 
-            nbCPUsMaxThroughput = cpuIds.size();
+            nbCPUsMaxThroughput = nbUsedCPUs;
             maxThroughputRepartition = new HashMap<Integer, Integer>();
             for (int entityId : protocol.getEntitiesIdSet()) {
                 maxThroughputRepartition.put(entityId, protocol.getEntity(entityId).getcpuId());
             }
-            maxThroughputInfo = architecture.getThroughputInfo();
+            maxThroughputInfo = getRepartitionInfo();
+            metrics.offerBestThroughput(throughput, nbUsedCPUs);
         }
+
+        if (topKRepartitions != null)
+            topKRepartitions.offer(throughput, nbUsedCPUs, cpuIndexOfEntity);
+        if (paretoFront != null)
+            paretoFront.offer(throughput, nbUsedCPUs, cpuIndexOfEntity);
+    }
+
+    // Merge the results of a search that studied repartitions found after the ones of this search in the enumeration order
+    void mergeMinMaxRepartitions(PerfModelling other) {
+        nbConfigurationsSeen += other.nbConfigurationsSeen;
+        nbRawConfigurationsSeen += other.nbRawConfigurationsSeen;
+        nbRepartitionsEvaluated += other.nbRepartitionsEvaluated;
+        nbPrunedSubtrees += other.nbPrunedSubtrees;
+        publishedNbConfigurationsSeen += other.publishedNbConfigurationsSeen; // The other search published its own results
+        publishedNbRepartitionsEvaluated += other.publishedNbRepartitionsEvaluated;
+        publishedNbPrunedSubtrees += other.publishedNbPrunedSubtrees;
+
+        if (other.minThroughputRepartition != null && (other.minThroughput < minThroughput 
+                || (other.minThroughput == minThroughput && other.nbCPUsMinThroughput < nbCPUsMinThroughput))) {
+            minThroughput = other.minThroughput;
+            nbCPUsMinThroughput = other.nbCPUsMinThroughput;
+            minThroughputRepartition = other.minThroughputRepartition;
+            minThroughputInfo = other.minThroughputInfo;
+        }
+
+        if (other.maxThroughputRepartition != null && (other.maxThroughput > maxThroughput 
+                || (other.maxThroughput == maxThroughput && other.nbCPUsMaxThroughput < nbCPUsMaxThroughput))) {
+            maxThroughput = other.maxThroughput;
+            nbCPUsMaxThroughput = other.nbCPUsMaxThroughput;
+            maxThroughputRepartition = other.maxThroughputRepartition;
+            maxThroughputInfo = other.maxThroughputInfo;
+        }
+
+        if (topKRepartitions != null)
+            topKRepartitions.merge(other.topKRepartitions);
+        if (paretoFront != null)
+            paretoFront.merge(other.paretoFront);
     }
 
     public void printMinMaxRepartitions() {
-        System.out.printf("\nStudied %.0f out of %.0f repartitions\n", nbConfigurationsSeen, nbConfigurationsToSee);
+        if (equivalence != null) {
+            System.out.printf("\nStudied %.0f canonical repartitions, standing for %.0f valid repartitions out of %.0f "
+                    + "(the other valid ones are permutations of interchangeable machines)\n", nbConfigurationsSeen,
+                    nbRawConfigurationsSeen, nbConfigurationsToSee);
+        } else {
+            System.out.printf("\nStudied %.0f out of %.0f repartitions\n", nbConfigurationsSeen, nbConfigurationsToSee);
+        }
+        if (nbPrunedSubtrees > 0)
+            System.out.printf("Pruned %.0f subtrees\n", nbPrunedSubtrees);
+        if (maxLatency != Double.MAX_VALUE)
+            System.out.printf("Only repartitions with a predicted latency of at most %.3f ms are kept\n", maxLatency * 1000);
         if (minThroughputRepartition != null) {
             System.out.printf("Min throughput found : %.1f req/s using %d machines\n", minThroughput, nbCPUsMinThroughput);
             printRepartition(minThroughputRepartition);
@@ -99,98 +278,606 @@ public class PerfModelling {
             printRepartition(maxThroughputRepartition);
             System.out.println(maxThroughputInfo);
         }
+        if (topKRepartitions != null)
+            printTopKRepartitions();
+        if (paretoFront != null)
+            printParetoFront();
+    }
+
+    public double getMaxThroughput() {
+        return maxThroughput;
+    }
+
+    int getNbCPUsMaxThroughput() {
+        return nbCPUsMaxThroughput;
+    }
+
+    // The canonical enumeration must find the max throughput of the plain one: the order of the interchangeable
+    // machines and the one of the interchangeable entities must agree, whatever the ids of the machines
+    public static boolean canonicalEnumerationIsConsistent(Architecture architecture, Protocol protocol) {
+        PerfModelling plain = new PerfModelling(architecture, protocol);
+        plain.setPrintProgress(false);
+        plain.enumerateRepartitions();
+        PerfModelling canonical = new PerfModelling(architecture, protocol);
+        canonical.setPrintProgress(false);
+        canonical.enumerateCanonicalRepartitions();
+        System.out.printf("Max throughput: %.1f req/s over all the repartitions, %.1f req/s over the canonical ones\n",
+                plain.getMaxThroughput(), canonical.getMaxThroughput());
+        return plain.getMaxThroughput() == canonical.getMaxThroughput();
+    }
+
+    void setPrintProgress(boolean printProgress) {
+        this.printProgress = printProgress;
+    }
+
+    public HashMap<Integer, Integer> getMaxThroughputRepartition() { // entityId to cpuId, null if no repartition was evaluated
+        return maxThroughputRepartition;
+    }
+
+    public void printTopKRepartitions() {
+        int rank = 1;
+        for (int position : topKRepartitions.getPositionsByRank()) {
+            System.out.printf("Top %d : %.1f req/s using %d machines\n", rank++, topKRepartitions.getThroughput(position), 
+                    topKRepartitions.getNbUsedCPUs(position));
+            int[] repartition = topKRepartitions.getRepartition(position);
+            for (int i = 0; i < nbEntities; ++i)
+                System.out.printf("(%s, %s) ", protocol.getEntity(entitiesId[i]).getName(), compiledArchitecture.getProcessingNodeName(repartition[i]));
+            System.out.printf("\n");
+        }
+    }
+
+    public void printParetoFront() {
+        for (int nbMachines = 1; nbMachines <= paretoFront.getMaxNbCPUs(); ++nbMachines) {
+            if (!paretoFront.isOnFront(nbMachines))
+                continue;
+            System.out.printf("Pareto front : %.1f req/s using %d machines\n", paretoFront.getThroughput(nbMachines), nbMachines);
+            int[] repartition = paretoFront.getRepartition(nbMachines);
+            for (int i = 0; i < nbEntities; ++i)
+                System.out.printf("(%s, %s) ", protocol.getEntity(entitiesId[i]).getName(), compiledArchitecture.getProcessingNodeName(repartition[i]));
+            System.out.printf("\n");
+        }
+    }
+
+    private int getCPUIndex(int entityId) { // Index in the compiled architecture of the CPU the entity is placed on
+        return compiledArchitecture.getProcessingNodeIndex(protocol.getEntity(entityId).getcpuId());
     }
 
     public void addCommunicationLoadsOnArchitecture() {
-        for (int entityId : entitiesId) {
-            // Add communication loads on architecture
-            ArrayList<Communication> communications = protocol.getCommunications(entityId);
-            if (communications != null) {
-                for (Communication communication : communications) {
-                    int srcEntityId = communication.getSrcEntityId();
-                    int dstEntityId = communication.getDstEntityId();
-                    int srcNodeId = protocol.getEntity(srcEntityId).getcpuId();
-                    int dstNodeId = protocol.getEntity(dstEntityId).getcpuId();
-                    double communicationLoad = communication.getMsgSizeBytes();
-                    architecture.addLoadOnLink(srcNodeId, dstNodeId, communicationLoad);
-                }
-            }
+        // Add communication loads on architecture
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair) {
+            int srcEntityId = compiledProtocol.getEntityId(compiledProtocol.getPairSrc(pair));
+            int dstEntityId = compiledProtocol.getEntityId(compiledProtocol.getPairDst(pair));
+            compiledArchitecture.addLoadOnLink(getCPUIndex(srcEntityId), getCPUIndex(dstEntityId), compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
         }
     }
 
     public void removeCommunicationLoadsOnArchitecture() {
-        for (int entityId : entitiesId) {
-            // Add communication loads on architecture
-            ArrayList<Communication> communications = protocol.getCommunications(entityId);
-            for (Communication communication : communications) {
-                int srcEntityId = communication.getSrcEntityId();
-                int dstEntityId = communication.getDstEntityId();
-                int srcNodeId = protocol.getEntity(srcEntityId).getcpuId();
-                int dstNodeId = protocol.getEntity(dstEntityId).getcpuId();
-                double communicationLoad = communication.getMsgSizeBytes();
-                architecture.removeLoadOnLink(srcNodeId, dstNodeId, communicationLoad);
-            }
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair) {
+            int srcEntityId = compiledProtocol.getEntityId(compiledProtocol.getPairSrc(pair));
+            int dstEntityId = compiledProtocol.getEntityId(compiledProtocol.getPairDst(pair));
+            compiledArchitecture.removeLoadOnLink(getCPUIndex(srcEntityId), getCPUIndex(dstEntityId), compiledProtocol.getPairBytes(pair),
+                    compiledProtocol.getPairMessages(pair));
         }
     }
 
     public void addCPULoadsOnArchitecture(int entityId) {
         // Add cpu loads on architecture
-        ArrayList<Processing> processings = protocol.getProcessings(entityId);
-        if (processings != null) {
-            for (Processing processing : processings) {
-                int srcEntityId = processing.getEntityId();
-                int srcNodeId = protocol.getEntity(srcEntityId).getcpuId();
-                double cpuLoad = processing.getNbCycles();
-                architecture.addLoadOnProcessingNode(srcNodeId, cpuLoad);
+        double cpuLoad = compiledProtocol.getCPULoad(compiledProtocol.getEntityIndex(entityId));
+        compiledArchitecture.addLoadOnProcessingNode(getCPUIndex(entityId), cpuLoad);
+    }
+
+    public void removeCPULoadsOnArchitecture(int entityId) {
+        double cpuLoad = compiledProtocol.getCPULoad(compiledProtocol.getEntityIndex(entityId));
+        compiledArchitecture.removeLoadOnProcessingNode(getCPUIndex(entityId), cpuLoad);
+    }
+
+    public void resetCommunicationLoadsOnArchitecture() {
+        compiledArchitecture.resetLoadsOnLinks();
+    }
+
+    private void updateResults(double throughput) {
+        if (resumeCursor != null) { // Last repartition studied before the checkpoint, already counted
+            assert(Arrays.equals(resumeCursor, cpuIndexOfEntity));
+            if (!searchName.equals(resumeSearchName))
+                throw new IllegalStateException("The checkpoint was taken by " + resumeSearchName + ", not by " + searchName);
+            resumeCursor = null;
+            return;
+        }
+
+        if (maxLatency == Double.MAX_VALUE || latencyEvaluator.getLatency(cpuIndexOfEntity) <= maxLatency)
+            updateMinMaxRepartitions(throughput);
+
+        ++nbConfigurationsSeen;
+        ++nbRepartitionsEvaluated;
+        if (equivalence != null)
+            nbRawConfigurationsSeen += getNbRawImages();
+
+        if (--nbRepartitionsBeforePeriodicTasks == 0)
+            runPeriodicTasks();
+    }
+
+    private void runPeriodicTasks() {
+        nbRepartitionsBeforePeriodicTasks = PERIODIC_TASKS_INTERVAL;
+        publishMetrics();
+        long time = System.currentTimeMillis();
+        if (printProgress && time >= nextProgressTime) {
+            System.out.println(metrics.getProgressInfo());
+            nextProgressTime = time + PROGRESS_PERIOD_MILLIS;
+        }
+        if (checkpointFileName != null && time >= nextCheckpointTime) {
+            try {
+                writeCheckpoint();
+            } catch (IOException e) { // The search goes on, the previous checkpoint is still there
+                System.err.println("Cannot write the checkpoint: " + e.getMessage());
             }
+            nextCheckpointTime = System.currentTimeMillis() + checkpointPeriodMillis;
         }
     }
 
-    public void removeCPULoadsOnArchitecture(int entityId) {
-        // Add cpu loads on architecture
-        ArrayList<Processing> processings = protocol.getProcessings(entityId);
-        if (processings != null) {
-            for (Processing processing : processings) {
-                int srcEntityId = processing.getEntityId();
-                int srcNodeId = protocol.getEntity(srcEntityId).getcpuId();
-                double cpuLoad = processing.getNbCycles();
-                architecture.removeLoadOnProcessingNode(srcNodeId, cpuLoad);
+    // Add what was studied since the last publication to the metrics
+    void publishMetrics() {
+        metrics.add(nbConfigurationsSeen - publishedNbConfigurationsSeen, nbRepartitionsEvaluated - publishedNbRepartitionsEvaluated,
+                nbPrunedSubtrees - publishedNbPrunedSubtrees, nbNodesAtDepth, nbPrunedAtDepth);
+        publishedNbConfigurationsSeen = nbConfigurationsSeen;
+        publishedNbRepartitionsEvaluated = nbRepartitionsEvaluated;
+        publishedNbPrunedSubtrees = nbPrunedSubtrees;
+        metrics.setCursorProgress(getCursorProgress());
+    }
+
+    private void publishFinalMetrics() {
+        publishMetrics();
+        metrics.setCursorProgress(1.0);
+    }
+
+    private double getCursorProgress() { // Fraction of the enumeration tree that comes before the current (partial) repartition
+        double progress = 0, subtreeFraction = 1;
+        for (int i = 0; i < curEntityIndex; ++i) {
+            subtreeFraction /= nbCPUs;
+            int position = (grayCodeDirection == null || grayCodeDirection[i] > 0) ? cpuIndexOfEntity[i] : nbCPUs - 1 - cpuIndexOfEntity[i];
+            progress += position * subtreeFraction;
+        }
+        return progress;
+    }
+
+    private int getFirstCPUIndex() { // When resuming, the CPUs before the one of the cursor have already been studied
+        return (resumeCursor == null) ? 0 : resumeCursor[curEntityIndex];
+    }
+
+    // Write a checkpoint of the search every periodSeconds, only the sequential enumerations take checkpoints
+    public void checkpointTo(String fileName, double periodSeconds) {
+        checkpointFileName = fileName;
+        checkpointPeriodMillis = (long) (periodSeconds * 1000);
+        nextCheckpointTime = System.currentTimeMillis() + checkpointPeriodMillis;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File file = new File(checkpointFileName);
+        File tmpFile = new File(checkpointFileName + ".tmp");
+        FileOutputStream fileOutput = new FileOutputStream(tmpFile);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+        try {
+            output.writeInt(CHECKPOINT_MAGIC);
+            output.writeInt(CHECKPOINT_VERSION);
+            output.writeUTF(searchName);
+            SnapshotIO.writeInts(output, toIntArray(entitiesId));
+            SnapshotIO.writeInts(output, toIntArray(CPUsId));
+            SnapshotIO.writeInts(output, cpuIndexOfEntity);
+            output.writeDouble(nbConfigurationsSeen);
+            output.writeDouble(nbRepartitionsEvaluated);
+            output.writeDouble(nbPrunedSubtrees);
+            output.writeDouble(nbRawConfigurationsSeen);
+            output.writeDouble(maxLatency);
+            writeResult(output, minThroughputRepartition, minThroughput, nbCPUsMinThroughput, minThroughputInfo);
+            writeResult(output, maxThroughputRepartition, maxThroughput, nbCPUsMaxThroughput, maxThroughputInfo);
+            output.writeBoolean(topKRepartitions != null);
+            if (topKRepartitions != null)
+                topKRepartitions.writeTo(output);
+            output.writeBoolean(paretoFront != null);
+            if (paretoFront != null)
+                paretoFront.writeTo(output);
+            output.flush();
+            fileOutput.getFD().sync();
+        } finally {
+            output.close();
+        }
+        SnapshotIO.replaceFile(tmpFile, file);
+    }
+
+    private void writeResult(DataOutputStream output, HashMap<Integer, Integer> repartition, double throughput, int nbUsedCPUs,
+            String info) throws IOException {
+        output.writeBoolean(repartition != null);
+        if (repartition == null)
+            return;
+        output.writeDouble(throughput);
+        output.writeInt(nbUsedCPUs);
+        for (int i = 0; i < nbEntities; ++i)
+            output.writeInt(repartition.get(entitiesId[i]));
+        output.writeUTF(info);
+    }
+
+    // Restore the results and the cursor of a checkpoint, the next enumeration continues where the checkpointed one stopped
+    public void resumeFrom(String fileName) throws IOException {
+        assert(curEntityIndex == 0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        try {
+            if (input.readInt() != CHECKPOINT_MAGIC)
+                throw new IOException(fileName + " is not a checkpoint");
+            int version = input.readInt();
+            if (version != CHECKPOINT_VERSION)
+                throw new IOException(fileName + ": unsupported checkpoint version " + version + " (expected " + CHECKPOINT_VERSION + ")");
+            String checkpointSearchName = input.readUTF();
+            if (!Arrays.equals(SnapshotIO.readInts(input), toIntArray(entitiesId)) || !Arrays.equals(SnapshotIO.readInts(input), toIntArray(CPUsId)))
+                throw new IOException(fileName + ": checkpoint of another architecture or protocol");
+            int[] cursor = SnapshotIO.readInts(input);
+            nbConfigurationsSeen = input.readDouble();
+            nbRepartitionsEvaluated = input.readDouble();
+            nbPrunedSubtrees = input.readDouble();
+            nbRawConfigurationsSeen = input.readDouble();
+            publishedNbConfigurationsSeen = nbConfigurationsSeen; // The metrics only count the work of this run
+            publishedNbRepartitionsEvaluated = nbRepartitionsEvaluated;
+            publishedNbPrunedSubtrees = nbPrunedSubtrees;
+            double checkpointMaxLatency = input.readDouble();
+            if (checkpointMaxLatency != Double.MAX_VALUE)
+                setMaxLatency(checkpointMaxLatency);
+            if (input.readBoolean()) {
+                minThroughput = input.readDouble();
+                nbCPUsMinThroughput = input.readInt();
+                minThroughputRepartition = readRepartition(input);
+                minThroughputInfo = input.readUTF();
+            }
+            if (input.readBoolean()) {
+                maxThroughput = input.readDouble();
+                nbCPUsMaxThroughput = input.readInt();
+                maxThroughputRepartition = readRepartition(input);
+                maxThroughputInfo = input.readUTF();
             }
+            topKRepartitions = input.readBoolean() ? TopKRepartitions.readFrom(input, nbEntities, createCanonicalKeys()) : null;
+            paretoFront = input.readBoolean() ? ParetoFront.readFrom(input, nbEntities) : null;
+            resumeSearchName = checkpointSearchName;
+            resumeCursor = cursor;
+        } finally {
+            input.close();
         }
     }
 
-    public void resetCommunicationLoadsOnArchitecture() {
-        architecture.resetLoadsOnLinks();
+    private HashMap<Integer, Integer> readRepartition(DataInputStream input) throws IOException {
+        HashMap<Integer, Integer> repartition = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nbEntities; ++i)
+            repartition.put(entitiesId[i], input.readInt());
+        return repartition;
+    }
+
+    private void checkResumedSearch() {
+        if (resumeCursor != null && !searchName.equals(resumeSearchName))
+            throw new IllegalStateException("The checkpoint was taken by " + resumeSearchName + ", not by " + searchName);
+    }
+
+    private static int[] toIntArray(Integer[] values) {
+        int[] array = new int[values.length];
+        for (int i = 0; i < values.length; ++i)
+            array[i] = values[i];
+        return array;
+    }
+
+    // Place the entity at curEntityIndex on the given CPU, with its CPU loads and the loads of its communications with the placed entities
+    private void placeNextEntity(int cpuId) {
+        int cpuIndex = compiledArchitecture.getProcessingNodeIndex(cpuId);
+        protocol.affectEntityToProcessingNode(entitiesId[curEntityIndex], cpuId);
+        cpuIndexOfEntity[curEntityIndex] = cpuIndex;
+        ++nbNodesAtDepth[curEntityIndex];
+        if (nbEntitiesOnCPU[cpuIndex]++ == 0)
+            ++nbUsedCPUs;
+        compiledArchitecture.addLoadOnProcessingNode(cpuIndex, compiledProtocol.getCPULoad(curEntityIndex));
+        addClosedCommunicationLoadsOnArchitecture(curEntityIndex);
+        ++curEntityIndex;
+    }
+
+    private void removeLastEntity(int cpuId) {
+        --curEntityIndex;
+        removeClosedCommunicationLoadsOnArchitecture(curEntityIndex);
+        compiledArchitecture.removeLoadOnProcessingNode(cpuIndexOfEntity[curEntityIndex], compiledProtocol.getCPULoad(curEntityIndex));
+        if (--nbEntitiesOnCPU[cpuIndexOfEntity[curEntityIndex]] == 0)
+            --nbUsedCPUs;
+        protocol.removeEntityFromProcessingNode(entitiesId[curEntityIndex], cpuId);
     }
 
     public void enumerateRepartitions() {
+        if (curEntityIndex == nbEntities) { // Final configuration, whose loads are already on the architecture
+            double throughput = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+            updateResults(throughput);
+        } else {
+            for (int cpuIndex = getFirstCPUIndex(); cpuIndex < nbCPUs; ++cpuIndex) {
+                int cpuId = CPUsId[cpuIndex];
+                if (curEntityIndex == 0 || protocol.repartitionWillBeValid(entitiesId[curEntityIndex], cpuId)) {
+                    placeNextEntity(cpuId);
+                    enumerateRepartitions();
+                    removeLastEntity(cpuId);
+                }
+            }
+            if (curEntityIndex == 0)
+                publishFinalMetrics();
+        }
+    }
+
+    // Study only the repartitions whose first entities are on the given CPUs, to split a search or bound its duration
+    public void enumerateRepartitionsWithPrefix(Integer[] prefix) {
+        assert(curEntityIndex == 0 && prefix.length <= nbEntities);
+        for (Integer cpuId : prefix) {
+            if (curEntityIndex > 0 && !protocol.repartitionWillBeValid(entitiesId[curEntityIndex], cpuId)) {
+                int entityId = entitiesId[curEntityIndex];
+                removeAllEntities();
+                throw new IllegalArgumentException("Invalid placement of entity " + entityId + " on CPU " + cpuId);
+            }
+            placeNextEntity(cpuId);
+        }
+        enumerateRepartitions();
+        removeAllEntities();
+        publishFinalMetrics();
+    }
+
+    private void removeAllEntities() {
+        while (curEntityIndex > 0)
+            removeLastEntity(CPUsId[cpuIndexOfEntity[curEntityIndex - 1]]);
+    }
+
+    // Same as enumerateRepartitions, but only canonical repartitions are evaluated: among interchangeable machines, 
+    // an entity can only go to a machine already used or to the first unused one. Only the canonical repartitions are
+    // counted: how many permutations of one of them the protocol accepts depends on its anti-affinity and interchangeable
+    // entities, so the count is not the one of enumerateRepartitions.
+    public void enumerateCanonicalRepartitions() {
+        assert(curEntityIndex == 0);
+        searchName = "enumerateCanonicalRepartitions";
+        checkResumedSearch();
+        equivalence = new ProcessingNodesEquivalence(architecture, CPUsId);
+        nbUsedCPUsInClass = new int[equivalence.getNbClasses()];
+        cpuIndexInClass = new int[equivalence.getNbClasses()][];
+        for (int classId = 0; classId < equivalence.getNbClasses(); ++classId)
+            cpuIndexInClass[classId] = new int[equivalence.getClassSize(classId)];
+        for (int cpuIndex = 0; cpuIndex < nbCPUs; ++cpuIndex)
+            cpuIndexInClass[equivalence.getClassOfCPU(cpuIndex)][equivalence.getPositionInClass(cpuIndex)] = cpuIndex;
+        int nbGroups = 0;
+        for (int i = 0; i < nbEntities; ++i)
+            nbGroups = Math.max(nbGroups, protocol.getInterchangeableGroup(entitiesId[i]) + 1);
+        groupOfEntity = new int[nbEntities];
+        int[] nbEntitiesOfGroup = new int[nbGroups];
+        for (int i = 0; i < nbEntities; ++i) {
+            groupOfEntity[i] = protocol.getInterchangeableGroup(entitiesId[i]);
+            if (groupOfEntity[i] != -1)
+                ++nbEntitiesOfGroup[groupOfEntity[i]];
+        }
+        entityIndicesOfGroup = new int[nbGroups][];
+        for (int group = 0; group < nbGroups; ++group)
+            entityIndicesOfGroup[group] = new int[nbEntitiesOfGroup[group]];
+        Arrays.fill(nbEntitiesOfGroup, 0);
+        for (int i = 0; i < nbEntities; ++i)
+            if (groupOfEntity[i] != -1)
+                entityIndicesOfGroup[groupOfEntity[i]][nbEntitiesOfGroup[groupOfEntity[i]]++] = i;
+        Integer[] cpuIndices = new Integer[nbCPUs];
+        for (int cpuIndex = 0; cpuIndex < nbCPUs; ++cpuIndex)
+            cpuIndices[cpuIndex] = cpuIndex;
+        Arrays.sort(cpuIndices, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return CPUsId[a].compareTo(CPUsId[b]);
+            }
+        });
+        cpuIndicesById = toIntArray(cpuIndices);
+        nbEntitiesOfGroupOnCPU = new int[nbCPUs * nbGroups];
+        firstOtherEntityOnCPU = new int[nbCPUs];
+        usedCPUIndicesById = new int[nbCPUs];
+        nbEntitiesOfGroupAssigned = new int[nbGroups];
+        lastFirstUseInClass = new int[equivalence.getNbClasses()];
+        positionIsAssigned = new boolean[equivalence.getNbClasses()][];
+        for (int classId = 0; classId < equivalence.getNbClasses(); ++classId)
+            positionIsAssigned[classId] = new boolean[equivalence.getClassSize(classId)];
+        canonicalEnumeration();
+        publishFinalMetrics();
+    }
+
+    // Number of valid repartitions of the plain enumeration the current canonical one stands for. The k used machines
+    // of a class of n machines can be any k of them, in n!/(n-k)! ways, but once the interchangeable entities are back
+    // in the order of their group, several canonical repartitions can give the same ones: they are shared between the
+    // canonical repartitions found by exchanging the contents of the used machines of each class.
+    private double getNbRawImages() {
+        double nbImages = 1;
+        int nbUsedCPUs = 0;
+        for (int cpuIndex : cpuIndicesById) {
+            int classId = equivalence.getClassOfCPU(cpuIndex);
+            int position = equivalence.getPositionInClass(cpuIndex);
+            if (position < nbUsedCPUsInClass[classId]) {
+                nbImages *= equivalence.getClassSize(classId) - position;
+                usedCPUIndicesById[nbUsedCPUs++] = cpuIndex;
+                firstOtherEntityOnCPU[cpuIndex] = nbEntities;
+            }
+        }
+        Arrays.fill(nbEntitiesOfGroupOnCPU, 0);
+        for (int i = nbEntities - 1; i >= 0; --i) {
+            if (groupOfEntity[i] == -1)
+                firstOtherEntityOnCPU[cpuIndexOfEntity[i]] = i;
+            else
+                ++nbEntitiesOfGroupOnCPU[cpuIndexOfEntity[i] * entityIndicesOfGroup.length + groupOfEntity[i]];
+        }
+        Arrays.fill(lastFirstUseInClass, -1);
+        return nbImages / countCanonicalAssignments(0, nbUsedCPUs);
+    }
+
+    // Ways to give the contents of the used machines to the used machines from this one on, in increasing order of
+    // their ids, such that the repartition stays canonical once the interchangeable entities are back in the order of
+    // their group: the machines of a class must be first used in the order of their ids. The entity that first uses a
+    // machine is known as soon as its content is, since the machines of lower ids already took the first entities of
+    // each group.
+    private int countCanonicalAssignments(int usedCPU, int nbUsedCPUs) {
+        if (usedCPU == nbUsedCPUs)
+            return 1;
+        int classId = equivalence.getClassOfCPU(usedCPUIndicesById[usedCPU]);
+        int nbGroups = entityIndicesOfGroup.length;
+        int count = 0;
+        for (int position = 0; position < nbUsedCPUsInClass[classId]; ++position) {
+            if (positionIsAssigned[classId][position])
+                continue;
+            int content = cpuIndexInClass[classId][position]; // The machine whose entities are given
+            int firstUse = firstOtherEntityOnCPU[content];
+            for (int group = 0; group < nbGroups; ++group)
+                if (nbEntitiesOfGroupOnCPU[content * nbGroups + group] > 0)
+                    firstUse = Math.min(firstUse, entityIndicesOfGroup[group][nbEntitiesOfGroupAssigned[group]]);
+            if (firstUse < lastFirstUseInClass[classId])
+                continue;
+
+            int lastFirstUse = lastFirstUseInClass[classId];
+            positionIsAssigned[classId][position] = true;
+            lastFirstUseInClass[classId] = firstUse;
+            for (int group = 0; group < nbGroups; ++group)
+                nbEntitiesOfGroupAssigned[group] += nbEntitiesOfGroupOnCPU[content * nbGroups + group];
+            count += countCanonicalAssignments(usedCPU + 1, nbUsedCPUs);
+            for (int group = 0; group < nbGroups; ++group)
+                nbEntitiesOfGroupAssigned[group] -= nbEntitiesOfGroupOnCPU[content * nbGroups + group];
+            lastFirstUseInClass[classId] = lastFirstUse;
+            positionIsAssigned[classId][position] = false;
+        }
+        return count;
+    }
+
+    private void canonicalEnumeration() {
         if (curEntityIndex == nbEntities) { // Final configuration
+            double throughput = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+            updateResults(throughput);
+        } else {
+            for (int cpuIndex = getFirstCPUIndex(); cpuIndex < nbCPUs; ++cpuIndex) {
+                int classId = equivalence.getClassOfCPU(cpuIndex);
+                int nbUsedCPUs = nbUsedCPUsInClass[classId];
+                if (equivalence.getPositionInClass(cpuIndex) > nbUsedCPUs) // A previous machine of the class is still unused
+                    continue;
+
+                int cpuId = CPUsId[cpuIndex];
+                if (curEntityIndex == 0 || protocol.repartitionWillBeValid(entitiesId[curEntityIndex], cpuId)) {
+                    boolean isNewCPU = equivalence.getPositionInClass(cpuIndex) == nbUsedCPUs;
 
-            if (nbConfigurationsSeen % 100000 == 0) {
-                printMinMaxRepartitions();
+                    placeNextEntity(cpuId);
+                    if (isNewCPU)
+                        ++nbUsedCPUsInClass[classId];
+
+                    canonicalEnumeration();
+
+                    removeLastEntity(cpuId);
+                    if (isNewCPU)
+                        --nbUsedCPUsInClass[classId];
+                }
             }
+        }
+    }
 
-            addCommunicationLoadsOnArchitecture();
+    // Add the loads of the communications between the entity at this index and the entities placed before it
+    private void addClosedCommunicationLoadsOnArchitecture(int entityIndex) {
+        int end = compiledProtocol.getClosedPairsEnd(entityIndex);
+        for (int position = compiledProtocol.getClosedPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getClosedPair(position);
+            compiledArchitecture.addLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)], cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], 
+                    compiledProtocol.getPairBytes(pair), compiledProtocol.getPairMessages(pair));
+        }
+    }
 
-            double throughput = architecture.getThroughput() * protocol.getNbClients();
-            updateMinMaxRepartitions(throughput);
+    private void removeClosedCommunicationLoadsOnArchitecture(int entityIndex) {
+        int end = compiledProtocol.getClosedPairsEnd(entityIndex);
+        for (int position = compiledProtocol.getClosedPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getClosedPair(position);
+            compiledArchitecture.removeLoadOnLink(cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)], cpuIndexOfEntity[compiledProtocol.getPairDst(pair)], 
+                    compiledProtocol.getPairBytes(pair), compiledProtocol.getPairMessages(pair));
+        }
+    }
+
+    // Search for the max throughput repartition only. Loads only grow as entities are placed, so the throughput of a
+    // partial repartition (CPU loads, and link loads of the communications whose both ends are placed) is an upper 
+    // bound of the throughput of all its completions: subtrees whose bound is below the best throughput (the K-th best
+    // one when the top K repartitions are kept) are pruned. When the Pareto front is kept, the number of machines used
+    // can only grow as well, so subtrees whose bound is dominated by the front are pruned. The min throughput 
+    // repartition is only searched among the evaluated repartitions.
+    public void enumerateRepartitionsWithBranchAndBound() {
+        assert(curEntityIndex == 0);
+        searchName = "enumerateRepartitionsWithBranchAndBound";
+        checkResumedSearch();
+        branchAndBound();
+        publishFinalMetrics();
+    }
+
+    private void branchAndBound() {
+        if (curEntityIndex == nbEntities) { // Final configuration, whose communication loads are already on the architecture
+            double throughput = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+            updateResults(throughput);
+        } else {
+            for (int cpuIndex = getFirstCPUIndex(); cpuIndex < nbCPUs; ++cpuIndex) {
+                int cpuId = CPUsId[cpuIndex];
+                if (curEntityIndex == 0 || protocol.repartitionWillBeValid(entitiesId[curEntityIndex], cpuId)) {
+                    placeNextEntity(cpuId);
+
+                    double upperBound = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+                    if (canBePruned(upperBound)) {
+                        ++nbPrunedSubtrees;
+                        ++nbPrunedAtDepth[curEntityIndex - 1];
+                        resumeCursor = null; // With the results of the checkpoint, the rest of the subtree of the cursor is pruned too
+                    } else {
+                        branchAndBound();
+                    }
+
+                    removeLastEntity(cpuId);
+                }
+            }
+        }
+    }
+
+    private boolean canBePruned(double upperBound) { // Can the subtree of the current partial repartition be pruned
+        if (paretoFront != null && !paretoFront.isDominated(upperBound, nbUsedCPUs))
+            return false;
+        if (topKRepartitions != null)
+            return upperBound < topKRepartitions.getThreshold();
+        return paretoFront != null || upperBound < maxThroughput;
+    }
+
+    public void enumerateRepartitionsInParallel(int nbThreads) {
+        // Place enough entities in the prefixes so that each thread gets several tasks to balance the load
+        int prefixLength = 0;
+        double nbPrefixes = 1;
+        while (prefixLength < nbEntities - 1 && nbPrefixes < 16 * nbThreads) {
+            nbPrefixes *= nbCPUs;
+            ++prefixLength;
+        }
+        enumerateRepartitionsInParallel(nbThreads, prefixLength);
+    }
 
-            //            removeCommunicationLoadsOnArchitecture(); // TODO: it is enough to set the load on each link to 0
-            resetCommunicationLoadsOnArchitecture();
+    public void enumerateRepartitionsInParallel(int nbThreads, int prefixLength) {
+        assert(curEntityIndex == 0 && 0 <= prefixLength && prefixLength <= nbEntities);
 
-            ++nbConfigurationsSeen;
+        // Each valid placement of the first prefixLength entities is the root of an independent subtree
+        ArrayList<Integer[]> prefixes = new ArrayList<Integer[]>();
+        enumeratePrefixes(prefixLength, new Integer[prefixLength], prefixes);
+        if (prefixes.isEmpty())
+            return;
+
+        metrics.startSubtrees(prefixes.size());
+        ForkJoinPool pool = new ForkJoinPool(nbThreads);
+        try {
+            PerfModelling result = pool.invoke(new RepartitionsTask(this, prefixes, 0, prefixes.size()));
+            mergeMinMaxRepartitions(result);
+        } finally {
+            pool.shutdown();
+        }
+        publishMetrics();
+    }
+
+    private void enumeratePrefixes(int prefixLength, Integer[] prefix, ArrayList<Integer[]> prefixes) {
+        if (curEntityIndex == prefixLength) {
+            prefixes.add(prefix.clone());
         } else {
             for (Integer cpuId : CPUsId) {
                 if (curEntityIndex == 0 || protocol.repartitionWillBeValid(entitiesId[curEntityIndex], cpuId)) {
                     int entityId = entitiesId[curEntityIndex];
 
                     protocol.affectEntityToProcessingNode(entityId, cpuId);
-                    addCPULoadsOnArchitecture(entityId);
+                    prefix[curEntityIndex] = cpuId;
+                    ++nbNodesAtDepth[curEntityIndex];
                     ++curEntityIndex;
 
-                    enumerateRepartitions();
+                    enumeratePrefixes(prefixLength, prefix, prefixes);
 
-                    removeCPULoadsOnArchitecture(entityId);
                     protocol.removeEntityFromProcessingNode(entityId, cpuId);
                     --curEntityIndex;
                 }
@@ -198,80 +885,295 @@ public class PerfModelling {
         }
     }
 
-    //    public void enumerateWithoutRecursivity() {
-    //
-    //        int nbAddedEntities;
-    //        int[] entityToCPUIndex = new int[nbEntities];
-    //        nbConfigurationsSeen = 0;
-    //        
-    //        nbAddedEntities = 0;
-    //        while (true) {
-    //            
-    //            // if array is filled, find the next configuration
-    //            if (nbAddedEntities == nbEntities) {
-    //                
-    //                // Remove the values that cannot be incremented
-    //                while (nbAddedEntities > 0 && entityToCPUIndex[nbAddedEntities - 1] == nbCPUs - 1) {
-    //                    int entityId = entitiesId[nbAddedEntities-1];
-    //                    int cpuIndex = entityToCPUIndex[nbAddedEntities-1];
-    //                    removeCPULoadsOnArchitecture(entityId);
-    //                    protocol.removeEntityFromProcessingNode(entityId, CPUsId[cpuIndex]);
-    //                    --nbAddedEntities;
-    //                }
-    //                
-    //                // If all have been removed, all configurations have been studied
-    //                if (nbAddedEntities == 0)
-    //                    return;
-    //                
-    //                // Else, increment the cpu on which the last remaining entity is on
-    //                entityToCPUIndex[nbAddedEntities-1]++;
-    //                
-    //                int entityId = entitiesId[nbAddedEntities-1];
-    //                protocol.affectEntityToProcessingNode(entityId, CPUsId[entityToCPUIndex[nbAddedEntities-1]]);
-    //                addCPULoadsOnArchitecture(entityId);
-    //            }
-    //            
-    //             // Insert zeros to fill the array
-    //            while (nbAddedEntities != nbEntities) { 
-    //                entityToCPUIndex[nbAddedEntities++] = 0;
-    //                int entityId = entitiesId[nbAddedEntities-1];
-    //                protocol.affectEntityToProcessingNode(entityId, CPUsId[entityToCPUIndex[nbAddedEntities-1]]);
-    //                addCPULoadsOnArchitecture(entityId);
-    //            }
-    //            
-    //            
-    //            if (nbConfigurationsSeen % 100000 == 0) {
-    //                printMinMaxRepartitions();
-    //            }
-    //
-    //            addCommunicationLoadsOnArchitecture();
-    //            double throughput = architecture.getThroughput(false);
-    //            updateMinMaxRepartitions(throughput);
-    //            resetCommunicationLoadsOnArchitecture();
-    //            
-    //            ++nbConfigurationsSeen;
-    //            
-    ////            for (int i = 0; i < nbEntities; ++i) {
-    ////                int entityId = entitiesId[i];
-    ////                int cpuId = CPUsId[entityToCPUIndex[i]];
-    ////                System.out.printf(" (%d, %d) ", entityId, cpuId);
-    ////            }
-    ////            System.out.printf("\n");
-    //        }
-    //    }
+    // Create an independent search, with its own loads and copy of the protocol, whose first entities are already placed
+    PerfModelling createSubSearch(Integer[] prefix) {
+        PerfModelling subSearch = new PerfModelling(architecture, protocol.copy(), compiledArchitecture.copy(), compiledProtocol);
+        subSearch.printProgress = false;
+        subSearch.metrics = metrics;
+        if (topKRepartitions != null)
+            subSearch.topKRepartitions = topKRepartitions.createEmpty();
+        if (paretoFront != null)
+            subSearch.keepParetoFront();
+        if (latencyEvaluator != null)
+            subSearch.setMaxLatency(maxLatency);
+        for (Integer cpuId : prefix)
+            subSearch.placeNextEntity(cpuId);
+        Arrays.fill(subSearch.nbNodesAtDepth, 0); // The prefixes are counted by this search
+        return subSearch;
+    }
+
+    // Same repartitions as enumerateRepartitions, without recursion: the subtree of an entity is studied alternately
+    // in increasing and decreasing CPU order (reflected mixed-radix Gray code), so each entity starts a subtree on the
+    // CPU it ended the previous one on. Entities are moved instead of being removed and placed again, and keep their
+    // CPU until the enumeration gets back to them: when no placement is invalid, two consecutive repartitions differ
+    // by the CPU of one entity, and only its CPU load and the loads of its communications are updated.
+    public void enumerateRepartitionsInGrayCodeOrder() {
+        assert(curEntityIndex == 0 && nbEntities > 0);
+        if (checkpointFileName != null || resumeCursor != null)
+            throw new IllegalStateException("Checkpoints are only taken by the depth-first enumerations");
+        searchName = "enumerateRepartitionsInGrayCodeOrder";
+        grayCodeDirection = new int[nbEntities];
+        Arrays.fill(grayCodeDirection, 1);
+        int[] lastCPUIndexTried = new int[nbEntities];
+        int nbPlacedEntities = 0; // Entities whose loads are on the architecture, all of them once the first repartition is reached
+        int depth = 0;
+        lastCPUIndexTried[0] = -1;
+        while (depth >= 0) {
+            int direction = grayCodeDirection[depth];
+            int cpuIndex = lastCPUIndexTried[depth] + direction;
+            while (depth > 0 && 0 <= cpuIndex && cpuIndex < nbCPUs && !protocol.repartitionWillBeValid(entitiesId[depth], CPUsId[cpuIndex]))
+                cpuIndex += direction;
+            if (cpuIndex < 0 || cpuIndex >= nbCPUs) { // Subtree studied, the next one of this entity is studied the other way
+                grayCodeDirection[depth] = -direction;
+                if (--depth >= 0)
+                    protocol.removeEntityFromProcessingNode(entitiesId[depth], CPUsId[lastCPUIndexTried[depth]]);
+                continue;
+            }
+            lastCPUIndexTried[depth] = cpuIndex;
+
+            curEntityIndex = depth;
+            if (depth == nbPlacedEntities) {
+                placeNextEntity(CPUsId[cpuIndex]);
+                ++nbPlacedEntities;
+            } else {
+                if (cpuIndexOfEntity[depth] != cpuIndex)
+                    moveEntity(depth, cpuIndex, nbPlacedEntities);
+                protocol.affectEntityToProcessingNode(entitiesId[depth], CPUsId[cpuIndex]);
+                ++nbNodesAtDepth[depth];
+                ++curEntityIndex;
+            }
+
+            if (depth == nbEntities - 1) { // Final configuration
+                double throughput = compiledArchitecture.getThroughput() * compiledProtocol.getNbClients();
+                updateResults(throughput);
+                protocol.removeEntityFromProcessingNode(entitiesId[depth], CPUsId[cpuIndex]);
+            } else {
+                ++depth;
+                lastCPUIndexTried[depth] = (grayCodeDirection[depth] > 0) ? -1 : nbCPUs;
+            }
+        }
+
+        curEntityIndex = nbPlacedEntities;
+        removeAllEntities();
+        grayCodeDirection = null;
+        publishFinalMetrics();
+    }
+
+    // Move a placed entity to another CPU, the communications with the entities not placed yet have no load
+    private void moveEntity(int entityIndex, int cpuIndex, int nbPlacedEntities) {
+        int oldCPUIndex = cpuIndexOfEntity[entityIndex];
+        double cpuLoad = compiledProtocol.getCPULoad(entityIndex);
+        compiledArchitecture.removeLoadOnProcessingNode(oldCPUIndex, cpuLoad);
+        compiledArchitecture.addLoadOnProcessingNode(cpuIndex, cpuLoad);
+        if (--nbEntitiesOnCPU[oldCPUIndex] == 0)
+            --nbUsedCPUs;
+        if (nbEntitiesOnCPU[cpuIndex]++ == 0)
+            ++nbUsedCPUs;
+
+        int end = compiledProtocol.getEntityPairsEnd(entityIndex);
+        for (int position = compiledProtocol.getEntityPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getEntityPair(position);
+            int src = compiledProtocol.getPairSrc(pair), dst = compiledProtocol.getPairDst(pair);
+            if (src < nbPlacedEntities && dst < nbPlacedEntities)
+                compiledArchitecture.removeLoadOnLink(cpuIndexOfEntity[src], cpuIndexOfEntity[dst], compiledProtocol.getPairBytes(pair),
+                        compiledProtocol.getPairMessages(pair));
+        }
+        cpuIndexOfEntity[entityIndex] = cpuIndex;
+        for (int position = compiledProtocol.getEntityPairsStart(entityIndex); position < end; ++position) {
+            int pair = compiledProtocol.getEntityPair(position);
+            int src = compiledProtocol.getPairSrc(pair), dst = compiledProtocol.getPairDst(pair);
+            if (src < nbPlacedEntities && dst < nbPlacedEntities)
+                compiledArchitecture.addLoadOnLink(cpuIndexOfEntity[src], cpuIndexOfEntity[dst], compiledProtocol.getPairBytes(pair),
+                        compiledProtocol.getPairMessages(pair));
+        }
+        ++nbEntityMoves;
+    }
+
+    public double getNbEntityMovesPerRepartition() { // By the Gray code enumeration, besides the first placement of each entity
+        return nbEntityMoves / nbRepartitionsEvaluated;
+    }
 
     public static void main(String[] args) {
 
         double startTime = (double) System.currentTimeMillis();
 
-        Architecture architecture = Architecture.sci();
-        Protocol protocol = new UpRight(1, 1, 1);
+        int nbThreads = 1;
+        boolean useSymmetries = false;
+        boolean checkSymmetries = false;
+        boolean useBranchAndBound = false;
+        boolean useGrayCode = false;
+        double annealingSeconds = 0, tabuSeconds = 0;
+        int cacheCapacity = 0;
+        int topK = 0;
+        boolean keepParetoFront = false;
+        double maxLatencyMillis = 0;
+        double simulationSeconds = 0;
+        String architectureFileName = null, protocolFileName = null, protocolSpecFileName = null, snapshotFileName = null;
+        HashMap<String, Double> protocolParameters = new HashMap<String, Double>();
+        String checkpointFileName = null;
+        double checkpointSeconds = 60;
+        boolean resume = false;
+        boolean exposeMetrics = false;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-threads"))
+                nbThreads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-symmetries"))
+                useSymmetries = true;
+            else if (args[i].equals("-checkSymmetries")) // Compare the canonical enumeration with the plain one
+                checkSymmetries = true;
+            else if (args[i].equals("-branchAndBound"))
+                useBranchAndBound = true;
+            else if (args[i].equals("-grayCode"))
+                useGrayCode = true;
+            else if (args[i].equals("-top"))
+                topK = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-pareto"))
+                keepParetoFront = true;
+            else if (args[i].equals("-maxLatency"))
+                maxLatencyMillis = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-architecture"))
+                architectureFileName = args[++i];
+            else if (args[i].equals("-protocol"))
+                protocolFileName = args[++i];
+            else if (args[i].equals("-protocolSpec"))
+                protocolSpecFileName = args[++i];
+            else if (args[i].equals("-param")) { // name=value, a parameter of the protocol spec
+                String[] parameter = args[++i].split("=", 2);
+                protocolParameters.put(parameter[0], Double.parseDouble(parameter[1]));
+            }
+            else if (args[i].equals("-simulate"))
+                simulationSeconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-annealing"))
+                annealingSeconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-tabu"))
+                tabuSeconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-cache")) // Number of repartitions whose throughput the local search remembers
+                cacheCapacity = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-writeSnapshot"))
+                snapshotFileName = args[++i];
+            else if (args[i].equals("-checkpoint"))
+                checkpointFileName = args[++i];
+            else if (args[i].equals("-checkpointPeriod"))
+                checkpointSeconds = Double.parseDouble(args[++i]);
+            else if (args[i].equals("-resume"))
+                resume = true;
+            else if (args[i].equals("-metrics"))
+                exposeMetrics = true;
+        }
+
+        Architecture architecture = (architectureFileName != null) ? Architecture.readArchitecture(architectureFileName) : Architecture.sci();
+        Protocol protocol;
+        if (protocolSpecFileName != null) {
+            try {
+                protocol = ProtocolSpec.read(protocolSpecFileName).instantiate(protocolParameters);
+            } catch (IOException e) {
+                System.err.println("Cannot read the protocol spec: " + e.getMessage());
+                return;
+            }
+        } else {
+            protocol = (protocolFileName != null) ? Protocol.readProtocol(protocolFileName) : new UpRight(1, 1, 1);
+        }
+
+        if (snapshotFileName != null) { // Prepare the model once for later queries, see ModelSnapshot
+            try {
+                new ModelSnapshot(architecture, protocol).write(snapshotFileName);
+            } catch (IOException e) {
+                System.err.println("Cannot write the snapshot: " + e.getMessage());
+            }
+            return;
+        }
+
+        if (checkSymmetries) {
+            if (!canonicalEnumerationIsConsistent(architecture, protocol)) {
+                System.err.println("The canonical enumeration misses the max throughput repartition");
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (annealingSeconds > 0 || tabuSeconds > 0) { // Search space too large to be enumerated
+            LocalSearch localSearch = new LocalSearch(architecture, protocol, 0);
+            if (cacheCapacity > 0)
+                localSearch.useEvaluationCache(cacheCapacity);
+            if (annealingSeconds > 0)
+                localSearch.simulatedAnnealing(Long.MAX_VALUE, (long) (annealingSeconds * 1000));
+            else
+                localSearch.tabuSearch(Long.MAX_VALUE, (long) (tabuSeconds * 1000));
+            System.out.printf("\nFinal results :");
+            localSearch.printBestRepartition();
+            EvaluationCache evaluationCache = localSearch.getEvaluationCache();
+            if (evaluationCache != null) {
+                System.out.printf("Evaluation cache: %d hits, %d misses (%.1f%% hits), %d/%d repartitions\n", evaluationCache.getNbHits(),
+                        evaluationCache.getNbMisses(), 100 * evaluationCache.getHitRate(), evaluationCache.getSize(), evaluationCache.getCapacity());
+            }
+            return;
+        }
+
         PerfModelling perfModelling = new PerfModelling(architecture, protocol);
+        if (topK > 0)
+            perfModelling.keepTopKRepartitions(topK);
+        if (keepParetoFront)
+            perfModelling.keepParetoFront();
+        if (maxLatencyMillis > 0)
+            perfModelling.setMaxLatency(maxLatencyMillis / 1000);
+        if (exposeMetrics) {
+            try {
+                perfModelling.getMetrics().register();
+            } catch (JMException e) {
+                System.err.println("Cannot register the metrics MBean: " + e.getMessage());
+            }
+        }
+        if (checkpointFileName != null && ((nbThreads > 1 && !useSymmetries && !useBranchAndBound) || useGrayCode)) {
+            System.out.println("Checkpoints are only taken by the sequential depth-first enumerations");
+            checkpointFileName = null;
+        }
+        if (checkpointFileName != null) {
+            if (resume && new File(checkpointFileName).exists()) {
+                try {
+                    perfModelling.resumeFrom(checkpointFileName);
+                } catch (IOException e) {
+                    System.err.println("Cannot resume: " + e.getMessage());
+                    return;
+                }
+            }
+            perfModelling.checkpointTo(checkpointFileName, checkpointSeconds);
+        }
 
-        perfModelling.enumerateRepartitions();
+        if (useSymmetries)
+            perfModelling.enumerateCanonicalRepartitions();
+        else if (useBranchAndBound)
+            perfModelling.enumerateRepartitionsWithBranchAndBound();
+        else if (useGrayCode)
+            perfModelling.enumerateRepartitionsInGrayCodeOrder();
+        else if (nbThreads > 1)
+            perfModelling.enumerateRepartitionsInParallel(nbThreads);
+        else
+            perfModelling.enumerateRepartitions();
 
         System.out.printf("\nFinal results :");
         perfModelling.printMinMaxRepartitions();
+        if (useGrayCode)
+            System.out.printf("%.2f entity moves per repartition\n", perfModelling.getNbEntityMovesPerRepartition());
+        if (checkpointFileName != null) // The search is complete
+            new File(checkpointFileName).delete();
+        if (exposeMetrics) {
+            SearchMetrics metrics = perfModelling.getMetrics();
+            System.out.printf("%.0f repartitions/s on average\n", metrics.getAverageConfigurationsPerSecond());
+            for (String improvement : metrics.getBestThroughputHistory())
+                System.out.println("Best throughput at " + improvement);
+            System.out.print(metrics.getDepthHistogram());
+            try {
+                metrics.unregister();
+            } catch (JMException e) {
+                System.err.println("Cannot unregister the metrics MBean: " + e.getMessage());
+            }
+        }
+
+        if (simulationSeconds > 0 && perfModelling.getMaxThroughputRepartition() != null) { // Cross-check the best repartition
+            Simulation simulation = new Simulation(architecture, protocol, perfModelling.getMaxThroughputRepartition());
+            simulation.run(64, simulationSeconds / 10, simulationSeconds);
+            simulation.printResults();
+        }
 
         double endTime = (double) System.currentTimeMillis();
         System.out.printf("\nElapsed time : %.2fs\n", (endTime - startTime) / 1000.0);
@@ -0,0 +1,46 @@
+package perfModelling;
+
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Studies the subtrees of the repartitions rooted at prefixes[from..to[ and returns their merged results.
+ * Results are always merged from the first prefix to the last one, so the outcome does not depend on the scheduling.
+ */
+class RepartitionsTask extends RecursiveTask<PerfModelling> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final PerfModelling search;
+    private final ArrayList<Integer[]> prefixes;
+    private final int from, to;
+
+    RepartitionsTask(PerfModelling search, ArrayList<Integer[]> prefixes, int from, int to) {
+        assert(from < to);
+        this.search = search;
+        this.prefixes = prefixes;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected PerfModelling compute() {
+        if (to - from == 1) {
+            PerfModelling subSearch = search.createSubSearch(prefixes.get(from));
+            subSearch.enumerateRepartitions();
+            subSearch.publishMetrics();
+            subSearch.getMetrics().subtreeCompleted();
+            return subSearch;
+        }
+
+        int middle = (from + to) / 2;
+        RepartitionsTask left = new RepartitionsTask(search, prefixes, from, middle);
+        RepartitionsTask right = new RepartitionsTask(search, prefixes, middle, to);
+        left.fork();
+        PerfModelling rightResult = right.compute();
+        PerfModelling leftResult = left.join();
+        leftResult.mergeMinMaxRepartitions(rightResult);
+        return leftResult;
+    }
+
+}
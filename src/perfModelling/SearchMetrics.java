@@ -0,0 +1,201 @@
+package perfModelling;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Metrics of a search, shared by the sub-searches of a parallel search. The searches count on their own and add
+ * what they studied here every few thousand repartitions, so the leaf path only pays its usual counters. The
+ * metrics can be read through a JMX MBean and are recorded by JFR as perfModelling.SearchProgress events every
+ * second and perfModelling.BestThroughput events at each improvement of the best throughput.
+ */
+public class SearchMetrics implements SearchMetricsMBean {
+
+    private static final long RATE_WINDOW_NANOS = 1000000000L;
+
+    private final long startTime; // System.nanoTime()
+    private final double nbConfigurationsToSee;
+
+    // Totals, as published by the searches
+    private double nbConfigurationsSeen, nbRepartitionsEvaluated, nbPrunedSubtrees;
+    private final long[] nbNodesAtDepth; // Nb of partial repartitions placing depth + 1 entities
+    private final long[] nbPrunedAtDepth;
+
+    private double cursorProgress; // Position of a sequential search in the enumeration order
+    private int nbSubtrees, nbCompletedSubtrees; // For a parallel search
+
+    private double rate;
+    private long rateWindowStart;
+    private double rateWindowStartNbConfigurations;
+
+    private double bestThroughput;
+    private final ArrayList<String> bestThroughputHistory;
+
+    private ObjectName objectName; // null if not registered
+    private Runnable jfrHook;
+
+    public SearchMetrics(double nbConfigurationsToSee, int nbEntities) {
+        startTime = System.nanoTime();
+        this.nbConfigurationsToSee = nbConfigurationsToSee;
+        nbNodesAtDepth = new long[nbEntities];
+        nbPrunedAtDepth = new long[nbEntities];
+        rateWindowStart = startTime;
+        bestThroughput = -1;
+        bestThroughputHistory = new ArrayList<String>();
+    }
+
+    // Called by a search with what it studied since its previous call, the arrays are added then cleared
+    synchronized void add(double nbNewConfigurationsSeen, double nbNewRepartitionsEvaluated, double nbNewPrunedSubtrees,
+            long[] nbNewNodesAtDepth, long[] nbNewPrunedAtDepth) {
+        nbConfigurationsSeen += nbNewConfigurationsSeen;
+        nbRepartitionsEvaluated += nbNewRepartitionsEvaluated;
+        nbPrunedSubtrees += nbNewPrunedSubtrees;
+        for (int depth = 0; depth < nbNodesAtDepth.length; ++depth) {
+            nbNodesAtDepth[depth] += nbNewNodesAtDepth[depth];
+            nbPrunedAtDepth[depth] += nbNewPrunedAtDepth[depth];
+            nbNewNodesAtDepth[depth] = 0;
+            nbNewPrunedAtDepth[depth] = 0;
+        }
+
+        long time = System.nanoTime();
+        if (time - rateWindowStart >= RATE_WINDOW_NANOS) {
+            rate = (nbConfigurationsSeen - rateWindowStartNbConfigurations) * 1e9 / (time - rateWindowStart);
+            rateWindowStart = time;
+            rateWindowStartNbConfigurations = nbConfigurationsSeen;
+        }
+    }
+
+    synchronized void setCursorProgress(double progress) {
+        cursorProgress = progress;
+    }
+
+    synchronized void startSubtrees(int nbSubtrees) {
+        this.nbSubtrees = nbSubtrees;
+        nbCompletedSubtrees = 0;
+    }
+
+    synchronized void subtreeCompleted() {
+        ++nbCompletedSubtrees;
+    }
+
+    synchronized void offerBestThroughput(double throughput, int nbMachines) {
+        if (throughput <= bestThroughput)
+            return;
+        bestThroughput = throughput;
+        bestThroughputHistory.add(String.format("%.3f s: %.1f req/s using %d machines", getElapsedSeconds(), throughput, nbMachines));
+        BestThroughputEvent event = new BestThroughputEvent();
+        if (event.isEnabled()) {
+            event.throughput = throughput;
+            event.nbMachines = nbMachines;
+            event.configurationsSeen = nbConfigurationsSeen;
+            event.commit();
+        }
+    }
+
+    public synchronized double getConfigurationsToSee() {
+        return nbConfigurationsToSee;
+    }
+
+    public synchronized double getConfigurationsSeen() {
+        return nbConfigurationsSeen;
+    }
+
+    public synchronized double getRepartitionsEvaluated() {
+        return nbRepartitionsEvaluated;
+    }
+
+    public synchronized double getPrunedSubtrees() {
+        return nbPrunedSubtrees;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    public synchronized double getConfigurationsPerSecond() {
+        return (rate > 0) ? rate : getAverageConfigurationsPerSecond();
+    }
+
+    public synchronized double getAverageConfigurationsPerSecond() {
+        double elapsedSeconds = getElapsedSeconds();
+        return (elapsedSeconds > 0) ? nbConfigurationsSeen / elapsedSeconds : 0;
+    }
+
+    public synchronized double getProgress() {
+        if (nbSubtrees > 0)
+            return (double) nbCompletedSubtrees / nbSubtrees;
+        return cursorProgress;
+    }
+
+    public synchronized double getEtaSeconds() { // Assumes the rest of the search space goes as fast as the studied part
+        double progress = getProgress();
+        if (progress <= 0)
+            return -1;
+        return getElapsedSeconds() * (1 - progress) / progress;
+    }
+
+    public synchronized double getBestThroughput() {
+        return bestThroughput;
+    }
+
+    public synchronized String[] getBestThroughputHistory() {
+        return bestThroughputHistory.toArray(new String[bestThroughputHistory.size()]);
+    }
+
+    public synchronized long[] getNodesAtDepth() {
+        return nbNodesAtDepth.clone();
+    }
+
+    public synchronized long[] getPrunedSubtreesAtDepth() {
+        return nbPrunedAtDepth.clone();
+    }
+
+    public synchronized String getProgressInfo() {
+        double eta = getEtaSeconds();
+        return String.format("Studied %.0f out of %.0f repartitions (%.2f%%), %.0f repartitions/s, %.0f pruned subtrees, "
+                + "best %.1f req/s, ETA %s", nbConfigurationsSeen, nbConfigurationsToSee, 100 * getProgress(),
+                getConfigurationsPerSecond(), nbPrunedSubtrees, bestThroughput, (eta < 0) ? "unknown" : String.format("%.0fs", eta));
+    }
+
+    public synchronized String getDepthHistogram() {
+        StringBuilder s = new StringBuilder("Depth\tNodes\tPruned\n");
+        for (int depth = 0; depth < nbNodesAtDepth.length; ++depth)
+            s.append(String.format("%d\t%d\t%d\n", depth + 1, nbNodesAtDepth[depth], nbPrunedAtDepth[depth]));
+        return s.toString();
+    }
+
+    // Expose the metrics as the MBean perfModelling:type=SearchMetrics, and record them in JFR
+    public void register() throws JMException {
+        objectName = new ObjectName("perfModelling:type=SearchMetrics");
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        jfrHook = new Runnable() {
+            public void run() {
+                SearchProgressEvent event = new SearchProgressEvent();
+                synchronized (SearchMetrics.this) {
+                    event.configurationsSeen = nbConfigurationsSeen;
+                    event.configurationsPerSecond = getConfigurationsPerSecond();
+                    event.prunedSubtrees = nbPrunedSubtrees;
+                    event.progress = getProgress();
+                    event.etaSeconds = getEtaSeconds();
+                    event.bestThroughput = bestThroughput;
+                }
+                event.commit();
+            }
+        };
+        FlightRecorder.addPeriodicEvent(SearchProgressEvent.class, jfrHook);
+    }
+
+    public void unregister() throws JMException {
+        if (objectName == null)
+            return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        FlightRecorder.removePeriodicEvent(jfrHook);
+        objectName = null;
+    }
+
+}
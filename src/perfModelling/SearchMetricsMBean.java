@@ -0,0 +1,34 @@
+package perfModelling;
+
+/**
+ * Management interface of the metrics of a search, see SearchMetrics.
+ */
+public interface SearchMetricsMBean {
+
+    public double getConfigurationsToSee();
+
+    public double getConfigurationsSeen();
+
+    public double getRepartitionsEvaluated();
+
+    public double getPrunedSubtrees();
+
+    public double getElapsedSeconds();
+
+    public double getConfigurationsPerSecond(); // Over the last second or so
+
+    public double getAverageConfigurationsPerSecond();
+
+    public double getProgress(); // Fraction of the search space already studied
+
+    public double getEtaSeconds(); // -1 while unknown
+
+    public double getBestThroughput();
+
+    public String[] getBestThroughputHistory();
+
+    public long[] getNodesAtDepth();
+
+    public long[] getPrunedSubtreesAtDepth();
+
+}
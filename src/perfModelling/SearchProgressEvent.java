@@ -0,0 +1,34 @@
+package perfModelling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+@Name("perfModelling.SearchProgress")
+@Label("Search Progress")
+@Category("Performance Modelling")
+@Description("Periodic snapshot of the metrics of the running repartitions search")
+@Period("1 s")
+class SearchProgressEvent extends jdk.jfr.Event {
+
+    @Label("Configurations Seen")
+    double configurationsSeen;
+
+    @Label("Configurations per Second")
+    double configurationsPerSecond;
+
+    @Label("Pruned Subtrees")
+    double prunedSubtrees;
+
+    @Label("Progress")
+    double progress;
+
+    @Label("ETA (s)")
+    double etaSeconds;
+
+    @Label("Best Throughput (req/s)")
+    double bestThroughput;
+
+}
@@ -0,0 +1,217 @@
+package perfModelling;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The K best repartitions seen, in a bounded min-heap whose root is the worst of them. A repartition is better than
+ * another if it has a higher throughput, then if it uses less machines, then if it comes first in the enumeration
+ * order, so that the kept repartitions do not depend on the order in which they are offered. Repartitions are
+ * stored as arrays of CPU indices: an array is only allocated when the heap is not full yet, afterwards the array
+ * of the evicted repartition is reused. Given the keys of an EvaluationCache, only the best of the repartitions that
+ * share a key is kept, so that the K repartitions are not permutations of interchangeable entities or machines.
+ */
+public class TopKRepartitions {
+
+    private final int k;
+    private int size;
+    private final double[] throughputs;
+    private final int[] nbUsedCPUs;
+    private final int[][] repartitions; // CPU index of each entity index
+
+    private final EvaluationCache canonicalKeys; // null if equivalent repartitions are all kept
+    private final Object[] keys; // Key of each repartition
+    private final HashMap<Object, Integer> positionOfKey;
+
+    public TopKRepartitions(int k) {
+        this(k, null);
+    }
+
+    public TopKRepartitions(int k, EvaluationCache canonicalKeys) {
+        assert(k > 0);
+        this.k = k;
+        size = 0;
+        throughputs = new double[k];
+        nbUsedCPUs = new int[k];
+        repartitions = new int[k][];
+        this.canonicalKeys = canonicalKeys;
+        keys = new Object[k];
+        positionOfKey = new HashMap<Object, Integer>();
+    }
+
+    // An empty heap of the same size, with its own copy of the keys, for a search on another thread
+    TopKRepartitions createEmpty() {
+        return new TopKRepartitions(k, (canonicalKeys == null) ? null : canonicalKeys.copy());
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // Throughput under which a repartition cannot enter the heap
+    public double getThreshold() {
+        return (size < k) ? Double.NEGATIVE_INFINITY : throughputs[0];
+    }
+
+    public void offer(double throughput, int nbCPUs, int[] repartition) {
+        if (size == k && !isWorse(0, throughput, nbCPUs, repartition))
+            return;
+        Object key = null;
+        if (canonicalKeys != null) { // Only keyed when it can enter the heap
+            key = canonicalKeys.getCanonicalKey(repartition);
+            Integer position = positionOfKey.get(key);
+            if (position != null) { // Replace the equivalent repartition if it is worse
+                if (isWorse(position, throughput, nbCPUs, repartition)) {
+                    System.arraycopy(repartition, 0, repartitions[position], 0, repartition.length);
+                    throughputs[position] = throughput;
+                    nbUsedCPUs[position] = nbCPUs;
+                    siftDown(position);
+                }
+                return;
+            }
+        }
+
+        if (size < k) {
+            int position = size++;
+            repartitions[position] = repartition.clone();
+            throughputs[position] = throughput;
+            nbUsedCPUs[position] = nbCPUs;
+            setKey(position, key);
+            siftUp(position);
+        } else { // Replace the worst repartition
+            if (keys[0] != null)
+                positionOfKey.remove(keys[0]);
+            System.arraycopy(repartition, 0, repartitions[0], 0, repartition.length);
+            throughputs[0] = throughput;
+            nbUsedCPUs[0] = nbCPUs;
+            setKey(0, key);
+            siftDown(0);
+        }
+    }
+
+    private void setKey(int position, Object key) {
+        keys[position] = key;
+        if (key != null)
+            positionOfKey.put(key, position);
+    }
+
+    public void merge(TopKRepartitions other) {
+        for (int i = 0; i < other.size; ++i)
+            offer(other.throughputs[i], other.nbUsedCPUs[i], other.repartitions[i]);
+    }
+
+    void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(k);
+        output.writeInt(size);
+        for (int i = 0; i < size; ++i) {
+            output.writeDouble(throughputs[i]);
+            output.writeInt(nbUsedCPUs[i]);
+            for (int cpuIndex : repartitions[i])
+                output.writeInt(cpuIndex);
+        }
+    }
+
+    static TopKRepartitions readFrom(DataInputStream input, int nbEntities, EvaluationCache canonicalKeys) throws IOException {
+        TopKRepartitions topKRepartitions = new TopKRepartitions(input.readInt(), canonicalKeys);
+        int size = input.readInt();
+        int[] repartition = new int[nbEntities];
+        for (int i = 0; i < size; ++i) {
+            double throughput = input.readDouble();
+            int nbCPUs = input.readInt();
+            for (int j = 0; j < nbEntities; ++j)
+                repartition[j] = input.readInt();
+            topKRepartitions.offer(throughput, nbCPUs, repartition);
+        }
+        return topKRepartitions;
+    }
+
+    // Positions of the repartitions, from the best one to the worst one
+    public int[] getPositionsByRank() {
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; ++i)
+            positions[i] = i;
+        Arrays.sort(positions, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (isWorse(a, throughputs[b], nbUsedCPUs[b], repartitions[b]))
+                    return 1;
+                return isWorse(b, throughputs[a], nbUsedCPUs[a], repartitions[a]) ? -1 : 0;
+            }
+        });
+        int[] ranks = new int[size];
+        for (int i = 0; i < size; ++i)
+            ranks[i] = positions[i];
+        return ranks;
+    }
+
+    public double getThroughput(int position) {
+        return throughputs[position];
+    }
+
+    public int getNbUsedCPUs(int position) {
+        return nbUsedCPUs[position];
+    }
+
+    public int[] getRepartition(int position) {
+        return repartitions[position];
+    }
+
+    // Is the repartition at this position of the heap worse than the given one
+    private boolean isWorse(int position, double throughput, int nbCPUs, int[] repartition) {
+        if (throughputs[position] != throughput)
+            return throughputs[position] < throughput;
+        if (nbUsedCPUs[position] != nbCPUs)
+            return nbUsedCPUs[position] > nbCPUs;
+        int[] heapRepartition = repartitions[position];
+        for (int i = 0; i < repartition.length; ++i) {
+            if (heapRepartition[i] != repartition[i])
+                return heapRepartition[i] > repartition[i];
+        }
+        return false;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!isWorse(position, throughputs[parent], nbUsedCPUs[parent], repartitions[parent]))
+                break;
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (2 * position + 1 < size) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && isWorse(child + 1, throughputs[child], nbUsedCPUs[child], repartitions[child]))
+                ++child;
+            if (!isWorse(child, throughputs[position], nbUsedCPUs[position], repartitions[position]))
+                break;
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double throughput = throughputs[i];
+        throughputs[i] = throughputs[j];
+        throughputs[j] = throughput;
+        int nbCPUs = nbUsedCPUs[i];
+        nbUsedCPUs[i] = nbUsedCPUs[j];
+        nbUsedCPUs[j] = nbCPUs;
+        int[] repartition = repartitions[i];
+        repartitions[i] = repartitions[j];
+        repartitions[j] = repartition;
+        Object key = keys[i];
+        setKey(i, keys[j]);
+        setKey(j, key);
+    }
+
+}
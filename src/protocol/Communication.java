@@ -2,6 +2,7 @@ package protocol;
 
 /**
  * Represents a communication between two protocol modules. 
+ * The multiplicity is the number of such messages sent per request, so that identical communications are stored once.
  */
 public class Communication {
 
@@ -9,17 +10,32 @@ public class Communication {
     private final int dstEntityId; 
     
     private final double msgSizeBytes; 
+    private final double multiplicity;
     
     public Communication(int srcEntityId, int dstEntityId, double msgSizeBytes) {
+        this(srcEntityId, dstEntityId, msgSizeBytes, 1);
+    }
+    
+    public Communication(int srcEntityId, int dstEntityId, double msgSizeBytes, double multiplicity) {
+        assert(multiplicity > 0);
         this.srcEntityId = srcEntityId;
         this.dstEntityId = dstEntityId;
         this.msgSizeBytes = msgSizeBytes;
+        this.multiplicity = multiplicity;
     }
     
     public double getMsgSizeBytes() {
         return msgSizeBytes;
     }
     
+    public double getMultiplicity() {
+        return multiplicity;
+    }
+    
+    public double getLoadBytes() { // Number of bytes sent per request
+        return msgSizeBytes * multiplicity;
+    }
+    
     public int getSrcEntityId() {
         return srcEntityId;
     }
@@ -28,4 +44,9 @@ public class Communication {
         return dstEntityId;
     }
     
+    public boolean isSameMessage(Communication communication) { // Same message between the same entities, whatever the multiplicities
+        return srcEntityId == communication.srcEntityId && dstEntityId == communication.dstEntityId 
+                && msgSizeBytes == communication.msgSizeBytes;
+    }
+    
 }
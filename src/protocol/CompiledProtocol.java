@@ -0,0 +1,271 @@
+package protocol;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import config.SnapshotIO;
+
+/**
+ * A compiled form of a protocol, used to evaluate many repartitions. Entities get dense indices, the processings
+ * of an entity are summed into a single CPU load, and the communications between two entities are summed into a
+ * single traffic, with their multiplicities. Its size only depends on the number of entities and of communicating
+ * couples of entities, not on the number of messages each of them stands for.
+ */
+public class CompiledProtocol {
+
+    private final int nbClients;
+
+    private final int nbEntities;
+    private final int[] entitiesId; // index to entityId
+    private final HashMap<Integer, Integer> entityIndex;
+    private final double[] cpuLoads; // Number of cycles per request, for each entity
+
+    // Traffic between couples of distinct entities
+    private final int nbPairs;
+    private final int[] pairsSrc, pairsDst; // Entities indices
+    private final double[] pairsBytes; // Number of bytes per request
+    private final double[] pairsMessages; // Number of messages per request
+
+    // Pairs whose entity of highest index is the entity of index i: closedPairs[closedPairsStart[i] .. closedPairsStart[i + 1][
+    private final int[] closedPairsStart;
+    private final int[] closedPairs;
+
+    // Pairs the entity of index i belongs to, as source or destination: entityPairs[entityPairsStart[i] .. entityPairsStart[i + 1][
+    private final int[] entityPairsStart;
+    private final int[] entityPairs;
+
+    public CompiledProtocol(Protocol protocol, Integer[] entitiesId) {
+        nbClients = protocol.getNbClients();
+        nbEntities = entitiesId.length;
+        this.entitiesId = new int[nbEntities];
+        entityIndex = new HashMap<Integer, Integer>();
+        cpuLoads = new double[nbEntities];
+        for (int i = 0; i < nbEntities; ++i) {
+            this.entitiesId[i] = entitiesId[i];
+            entityIndex.put(entitiesId[i], i);
+        }
+
+        HashMap<Long, Integer> pairIndex = new HashMap<Long, Integer>();
+        ArrayList<Integer> srcs = new ArrayList<Integer>();
+        ArrayList<Integer> dsts = new ArrayList<Integer>();
+        ArrayList<Double> bytes = new ArrayList<Double>();
+        ArrayList<Double> messages = new ArrayList<Double>();
+        for (int i = 0; i < nbEntities; ++i) {
+            ArrayList<Processing> processings = protocol.getProcessings(entitiesId[i]);
+            if (processings != null) {
+                for (Processing processing : processings)
+                    cpuLoads[i] += processing.getLoadCycles();
+            }
+
+            ArrayList<Communication> communications = protocol.getCommunications(entitiesId[i]);
+            if (communications == null)
+                continue;
+            for (Communication communication : communications) {
+                assert(entityIndex.containsKey(communication.getDstEntityId()));
+                int dst = entityIndex.get(communication.getDstEntityId());
+                if (dst == i) // No load for a message sent from an entity to itself
+                    continue;
+                long key = ((long) i << 32) | dst;
+                Integer pair = pairIndex.get(key);
+                if (pair == null) {
+                    pairIndex.put(key, srcs.size());
+                    srcs.add(i);
+                    dsts.add(dst);
+                    bytes.add(communication.getLoadBytes());
+                    messages.add(communication.getMultiplicity());
+                } else {
+                    bytes.set(pair, bytes.get(pair) + communication.getLoadBytes());
+                    messages.set(pair, messages.get(pair) + communication.getMultiplicity());
+                }
+            }
+        }
+
+        nbPairs = srcs.size();
+        pairsSrc = new int[nbPairs];
+        pairsDst = new int[nbPairs];
+        pairsBytes = new double[nbPairs];
+        pairsMessages = new double[nbPairs];
+        for (int pair = 0; pair < nbPairs; ++pair) {
+            pairsSrc[pair] = srcs.get(pair);
+            pairsDst[pair] = dsts.get(pair);
+            pairsBytes[pair] = bytes.get(pair);
+            pairsMessages[pair] = messages.get(pair);
+        }
+
+        int[][] closedPairsIndex = buildPairsIndex(nbEntities, pairsSrc, pairsDst, true);
+        closedPairsStart = closedPairsIndex[0];
+        closedPairs = closedPairsIndex[1];
+        int[][] entityPairsIndex = buildPairsIndex(nbEntities, pairsSrc, pairsDst, false);
+        entityPairsStart = entityPairsIndex[0];
+        entityPairs = entityPairsIndex[1];
+    }
+
+    // From traffics already summed per couple of distinct entities, given with entity indices (see ProtocolSpec)
+    CompiledProtocol(int nbClients, int[] entitiesId, double[] cpuLoads, int[] pairsSrc, int[] pairsDst,
+            double[] pairsBytes, double[] pairsMessages) {
+        this(nbClients, entitiesId, cpuLoads, pairsSrc, pairsDst, pairsBytes, pairsMessages,
+                buildPairsIndex(entitiesId.length, pairsSrc, pairsDst, true), buildPairsIndex(entitiesId.length, pairsSrc, pairsDst, false));
+    }
+
+    private CompiledProtocol(int nbClients, int[] entitiesId, double[] cpuLoads, int[] pairsSrc, int[] pairsDst,
+            double[] pairsBytes, double[] pairsMessages, int[][] closedPairsIndex, int[][] entityPairsIndex) {
+        this(nbClients, entitiesId, cpuLoads, pairsSrc, pairsDst, pairsBytes, pairsMessages, closedPairsIndex[0],
+                closedPairsIndex[1], entityPairsIndex[0], entityPairsIndex[1]);
+    }
+
+    // Start of the pairs of each entity and the pairs, in their order, each pair belonging either to its entity of
+    // highest index only (closed pairs) or to both its entities
+    private static int[][] buildPairsIndex(int nbEntities, int[] pairsSrc, int[] pairsDst, boolean closedPairsOnly) {
+        int nbPairs = pairsSrc.length;
+        int[] start = new int[nbEntities + 1];
+        for (int pair = 0; pair < nbPairs; ++pair) {
+            if (closedPairsOnly) {
+                ++start[Math.max(pairsSrc[pair], pairsDst[pair]) + 1];
+            } else {
+                ++start[pairsSrc[pair] + 1];
+                ++start[pairsDst[pair] + 1];
+            }
+        }
+        for (int i = 0; i < nbEntities; ++i)
+            start[i + 1] += start[i];
+        int[] pairs = new int[start[nbEntities]];
+        int[] filled = new int[nbEntities];
+        for (int pair = 0; pair < nbPairs; ++pair) {
+            if (closedPairsOnly) {
+                int last = Math.max(pairsSrc[pair], pairsDst[pair]);
+                pairs[start[last] + filled[last]++] = pair;
+            } else {
+                pairs[start[pairsSrc[pair]] + filled[pairsSrc[pair]]++] = pair;
+                pairs[start[pairsDst[pair]] + filled[pairsDst[pair]]++] = pair;
+            }
+        }
+        return new int[][] { start, pairs };
+    }
+
+    private CompiledProtocol(int nbClients, int[] entitiesId, double[] cpuLoads, int[] pairsSrc, int[] pairsDst,
+            double[] pairsBytes, double[] pairsMessages, int[] closedPairsStart, int[] closedPairs,
+            int[] entityPairsStart, int[] entityPairs) {
+        this.nbClients = nbClients;
+        nbEntities = entitiesId.length;
+        this.entitiesId = entitiesId;
+        entityIndex = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nbEntities; ++i)
+            entityIndex.put(entitiesId[i], i);
+        this.cpuLoads = cpuLoads;
+        nbPairs = pairsSrc.length;
+        this.pairsSrc = pairsSrc;
+        this.pairsDst = pairsDst;
+        this.pairsBytes = pairsBytes;
+        this.pairsMessages = pairsMessages;
+        this.closedPairsStart = closedPairsStart;
+        this.closedPairs = closedPairs;
+        this.entityPairsStart = entityPairsStart;
+        this.entityPairs = entityPairs;
+    }
+
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(nbClients);
+        SnapshotIO.writeInts(output, entitiesId);
+        SnapshotIO.writeDoubles(output, cpuLoads);
+        SnapshotIO.writeInts(output, pairsSrc);
+        SnapshotIO.writeInts(output, pairsDst);
+        SnapshotIO.writeDoubles(output, pairsBytes);
+        SnapshotIO.writeDoubles(output, pairsMessages);
+        SnapshotIO.writeInts(output, closedPairsStart);
+        SnapshotIO.writeInts(output, closedPairs);
+        SnapshotIO.writeInts(output, entityPairsStart);
+        SnapshotIO.writeInts(output, entityPairs);
+    }
+
+    public static CompiledProtocol readFrom(ByteBuffer buffer) {
+        int nbClients = buffer.getInt();
+        int[] entitiesId = SnapshotIO.readInts(buffer);
+        double[] cpuLoads = SnapshotIO.readDoubles(buffer);
+        int[] pairsSrc = SnapshotIO.readInts(buffer);
+        int[] pairsDst = SnapshotIO.readInts(buffer);
+        double[] pairsBytes = SnapshotIO.readDoubles(buffer);
+        double[] pairsMessages = SnapshotIO.readDoubles(buffer);
+        int[] closedPairsStart = SnapshotIO.readInts(buffer);
+        int[] closedPairs = SnapshotIO.readInts(buffer);
+        int[] entityPairsStart = SnapshotIO.readInts(buffer);
+        int[] entityPairs = SnapshotIO.readInts(buffer);
+
+        int nbEntities = entitiesId.length;
+        int nbPairs = pairsSrc.length;
+        if (cpuLoads.length != nbEntities || pairsDst.length != nbPairs || pairsBytes.length != nbPairs
+                || pairsMessages.length != nbPairs || closedPairsStart.length != nbEntities + 1 || closedPairs.length != nbPairs
+                || entityPairsStart.length != nbEntities + 1 || entityPairs.length != 2 * nbPairs)
+            throw new IllegalArgumentException("Corrupted snapshot: inconsistent protocol arrays");
+        return new CompiledProtocol(nbClients, entitiesId, cpuLoads, pairsSrc, pairsDst, pairsBytes, pairsMessages,
+                closedPairsStart, closedPairs, entityPairsStart, entityPairs);
+    }
+
+    public int getNbClients() {
+        return nbClients;
+    }
+
+    public int getNbEntities() {
+        return nbEntities;
+    }
+
+    public int getEntityId(int index) {
+        return entitiesId[index];
+    }
+
+    public int getEntityIndex(int entityId) {
+        assert(entityIndex.containsKey(entityId));
+        return entityIndex.get(entityId);
+    }
+
+    public double getCPULoad(int index) {
+        return cpuLoads[index];
+    }
+
+    public int getNbPairs() {
+        return nbPairs;
+    }
+
+    public int getPairSrc(int pair) {
+        return pairsSrc[pair];
+    }
+
+    public int getPairDst(int pair) {
+        return pairsDst[pair];
+    }
+
+    public double getPairBytes(int pair) {
+        return pairsBytes[pair];
+    }
+
+    public double getPairMessages(int pair) {
+        return pairsMessages[pair];
+    }
+
+    public int getClosedPairsStart(int index) { // Position of the first pair closed by the entity of this index in getClosedPair
+        return closedPairsStart[index];
+    }
+
+    public int getClosedPairsEnd(int index) {
+        return closedPairsStart[index + 1];
+    }
+
+    public int getClosedPair(int position) {
+        return closedPairs[position];
+    }
+
+    public int getEntityPairsStart(int index) { // Position of the first pair of the entity of this index in getEntityPair
+        return entityPairsStart[index];
+    }
+
+    public int getEntityPairsEnd(int index) {
+        return entityPairsStart[index + 1];
+    }
+
+    public int getEntityPair(int position) {
+        return entityPairs[position];
+    }
+
+}
@@ -0,0 +1,25 @@
+package protocol;
+
+import java.util.ArrayList;
+
+/**
+ * The sequence of phases a request goes through, from the moment it is sent to the moment its answer is received.
+ * The latency of the request is the time at which the receivers of the last phase are done.
+ */
+public class CriticalPath {
+
+    private final ArrayList<Phase> phases;
+
+    public CriticalPath() {
+        phases = new ArrayList<Phase>();
+    }
+
+    public void addPhase(Phase phase) {
+        phases.add(phase);
+    }
+
+    public ArrayList<Phase> getPhases() {
+        return phases;
+    }
+
+}
@@ -27,6 +27,10 @@ public class Entity {
         return cpuId;
     }
     
+    public boolean cpuIdIsSet() {
+        return cpuIdIsSet;
+    }
+    
     public void setcpuId(int cpuId) {
         cpuIdIsSet = true;
         this.cpuId = cpuId;
@@ -0,0 +1,50 @@
+package protocol;
+
+/**
+ * A step of the critical path of a request: each sender sends a message to each receiver, and a receiver processes
+ * once it has received the messages of a quorum of senders. The senders process before sending.
+ */
+public class Phase {
+
+    private final int[] sendersId;
+    private final int[] receiversId;
+    private final double msgSizeBytes;
+    private final int quorum; // Number of senders a receiver waits for
+    private final double nbCyclesBeforeSending; // On each sender
+    private final double nbCyclesAfterReceiving; // On each receiver
+
+    public Phase(int[] sendersId, int[] receiversId, double msgSizeBytes, int quorum, double nbCyclesBeforeSending, double nbCyclesAfterReceiving) {
+        assert(0 < quorum && quorum <= sendersId.length);
+        this.sendersId = sendersId;
+        this.receiversId = receiversId;
+        this.msgSizeBytes = msgSizeBytes;
+        this.quorum = quorum;
+        this.nbCyclesBeforeSending = nbCyclesBeforeSending;
+        this.nbCyclesAfterReceiving = nbCyclesAfterReceiving;
+    }
+
+    public int[] getSendersId() {
+        return sendersId;
+    }
+
+    public int[] getReceiversId() {
+        return receiversId;
+    }
+
+    public double getMsgSizeBytes() {
+        return msgSizeBytes;
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
+    public double getNbCyclesBeforeSending() {
+        return nbCyclesBeforeSending;
+    }
+
+    public double getNbCyclesAfterReceiving() {
+        return nbCyclesAfterReceiving;
+    }
+
+}
@@ -2,15 +2,23 @@ package protocol;
 
 /**
  * A class to modelize a processing operation made by a given entity. 
+ * The multiplicity is the number of such operations made per request, so that identical operations are stored once.
  */
 public class Processing {
 
     private final int entityId;
     private final double nbCycles;
+    private final double multiplicity;
     
     public Processing(int entityId, double nbCycles) {
+        this(entityId, nbCycles, 1);
+    }
+    
+    public Processing(int entityId, double nbCycles, double multiplicity) {
+        assert(multiplicity > 0);
         this.entityId = entityId; 
         this.nbCycles = nbCycles;
+        this.multiplicity = multiplicity;
     }
     
     public int getEntityId() {
@@ -20,5 +28,13 @@ public class Processing {
     public double getNbCycles() {
         return nbCycles;
     }
+    
+    public double getMultiplicity() {
+        return multiplicity;
+    }
+    
+    public double getLoadCycles() { // Number of cycles used per request
+        return nbCycles * multiplicity;
+    }
   
 }
@@ -1,29 +1,86 @@
 package protocol;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Set;
 
+import config.ConfigReader;
+
 public class Protocol {
     
     protected HashMap<Integer, Entity> entities; // A mapping entityId to entity
     
     private HashMap<Integer, ArrayList<Communication>> communications; // A mapping from srcEntityId to communication
     private HashMap<Integer, ArrayList<Processing>> processings; // A mapping from entityId to its processings
+    // Position of each communication and processing in the list of its entity, to merge the identical ones
+    private HashMap<MergeKey, Integer> positionOfCommunication, positionOfProcessing;
     private int nbClients; 
     
+    // Placement constraints, shared with the copies (see addInterchangeableEntities and addAntiAffinity)
+    private HashMap<Integer, Integer> interchangeableGroupOfEntity, antiAffinityGroupOfEntity;
+    private HashMap<Integer, Integer> positionInInterchangeableGroup;
+    private int[][] interchangeableEntitiesId; // Entity ids of each interchangeable group, in the order they were given
+    private int nbInterchangeableGroups, nbAntiAffinityGroups;
+    // State of the constraints for the current placement, own to each copy
+    private int[][] placedCPUsIdInGroup; // CPU ids of the placed entities of each interchangeable group, in placement order
+    private int[] nbPlacedInGroup;
+    private BitSet[] cpusIdInAntiAffinityGroup; // CPU ids of the placed entities of each anti-affinity group
     
     public Protocol() {
         entities = new HashMap<Integer, Entity>();
         communications = new HashMap<Integer, ArrayList<Communication>>();
         processings = new HashMap<Integer, ArrayList<Processing>>();
+        positionOfCommunication = new HashMap<MergeKey, Integer>();
+        positionOfProcessing = new HashMap<MergeKey, Integer>();
         nbClients = 1;
+        interchangeableGroupOfEntity = new HashMap<Integer, Integer>();
+        antiAffinityGroupOfEntity = new HashMap<Integer, Integer>();
+        positionInInterchangeableGroup = new HashMap<Integer, Integer>();
+        interchangeableEntitiesId = new int[0][];
+        placedCPUsIdInGroup = new int[0][];
+        nbPlacedInGroup = new int[0];
+        cpusIdInAntiAffinityGroup = new BitSet[0];
+    }
+    
+    protected Protocol(Protocol protocol) { // Copy with its own entities placement, communications and processings are shared
+        entities = new HashMap<Integer, Entity>();
+        for (Entity entity : protocol.entities.values())
+            entities.put(entity.getId(), new Entity(entity.getId(), entity.getName()));
+        communications = protocol.communications;
+        processings = protocol.processings;
+        positionOfCommunication = protocol.positionOfCommunication;
+        positionOfProcessing = protocol.positionOfProcessing;
+        nbClients = protocol.nbClients;
+        interchangeableGroupOfEntity = protocol.interchangeableGroupOfEntity;
+        antiAffinityGroupOfEntity = protocol.antiAffinityGroupOfEntity;
+        positionInInterchangeableGroup = protocol.positionInInterchangeableGroup;
+        interchangeableEntitiesId = protocol.interchangeableEntitiesId;
+        nbInterchangeableGroups = protocol.nbInterchangeableGroups;
+        nbAntiAffinityGroups = protocol.nbAntiAffinityGroups;
+        placedCPUsIdInGroup = new int[nbInterchangeableGroups][];
+        for (int group = 0; group < nbInterchangeableGroups; ++group)
+            placedCPUsIdInGroup[group] = new int[protocol.placedCPUsIdInGroup[group].length];
+        nbPlacedInGroup = new int[nbInterchangeableGroups];
+        cpusIdInAntiAffinityGroup = new BitSet[nbAntiAffinityGroups];
+        for (int group = 0; group < nbAntiAffinityGroups; ++group)
+            cpusIdInAntiAffinityGroup[group] = new BitSet();
+    }
+    
+    public Protocol copy() {
+        return new Protocol(this);
     }
     
     public int getNbClients() {
         return nbClients;
     }
     
+    protected void setNbClients(int nbClients) {
+        this.nbClients = nbClients;
+    }
+    
     public void addEntity(Entity entity) {
         assert(entity != null && !entities.containsKey(entity.getId()));
         entities.put(entity.getId(), entity);
@@ -31,27 +88,70 @@ public class Protocol {
         processings.put(entity.getId(), new ArrayList<Processing>());
     }
     
-    public void addCommunication(Communication communication) {
+    public void addCommunication(Communication communication) { // Identical communications are merged into a single one
         assert(communication != null);
         int srcEntityId = communication.getSrcEntityId();
-        if (communications.containsKey(srcEntityId)) {
-            communications.get(srcEntityId).add(communication);
+        ArrayList<Communication> entityCommunications = communications.get(srcEntityId);
+        if (entityCommunications == null) {
+            entityCommunications = new ArrayList<Communication>();
+            communications.put(srcEntityId, entityCommunications);
+        }
+        MergeKey key = new MergeKey(srcEntityId, communication.getDstEntityId(), communication.getMsgSizeBytes());
+        Integer position = positionOfCommunication.get(key);
+        if (position != null) {
+            Communication entityCommunication = entityCommunications.get(position);
+            assert(entityCommunication.isSameMessage(communication));
+            entityCommunications.set(position, new Communication(srcEntityId, communication.getDstEntityId(), communication.getMsgSizeBytes(), 
+                    entityCommunication.getMultiplicity() + communication.getMultiplicity()));
         } else {
-            ArrayList<Communication> newEntityCommunications = new ArrayList<Communication>();
-            newEntityCommunications.add(communication);
-            communications.put(srcEntityId, newEntityCommunications);
+            positionOfCommunication.put(key, entityCommunications.size());
+            entityCommunications.add(communication);
         }
     }
     
-    public void addProcessing(Processing processing) {
+    public void addProcessing(Processing processing) { // Identical processings are merged into a single one
         assert(processing != null);   
         int entityId = processing.getEntityId();
-        if (processings.containsKey(entityId)) {
-            processings.get(entityId).add(processing);
+        ArrayList<Processing> entityProcessings = processings.get(entityId);
+        if (entityProcessings == null) {
+            entityProcessings = new ArrayList<Processing>();
+            processings.put(entityId, entityProcessings);
+        }
+        MergeKey key = new MergeKey(entityId, -1, processing.getNbCycles());
+        Integer position = positionOfProcessing.get(key);
+        if (position != null) {
+            entityProcessings.set(position, new Processing(entityId, processing.getNbCycles(), 
+                    entityProcessings.get(position).getMultiplicity() + processing.getMultiplicity()));
         } else {
-            ArrayList<Processing> newEntityProcessings = new ArrayList<Processing>();
-            newEntityProcessings.add(processing);
-            processings.put(entityId, newEntityProcessings);
+            positionOfProcessing.put(key, entityProcessings.size());
+            entityProcessings.add(processing);
+        }
+    }
+    
+    // The entities and the size of a message, or the entity and the number of cycles of a processing (dstEntityId -1)
+    private static final class MergeKey {
+        
+        private final int entityId, dstEntityId;
+        private final double value;
+        
+        MergeKey(int entityId, int dstEntityId, double value) {
+            this.entityId = entityId;
+            this.dstEntityId = dstEntityId;
+            this.value = value + 0.0; // No -0.0, which is == 0.0 but has other bits
+        }
+        
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(value);
+            return 31 * (31 * entityId + dstEntityId) + (int) (bits ^ (bits >>> 32));
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof MergeKey))
+                return false;
+            MergeKey key = (MergeKey) other;
+            return entityId == key.entityId && dstEntityId == key.dstEntityId && value == key.value;
         }
     }
     
@@ -76,28 +176,210 @@ public class Protocol {
         return processings.get(entityId);
     }
     
+    public CompiledProtocol compile(Integer[] entitiesId) { // The entities get their index in the given array
+        return new CompiledProtocol(this, entitiesId);
+    }
+    
     public void resetEntityProcessingNodes() {
         for (Entity entity : entities.values()) {
             entity.resetcpuId();
         }
+        Arrays.fill(nbPlacedInGroup, 0);
+        for (BitSet cpusId : cpusIdInAntiAffinityGroup)
+            cpusId.clear();
+    }
+    
+    // The entities can be permuted without changing the loads, as the replicas of a role: only the placements where
+    // the CPU ids of the entities are non-decreasing in the order they are placed in are valid, which keeps exactly one
+    // of the permutations of each placement. Interchangeable entities can share a CPU, unless they are also in an 
+    // anti-affinity group. The entities must play the same role: same loads, same traffics with the other entities, 
+    // same anti-affinity group. They are given in the order they are placed in (see moveWillBeValid).
+    public void addInterchangeableEntities(int[] entitiesId) {
+        Integer group = nbInterchangeableGroups++;
+        for (int i = 0; i < entitiesId.length; ++i) {
+            int entityId = entitiesId[i];
+            if (!entities.containsKey(entityId) || interchangeableGroupOfEntity.containsKey(entityId))
+                throw new IllegalArgumentException("Entity " + entityId + " is unknown or already interchangeable");
+            interchangeableGroupOfEntity.put(entityId, group);
+            positionInInterchangeableGroup.put(entityId, i);
+        }
+        interchangeableEntitiesId = Arrays.copyOf(interchangeableEntitiesId, nbInterchangeableGroups);
+        interchangeableEntitiesId[group] = entitiesId.clone();
+        placedCPUsIdInGroup = Arrays.copyOf(placedCPUsIdInGroup, nbInterchangeableGroups);
+        placedCPUsIdInGroup[group] = new int[entitiesId.length];
+        nbPlacedInGroup = Arrays.copyOf(nbPlacedInGroup, nbInterchangeableGroups);
+    }
+    
+    // Index of the group of interchangeable entities of the entity, -1 if it is not interchangeable
+    public int getInterchangeableGroup(int entityId) {
+        Integer group = interchangeableGroupOfEntity.get(entityId);
+        return (group == null) ? -1 : group;
+    }
+    
+    // The entities must be placed on distinct CPUs, as replicas that must fail independently
+    public void addAntiAffinity(int[] entitiesId) {
+        Integer group = nbAntiAffinityGroups++;
+        for (int entityId : entitiesId) {
+            if (!entities.containsKey(entityId) || antiAffinityGroupOfEntity.containsKey(entityId))
+                throw new IllegalArgumentException("Entity " + entityId + " is unknown or already in an anti-affinity group");
+            antiAffinityGroupOfEntity.put(entityId, group);
+        }
+        cpusIdInAntiAffinityGroup = Arrays.copyOf(cpusIdInAntiAffinityGroup, nbAntiAffinityGroups);
+        cpusIdInAntiAffinityGroup[group] = new BitSet();
+    }
+    
+    // Index of the anti-affinity group of the entity, -1 if it is in none
+    public int getAntiAffinityGroup(int entityId) {
+        Integer group = antiAffinityGroupOfEntity.get(entityId);
+        return (group == null) ? -1 : group;
     }
     
     public void affectEntityToProcessingNode(int entityId, int processingNodeId) {
-        entities.get(entityId).setcpuId(processingNodeId);
+        Entity entity = entities.get(entityId);
+        if (entity.cpuIdIsSet()) // Moved without being removed first
+            removeEntityFromProcessingNode(entityId);
+        entity.setcpuId(processingNodeId);
+        Integer group = interchangeableGroupOfEntity.get(entityId);
+        if (group != null)
+            placedCPUsIdInGroup[group][nbPlacedInGroup[group]++] = processingNodeId;
+        group = antiAffinityGroupOfEntity.get(entityId);
+        if (group != null)
+            cpusIdInAntiAffinityGroup[group].set(processingNodeId);
     }
     
     public void removeEntityFromProcessingNode(int entityId) {
-        entities.get(entityId).resetcpuId();
+        Entity entity = entities.get(entityId);
+        if (!entity.cpuIdIsSet())
+            return;
+        int processingNodeId = entity.getcpuId();
+        entity.resetcpuId();
+        Integer group = interchangeableGroupOfEntity.get(entityId);
+        if (group != null) { // The entities are usually removed in the reverse order of their placement
+            int[] placedCPUsId = placedCPUsIdInGroup[group];
+            int position = --nbPlacedInGroup[group];
+            while (placedCPUsId[position] != processingNodeId)
+                --position;
+            System.arraycopy(placedCPUsId, position + 1, placedCPUsId, position, nbPlacedInGroup[group] - position);
+        }
+        group = antiAffinityGroupOfEntity.get(entityId);
+        if (group != null)
+            cpusIdInAntiAffinityGroup[group].clear(processingNodeId);
     }
     
     public void removeEntityFromProcessingNode(int entityId, int processingNodeId) {
-        entities.get(entityId).resetcpuId();
+        assert(!entities.get(entityId).cpuIdIsSet() || entities.get(entityId).getcpuId() == processingNodeId);
+        removeEntityFromProcessingNode(entityId);
     }
     
+    // Can the entity be placed on the processing node, given the entities already placed
     public boolean repartitionWillBeValid(int entityId, int processingNodeId) {
-        return true;
+        Integer group = interchangeableGroupOfEntity.get(entityId);
+        if (group != null && nbPlacedInGroup[group] > 0 && placedCPUsIdInGroup[group][nbPlacedInGroup[group] - 1] > processingNodeId)
+            return false;
+        group = antiAffinityGroupOfEntity.get(entityId);
+        return group == null || !cpusIdInAntiAffinityGroup[group].get(processingNodeId);
+    }
+    
+    // Once all the entities are placed, in a valid repartition: is it still valid if the entity moves to the processing
+    // node and, if otherEntityId is not -1, the other entity moves to the processing node the entity leaves. Only the
+    // constraints of the moved entities are checked, the interchangeable entities being in the order of their group.
+    public boolean moveWillBeValid(int entityId, int processingNodeId, int otherEntityId) {
+        int oldProcessingNodeId = entities.get(entityId).getcpuId();
+        return entityIsValidAfterMove(entityId, processingNodeId, entityId, processingNodeId, otherEntityId)
+                && (otherEntityId == -1 || entityIsValidAfterMove(otherEntityId, oldProcessingNodeId, entityId, processingNodeId, otherEntityId));
+    }
+    
+    private boolean entityIsValidAfterMove(int movedEntityId, int newProcessingNodeId, int entityId, int processingNodeId, int otherEntityId) {
+        Integer group = interchangeableGroupOfEntity.get(movedEntityId);
+        if (group != null) { // Only the neighbours in the group can break the order
+            int[] groupEntitiesId = interchangeableEntitiesId[group];
+            int position = positionInInterchangeableGroup.get(movedEntityId);
+            if (position > 0 && getProcessingNodeIdAfterMove(groupEntitiesId[position - 1], entityId, processingNodeId, otherEntityId) > newProcessingNodeId)
+                return false;
+            if (position + 1 < groupEntitiesId.length
+                    && getProcessingNodeIdAfterMove(groupEntitiesId[position + 1], entityId, processingNodeId, otherEntityId) < newProcessingNodeId)
+                return false;
+        }
+        group = antiAffinityGroupOfEntity.get(movedEntityId);
+        if (group == null || !cpusIdInAntiAffinityGroup[group].get(newProcessingNodeId))
+            return true;
+        // The entity of the group on the processing node can only be the other moved entity, which leaves it
+        int leavingEntityId = (movedEntityId == entityId) ? otherEntityId : entityId;
+        return leavingEntityId != -1 && group.equals(antiAffinityGroupOfEntity.get(leavingEntityId));
+    }
+    
+    private int getProcessingNodeIdAfterMove(int id, int entityId, int processingNodeId, int otherEntityId) {
+        if (id == entityId)
+            return processingNodeId;
+        return entities.get(id == otherEntityId ? entityId : id).getcpuId();
     }
     
+    public ArrayList<CriticalPath> getCriticalPaths() { // One for each kind of request, none if the latency is not modelled
+        return new ArrayList<CriticalPath>();
+    }
+    
+    // Read a protocol from a configuration file (see ConfigReader for the syntax of the values):
+    //   nbEntities, then one line per entity: id, name
+    //   nbCommunications, then one line per communication: srcEntityId, dstEntityId, msgSizeBytes[, multiplicity]
+    //   nbProcessings, then one line per processing: entityId, nbCycles[, multiplicity]
+    //   optionally "clients nbClients", the number of clients whose requests the loads stand for (1 by default)
+    public static Protocol readProtocol(String configFileName) {
+        Protocol protocol = new Protocol();
+
+        try {
+            ConfigReader reader = new ConfigReader(configFileName);
+            if (!reader.firstLine())
+                throw reader.error("empty protocol");
+
+            int nbEntities = reader.nextCount();
+            for (int i = 0; i < nbEntities; ++i) {
+                reader.nextRequiredLine();
+                int id = reader.nextInt();
+                String name = reader.nextName();
+                reader.endLine();
+                if (protocol.entities.containsKey(id))
+                    throw reader.error("duplicate entity id " + id);
+                protocol.addEntity(new Entity(id, name));
+            }
+
+            int nbCommunications = reader.nextCount();
+            for (int i = 0; i < nbCommunications; ++i) {
+                reader.nextRequiredLine();
+                int srcEntityId = reader.nextInt();
+                int dstEntityId = reader.nextInt();
+                double msgSizeBytes = reader.nextDouble();
+                double multiplicity = reader.hasNextOnLine() ? reader.nextDouble() : 1;
+                reader.endLine();
+                if (!protocol.entities.containsKey(srcEntityId) || !protocol.entities.containsKey(dstEntityId))
+                    throw reader.error("communication between unknown entities");
+                protocol.addCommunication(new Communication(srcEntityId, dstEntityId, msgSizeBytes, multiplicity));
+            }
+
+            int nbProcessings = reader.nextCount();
+            for (int i = 0; i < nbProcessings; ++i) {
+                reader.nextRequiredLine();
+                int entityId = reader.nextInt();
+                double nbCycles = reader.nextDouble();
+                double multiplicity = reader.hasNextOnLine() ? reader.nextDouble() : 1;
+                reader.endLine();
+                if (!protocol.entities.containsKey(entityId))
+                    throw reader.error("processing of an unknown entity");
+                protocol.addProcessing(new Processing(entityId, nbCycles, multiplicity));
+            }
+
+            if (reader.nextLine()) {
+                if (!reader.nextNameIs("clients"))
+                    throw reader.error("clients expected");
+                protocol.setNbClients(reader.nextInt());
+                reader.endLine();
+                if (reader.nextLine())
+                    throw reader.error("unexpected line");
+            }
+        } catch (IOException e) {e.printStackTrace();}
+
+        return protocol;
+    }
+
     public static Protocol getExample() {
         Protocol protocol = new Protocol();
         
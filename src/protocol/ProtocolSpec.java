@@ -0,0 +1,328 @@
+package protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import config.ConfigReader;
+
+/**
+ * A protocol described by its roles and messages instead of its entities, read from a file (see ConfigReader for the
+ * syntax of the values, expressions with blanks or commas are quoted). Each line starts with a keyword:
+ *   param name expr             parameter with its default value, that can be overridden when instantiating the spec
+ *   let name expr               derived value
+ *   role name countExpr         role with its number of replicas, the entities are created in the order of the roles
+ *   message name sizeBytesExpr  message type
+ *   clients countExpr           number of clients whose requests the loads stand for (1 by default)
+ *   send message src dst broadcast|unicast [multiplicityExpr]
+ *   process entities nbCyclesExpr [multiplicityExpr]
+ *   interchangeable entities    the entities can be permuted (see Protocol.addInterchangeableEntities)
+ *   distinct entities           the entities must be on distinct CPUs (see Protocol.addAntiAffinity)
+ * The src, dst and entities are a role (all its replicas), a replica of a role, as in Order[0], or a range of
+ * replicas, as in Order[1:] or Order[0:u] (the end is excluded and defaults to the number of replicas). A broadcast goes from
+ * each source to each destination, a unicast from the i-th source to the (i mod nbDst)-th destination. As for
+ * Communication and Processing, the multiplicity is the number of messages or processings per request. Expressions
+ * combine numbers, the parameters, the values, the numbers of replicas of the roles and the sizes of the messages
+ * with + - * / ( ) min max. The spec is compiled straight into the per-entity CPU loads and traffics of
+ * CompiledProtocol, no Communication or Processing object is created, and the sends are only expanded into couples of
+ * entities when compiling, so that the memory grows with the traffics and not with the square of the number of entities.
+ */
+public class ProtocolSpec {
+
+    private final String fileName;
+    private final ArrayList<Statement> statements;
+
+    private static class Statement {
+        final int lineNumber;
+        final String keyword;
+        final String[] values;
+
+        Statement(int lineNumber, String keyword, String[] values) {
+            this.lineNumber = lineNumber;
+            this.keyword = keyword;
+            this.values = values;
+        }
+    }
+
+    private ProtocolSpec(String fileName, ArrayList<Statement> statements) {
+        this.fileName = fileName;
+        this.statements = statements;
+    }
+
+    public static ProtocolSpec read(String fileName) throws IOException {
+        ConfigReader reader = new ConfigReader(fileName);
+        ArrayList<Statement> statements = new ArrayList<Statement>();
+        HashSet<String> names = new HashSet<String>();
+        if (!reader.firstLine())
+            throw reader.error("empty protocol spec");
+        do {
+            int lineNumber = reader.getLineNumber();
+            String keyword = reader.nextName();
+            ArrayList<String> values = new ArrayList<String>();
+            while (reader.hasNextOnLine())
+                values.add(reader.nextName());
+
+            int minNbValues, maxNbValues;
+            if (keyword.equals("param") || keyword.equals("let") || keyword.equals("role") || keyword.equals("message")) {
+                minNbValues = maxNbValues = 2;
+            } else if (keyword.equals("clients") || keyword.equals("interchangeable") || keyword.equals("distinct")) {
+                minNbValues = maxNbValues = 1;
+            } else if (keyword.equals("send")) {
+                minNbValues = 4;
+                maxNbValues = 5;
+            } else if (keyword.equals("process")) {
+                minNbValues = 2;
+                maxNbValues = 3;
+            } else {
+                throw reader.error("unknown keyword " + keyword);
+            }
+            if (values.size() < minNbValues || values.size() > maxNbValues)
+                throw reader.error("wrong number of values for " + keyword);
+            if (minNbValues == 2 && maxNbValues == 2 && !names.add(values.get(0)))
+                throw reader.error("duplicate name " + values.get(0));
+            if (keyword.equals("send") && !values.get(3).equals("broadcast") && !values.get(3).equals("unicast"))
+                throw reader.error("broadcast or unicast expected");
+            statements.add(new Statement(lineNumber, keyword, values.toArray(new String[values.size()])));
+        } while (reader.nextLine());
+        return new ProtocolSpec(fileName, statements);
+    }
+
+    // The protocol for these values of the parameters (the other ones keep their default value)
+    public Protocol instantiate(Map<String, Double> parameters) {
+        HashMap<String, Double> values = new HashMap<String, Double>();
+        HashMap<String, int[]> roles = new HashMap<String, int[]>(); // First entity and number of replicas
+        HashMap<String, Double> messagesSize = new HashMap<String, Double>();
+        ArrayList<String> entitiesName = new ArrayList<String>();
+        int nbClients = 1;
+        HashSet<String> unknownParameters = new HashSet<String>(parameters.keySet());
+
+        // The definitions first, so that the traffics and processings can use all of them
+        for (Statement statement : statements) {
+            String name = statement.values[0];
+            if (statement.keyword.equals("param")) {
+                unknownParameters.remove(name);
+                values.put(name, parameters.containsKey(name) ? parameters.get(name) : evaluate(statement, 1, values));
+            } else if (statement.keyword.equals("let")) {
+                values.put(name, evaluate(statement, 1, values));
+            } else if (statement.keyword.equals("role")) {
+                int nbReplicas = evaluateCount(statement, 1, values);
+                roles.put(name, new int[] { entitiesName.size(), nbReplicas });
+                for (int i = 0; i < nbReplicas; ++i)
+                    entitiesName.add(name + " " + i);
+                values.put(name, (double) nbReplicas);
+            } else if (statement.keyword.equals("message")) {
+                double sizeBytes = evaluate(statement, 1, values);
+                messagesSize.put(name, sizeBytes);
+                values.put(name, sizeBytes);
+            } else if (statement.keyword.equals("clients")) {
+                nbClients = evaluateCount(statement, 0, values);
+            }
+        }
+        if (!unknownParameters.isEmpty())
+            throw new IllegalArgumentException(fileName + ": unknown parameters " + unknownParameters);
+
+        int nbEntities = entitiesName.size();
+        double[] cpuLoads = new double[nbEntities];
+        ArrayList<SpecProtocol.Send> sends = new ArrayList<SpecProtocol.Send>();
+        for (Statement statement : statements) {
+            if (statement.keyword.equals("send")) {
+                Double sizeBytes = messagesSize.get(statement.values[0]);
+                if (sizeBytes == null)
+                    throw error(statement, "unknown message " + statement.values[0]);
+                int[] srcs = getEntities(statement, 1, roles, values);
+                int[] dsts = getEntities(statement, 2, roles, values);
+                double multiplicity = (statement.values.length > 4) ? evaluate(statement, 4, values) : 1;
+                boolean isBroadcast = statement.values[3].equals("broadcast");
+                if (dsts[1] > 0)
+                    sends.add(new SpecProtocol.Send(srcs[0], srcs[1], dsts[0], dsts[1], isBroadcast, sizeBytes * multiplicity, multiplicity));
+            } else if (statement.keyword.equals("process")) {
+                int[] entities = getEntities(statement, 0, roles, values);
+                double nbCycles = evaluate(statement, 1, values);
+                double multiplicity = (statement.values.length > 2) ? evaluate(statement, 2, values) : 1;
+                for (int i = 0; i < entities[1]; ++i)
+                    cpuLoads[entities[0] + i] += nbCycles * multiplicity;
+            }
+        }
+
+        SpecProtocol protocol = new SpecProtocol(entitiesName.toArray(new String[nbEntities]), nbClients, cpuLoads, sends);
+        for (Statement statement : statements) {
+            if (statement.keyword.equals("interchangeable") || statement.keyword.equals("distinct")) {
+                int[] entities = getEntities(statement, 0, roles, values);
+                int[] entitiesId = new int[entities[1]];
+                for (int i = 0; i < entities[1]; ++i)
+                    entitiesId[i] = entities[0] + i;
+                try {
+                    if (statement.keyword.equals("interchangeable"))
+                        protocol.addInterchangeableEntities(entitiesId);
+                    else
+                        protocol.addAntiAffinity(entitiesId);
+                } catch (IllegalArgumentException e) {
+                    throw error(statement, e.getMessage());
+                }
+            }
+        }
+        return protocol;
+    }
+
+    public CompiledProtocol compile(Map<String, Double> parameters) { // The entity ids are their indices
+        Protocol protocol = instantiate(parameters);
+        Integer[] entitiesId = new Integer[protocol.getEntitiesSize()];
+        for (int i = 0; i < entitiesId.length; ++i)
+            entitiesId[i] = i;
+        return protocol.compile(entitiesId);
+    }
+
+    // The first entity and the number of entities of a role, of one of its replicas or of a range of replicas
+    private int[] getEntities(Statement statement, int valueIndex, HashMap<String, int[]> roles, HashMap<String, Double> values) {
+        String value = statement.values[valueIndex];
+        int bracket = value.indexOf('[');
+        String roleName = (bracket == -1) ? value : value.substring(0, bracket);
+        int[] role = roles.get(roleName);
+        if (role == null)
+            throw error(statement, "unknown role " + roleName);
+        if (bracket == -1)
+            return role;
+        if (!value.endsWith("]"))
+            throw error(statement, "] expected");
+        String selection = value.substring(bracket + 1, value.length() - 1);
+        int colon = selection.indexOf(':');
+        int first = getReplica(statement, (colon == -1) ? selection : selection.substring(0, colon), roleName, role[1], values);
+        int end = first + 1;
+        if (colon != -1)
+            end = (colon + 1 == selection.length()) ? role[1] : getReplica(statement, selection.substring(colon + 1), roleName, role[1] + 1, values);
+        if (end < first)
+            throw error(statement, "empty range of replicas " + value);
+        return new int[] { role[0] + first, end - first };
+    }
+
+    private int getReplica(Statement statement, String expression, String roleName, int nbReplicas, HashMap<String, Double> values) {
+        double replica = new Expression(expression, values, statement).evaluate();
+        if (replica != Math.rint(replica) || replica < 0 || replica >= nbReplicas)
+            throw error(statement, "no replica " + replica + " in role " + roleName);
+        return (int) replica;
+    }
+
+    private double evaluate(Statement statement, int valueIndex, HashMap<String, Double> values) {
+        return new Expression(statement.values[valueIndex], values, statement).evaluate();
+    }
+
+    private int evaluateCount(Statement statement, int valueIndex, HashMap<String, Double> values) {
+        double count = evaluate(statement, valueIndex, values);
+        if (count != Math.rint(count) || count < 0 || count > Integer.MAX_VALUE)
+            throw error(statement, "the count " + count + " is not a natural number");
+        return (int) count;
+    }
+
+    private IllegalArgumentException error(Statement statement, String message) {
+        return new IllegalArgumentException(fileName + ":" + statement.lineNumber + ": " + message);
+    }
+
+    // Recursive descent evaluation of an arithmetic expression
+    private class Expression {
+
+        private final String text;
+        private final HashMap<String, Double> values;
+        private final Statement statement;
+        private int position;
+
+        Expression(String text, HashMap<String, Double> values, Statement statement) {
+            this.text = text;
+            this.values = values;
+            this.statement = statement;
+            position = 0;
+        }
+
+        double evaluate() {
+            double value = parseSum();
+            skipBlanks();
+            if (position != text.length())
+                throw error(statement, "unexpected " + text.charAt(position) + " in " + text);
+            return value;
+        }
+
+        private double parseSum() {
+            double value = parseProduct();
+            while (true) {
+                if (accept('+'))
+                    value += parseProduct();
+                else if (accept('-'))
+                    value -= parseProduct();
+                else
+                    return value;
+            }
+        }
+
+        private double parseProduct() {
+            double value = parseFactor();
+            while (true) {
+                if (accept('*'))
+                    value *= parseFactor();
+                else if (accept('/'))
+                    value /= parseFactor();
+                else
+                    return value;
+            }
+        }
+
+        private double parseFactor() {
+            if (accept('-'))
+                return -parseFactor();
+            if (accept('(')) {
+                double value = parseSum();
+                expect(')');
+                return value;
+            }
+            skipBlanks();
+            int start = position;
+            if (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+                while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '.'
+                        || ((text.charAt(position) == '+' || text.charAt(position) == '-') && (text.charAt(position - 1) == 'e' || text.charAt(position - 1) == 'E'))))
+                    ++position;
+                try {
+                    return Double.parseDouble(text.substring(start, position));
+                } catch (NumberFormatException e) {
+                    throw error(statement, "bad number " + text.substring(start, position));
+                }
+            }
+            while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || text.charAt(position) == '_'))
+                ++position;
+            String name = text.substring(start, position);
+            if (name.isEmpty())
+                throw error(statement, "value expected in " + text);
+            if (name.equals("min") || name.equals("max")) {
+                expect('(');
+                double value = parseSum();
+                while (accept(','))
+                    value = name.equals("min") ? Math.min(value, parseSum()) : Math.max(value, parseSum());
+                expect(')');
+                return value;
+            }
+            Double value = values.get(name);
+            if (value == null)
+                throw error(statement, "unknown name " + name);
+            return value;
+        }
+
+        private boolean accept(char c) {
+            skipBlanks();
+            if (position < text.length() && text.charAt(position) == c) {
+                ++position;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c))
+                throw error(statement, c + " expected in " + text);
+        }
+
+        private void skipBlanks() {
+            while (position < text.length() && text.charAt(position) == ' ')
+                ++position;
+        }
+    }
+
+}
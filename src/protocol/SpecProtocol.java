@@ -0,0 +1,109 @@
+package protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A protocol instantiated from a ProtocolSpec: it only holds its entities, their CPU loads and the send statements
+ * between ranges of entities, which are expanded into the traffics of the couples of entities when compiling.
+ */
+class SpecProtocol extends Protocol {
+
+    // Traffic per request from each entity of a range to each entity (broadcast) or one entity (unicast) of another range
+    static class Send {
+        final int firstSrc, nbSrcs; // Entity ids
+        final int firstDst, nbDsts;
+        final boolean isBroadcast;
+        final double bytes, messages; // Per couple of entities
+
+        Send(int firstSrc, int nbSrcs, int firstDst, int nbDsts, boolean isBroadcast, double bytes, double messages) {
+            this.firstSrc = firstSrc;
+            this.nbSrcs = nbSrcs;
+            this.firstDst = firstDst;
+            this.nbDsts = nbDsts;
+            this.isBroadcast = isBroadcast;
+            this.bytes = bytes;
+            this.messages = messages;
+        }
+    }
+
+    private final double[] cpuLoads; // Number of cycles per request, for each entity id
+    private final ArrayList<Send> sends;
+
+    SpecProtocol(String[] entitiesName, int nbClients, double[] cpuLoads, ArrayList<Send> sends) {
+        super();
+        for (int entityId = 0; entityId < entitiesName.length; ++entityId)
+            addEntity(new Entity(entityId, entitiesName[entityId]));
+        setNbClients(nbClients);
+        this.cpuLoads = cpuLoads;
+        this.sends = sends;
+    }
+
+    private SpecProtocol(SpecProtocol specProtocol) {
+        super(specProtocol);
+        cpuLoads = specProtocol.cpuLoads;
+        sends = specProtocol.sends;
+    }
+
+    @Override
+    public Protocol copy() {
+        return new SpecProtocol(this);
+    }
+
+    @Override
+    public CompiledProtocol compile(Integer[] entitiesId) {
+        int nbEntities = entitiesId.length;
+        int[] ids = new int[nbEntities];
+        double[] loads = new double[nbEntities];
+        int[] indexOfId = new int[cpuLoads.length]; // -1 if the entity is not compiled
+        Arrays.fill(indexOfId, -1);
+        for (int i = 0; i < nbEntities; ++i) {
+            ids[i] = entitiesId[i];
+            loads[i] = cpuLoads[ids[i]];
+            indexOfId[ids[i]] = i;
+        }
+
+        HashMap<Long, Integer> pairIndex = new HashMap<Long, Integer>();
+        ArrayList<Integer> srcs = new ArrayList<Integer>();
+        ArrayList<Integer> dsts = new ArrayList<Integer>();
+        ArrayList<Double> bytes = new ArrayList<Double>();
+        ArrayList<Double> messages = new ArrayList<Double>();
+        for (Send send : sends) {
+            for (int i = 0; i < send.nbSrcs; ++i) {
+                int src = indexOfId[send.firstSrc + i];
+                for (int j = 0; j < send.nbDsts; ++j) {
+                    int dst = indexOfId[send.firstDst + (send.isBroadcast ? j : i % send.nbDsts)];
+                    if (src != -1 && dst != -1 && src != dst && send.messages != 0) {
+                        long key = ((long) src << 32) | dst;
+                        Integer pair = pairIndex.get(key);
+                        if (pair == null) {
+                            pairIndex.put(key, srcs.size());
+                            srcs.add(src);
+                            dsts.add(dst);
+                            bytes.add(send.bytes);
+                            messages.add(send.messages);
+                        } else {
+                            bytes.set(pair, bytes.get(pair) + send.bytes);
+                            messages.set(pair, messages.get(pair) + send.messages);
+                        }
+                    }
+                    if (!send.isBroadcast)
+                        break;
+                }
+            }
+        }
+
+        int nbPairs = srcs.size();
+        int[] pairsSrc = new int[nbPairs], pairsDst = new int[nbPairs];
+        double[] pairsBytes = new double[nbPairs], pairsMessages = new double[nbPairs];
+        for (int pair = 0; pair < nbPairs; ++pair) {
+            pairsSrc[pair] = srcs.get(pair);
+            pairsDst[pair] = dsts.get(pair);
+            pairsBytes[pair] = bytes.get(pair);
+            pairsMessages[pair] = messages.get(pair);
+        }
+        return new CompiledProtocol(getNbClients(), ids, loads, pairsSrc, pairsDst, pairsBytes, pairsMessages);
+    }
+
+}
@@ -4,23 +4,22 @@ import java.util.ArrayList;
 
 public class UpRight extends Protocol {
 
+    private final int u; // Number of failures tolerated
     private final int nbFilters;
     private final int nbOrders;
     private final int nbExecs;
 
     private int firstFilterId, firstOrderId, firstExecId, firstClientId; // The primary has the id equal to firstOrderId
-    private int nbClients;
     private int nbEntities;
-    private ArrayList<Integer> filtersIdToCPU, ordersIdToCPU, execsIdToCPU; // Used to, for example, avoid placing two filter nodes on the same machine
 
     // Size of messages in Bytes
     private static final double sizeReqBytes = 273;
     private static final double sizeRepBytes = 80;
-    private static final double nbRequestsInBatch = 30;
-    private static final double sizePrePrepareBytes = 88+(nbRequestsInBatch*sizeReqBytes);
+    private final double nbRequestsInBatch;
+    private final double sizePrePrepareBytes;
     private static final double sizePrepareBytes = 88;
     private static final double sizeCommitBytes = 72;
-    private static final double sizeOrderedBatchBytes = 88+(sizeReqBytes * nbRequestsInBatch);
+    private final double sizeOrderedBatchBytes;
 
     // Processing counts in cycles 
     private static final double computeMAC = 644; 
@@ -29,29 +28,58 @@ public class UpRight extends Protocol {
     //    private static final double MAC_reply = 795;
 
     private static final double send_req = 19 * sizeReqBytes + 643;
-    private static final double send_pp = 19 * sizePrePrepareBytes + 643;
+    private final double send_pp;
     private static final double send_prepare = 19 * sizePrepareBytes + 643;
     private static final double send_commit = 19 * sizeCommitBytes + 643;
     private static final double send_reply = 19 * sizeRepBytes + 643;
-    private static final double send_batch = 19 * sizeOrderedBatchBytes + 643;
+    private final double send_batch;
 
     private static final double receive_req = 20 * sizeReqBytes + 679;
-    private static final double receive_pp = 20 * sizePrePrepareBytes + 679;
+    private final double receive_pp;
     private static final double receive_prepare = 20 * sizePrepareBytes + 679;
     private static final double receive_commit = 20 * sizeCommitBytes + 679;
-    private static final double receive_batch = 20 * sizeOrderedBatchBytes + 679;
+    private final double receive_batch;
 
     private static final double execute_batch = 3000;
 
     public UpRight(int u, int r, int nbClients) {
+        this(u, r, nbClients, 30);
+    }
+
+    public UpRight(int u, int r, int nbClients, int nbRequestsInBatch) {
+        this(u, r, nbClients, nbRequestsInBatch, nbClients);
+    }
+
+    // Each of the nbClientEntities client entities stands for nbClients / nbClientEntities clients, which are placed
+    // together: with a single one, the size of the protocol does not depend on the number of clients
+    public UpRight(int u, int r, int nbClients, int nbRequestsInBatch, int nbClientEntities) {
+        this(u, r, nbClients, nbRequestsInBatch, nbClientEntities, true);
+    }
+
+    // Without printing the number of replicas of each role if printReplicas is false, as when the standard output is data
+    public UpRight(int u, int r, int nbClients, int nbRequestsInBatch, int nbClientEntities, boolean printReplicas) {
         super();
+        if (nbClientEntities < Math.min(nbClients, 1) || nbClientEntities > nbClients)
+            throw new IllegalArgumentException("The " + nbClients + " clients cannot be split into " + nbClientEntities + " client entities");
+        this.u = u;
+        this.nbRequestsInBatch = nbRequestsInBatch;
+        sizePrePrepareBytes = 88+(nbRequestsInBatch*sizeReqBytes);
+        sizeOrderedBatchBytes = 88+(sizeReqBytes * nbRequestsInBatch);
+        send_pp = 19 * sizePrePrepareBytes + 643;
+        send_batch = 19 * sizeOrderedBatchBytes + 643;
+        receive_pp = 20 * sizePrePrepareBytes + 679;
+        receive_batch = 20 * sizeOrderedBatchBytes + 679;
         nbFilters = 2*u+r+1;
         nbOrders = 2*u+r+1;
         nbExecs = u+Math.max(u,  r) + 1;
-        System.out.printf("%d filters\n", nbFilters);
-        System.out.printf("%d orders\n", nbOrders);
-        System.out.printf("%d execs\n", nbExecs);
-        System.out.printf("%d clients\n", nbClients);
+        if (printReplicas) {
+            System.out.printf("%d filters\n", nbFilters);
+            System.out.printf("%d orders\n", nbOrders);
+            System.out.printf("%d execs\n", nbExecs);
+            System.out.printf("%d clients\n", nbClients);
+            if (nbClientEntities != nbClients)
+                System.out.printf("%d client entities\n", nbClientEntities);
+        }
 
         int entityId = 0;
         firstFilterId = entityId;
@@ -67,9 +95,9 @@ public class UpRight extends Protocol {
             entities.put(entityId, new Entity(entityId, "Exec "+i));
         }
 
-        this.nbClients = nbClients;
+        setNbClients(nbClients);
         firstClientId = entityId;
-        for (int i = 0; i < nbClients; ++i) { 
+        for (int i = 0; i < nbClientEntities; ++i) { 
             entities.put(entityId, new Entity(entityId, "Client "+i));
             ++entityId;
         }
@@ -79,9 +107,39 @@ public class UpRight extends Protocol {
         addCommunicationsUpright();
         addProcessingsUpright();
 
-        filtersIdToCPU = new ArrayList<Integer>();
-        ordersIdToCPU = new ArrayList<Integer>();
-        execsIdToCPU = new ArrayList<Integer>();
+        // The replicas of a role are on distinct machines and interchangeable, except the primary, as are the clients
+        addAntiAffinity(getIdsRange(firstFilterId, nbFilters));
+        addInterchangeableEntities(getIdsRange(firstFilterId, nbFilters));
+        addAntiAffinity(getIdsRange(firstOrderId, nbOrders));
+        addInterchangeableEntities(getIdsRange(firstOrderId + 1, nbOrders - 1));
+        addAntiAffinity(getIdsRange(firstExecId, nbExecs));
+        addInterchangeableEntities(getIdsRange(firstExecId, nbExecs));
+        addInterchangeableEntities(getIdsRange(firstClientId, nbClientEntities));
+    }
+
+    private UpRight(UpRight upRight) {
+        super(upRight);
+        u = upRight.u;
+        nbRequestsInBatch = upRight.nbRequestsInBatch;
+        sizePrePrepareBytes = upRight.sizePrePrepareBytes;
+        sizeOrderedBatchBytes = upRight.sizeOrderedBatchBytes;
+        send_pp = upRight.send_pp;
+        send_batch = upRight.send_batch;
+        receive_pp = upRight.receive_pp;
+        receive_batch = upRight.receive_batch;
+        nbFilters = upRight.nbFilters;
+        nbOrders = upRight.nbOrders;
+        nbExecs = upRight.nbExecs;
+        firstFilterId = upRight.firstFilterId;
+        firstOrderId = upRight.firstOrderId;
+        firstExecId = upRight.firstExecId;
+        firstClientId = upRight.firstClientId;
+        nbEntities = upRight.nbEntities;
+    }
+
+    @Override
+    public Protocol copy() {
+        return new UpRight(this);
     }
 
     public boolean isFilter(int entityId) {
@@ -104,159 +162,155 @@ public class UpRight extends Protocol {
         return firstClientId <= entityId && entityId < nbEntities;
     }
 
-    @Override
-    public void resetEntityProcessingNodes() {
-        for (Entity entity : entities.values()) {
-            entity.resetcpuId();
-        }
-        filtersIdToCPU = new ArrayList<Integer>();
-        ordersIdToCPU = new ArrayList<Integer>();
-        execsIdToCPU = new ArrayList<Integer>();
-    }
-
-    @Override
-    public void affectEntityToProcessingNode(int entityId, int processingNodeId) {
-        entities.get(entityId).setcpuId(processingNodeId);
-        if (isFilter(entityId)) {
-            filtersIdToCPU.add(processingNodeId);
-        } else if (isOrder(entityId)) {
-            ordersIdToCPU.add(processingNodeId);
-        } else if (isExec(entityId)) {
-            execsIdToCPU.add(processingNodeId);
-        }
-    }
-
-    @Override
-    public void removeEntityFromProcessingNode(int entityId, int processingNodeId) {
-        entities.get(entityId).resetcpuId();
-        if (isFilter(entityId)) {
-            filtersIdToCPU.remove(new Integer(processingNodeId));
-        } else if (isOrder(entityId)) {
-            ordersIdToCPU.remove(new Integer(processingNodeId));
-        } else if (isExec(entityId)) {
-            execsIdToCPU.remove(new Integer(processingNodeId));
-        }
-    }
-
-    @Override
-    public boolean repartitionWillBeValid(int entityId, int processingNodeId) {
-        assert(0 <= entityId && entityId < nbEntities);
-        if (isFilter(entityId)) {
-            int size = filtersIdToCPU.size();
-            if (size > 0) {
-                return filtersIdToCPU.get(size-1) < processingNodeId && !filtersIdToCPU.contains(processingNodeId);
-            }
-            return true;
-        } else if (isOrder(entityId)) {
-            if (entityId == 0) // The primary has a special role
-                return !ordersIdToCPU.contains(processingNodeId);
-            else {
-                int size = ordersIdToCPU.size();
-                if (size > 1) { // it is necessary not to compare to the primary
-                    return ordersIdToCPU.get(size-1) < processingNodeId && !ordersIdToCPU.contains(processingNodeId);
-                } else {
-                    return !ordersIdToCPU.contains(processingNodeId);
-                }
-
-            }
-        } else if (isExec(entityId)) {
-            int size = execsIdToCPU.size();
-            if (size > 0) {
-                return execsIdToCPU.get(size-1) < processingNodeId && !execsIdToCPU.contains(processingNodeId);
-            }
-            return true;
-        } else if (isClient(entityId)) { // The client can be placed on any other machine
-            return true;
-        }
-        return false;
+    public void broadcastMessageToFilters(int srcEntityId, double msgSizeInBytes) {
+        broadcastMessageToFilters(srcEntityId, msgSizeInBytes, 1);
     }
 
-    public void broadcastMessageToFilters(int srcEntityId, double msgSizeInBytes) {
+    public void broadcastMessageToFilters(int srcEntityId, double msgSizeInBytes, double multiplicity) {
         for (int entityId = firstFilterId; entityId <= firstFilterId + nbFilters; ++entityId) {
-            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes));
+            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes, multiplicity));
         }
     }
 
     public void broadcastMessageToOrders(int srcEntityId, double msgSizeInBytes) {
+        broadcastMessageToOrders(srcEntityId, msgSizeInBytes, 1);
+    }
+
+    public void broadcastMessageToOrders(int srcEntityId, double msgSizeInBytes, double multiplicity) {
         for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
-            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes));
+            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes, multiplicity));
         }
     }
 
     public void broadcastMessageToExecs(int srcEntityId, double msgSizeInBytes) {
+        broadcastMessageToExecs(srcEntityId, msgSizeInBytes, 1);
+    }
+
+    public void broadcastMessageToExecs(int srcEntityId, double msgSizeInBytes, double multiplicity) {
         for (int entityId = firstExecId; entityId < firstExecId + nbExecs; ++entityId) {
-            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes));
+            addCommunication(new Communication(srcEntityId, entityId, msgSizeInBytes, multiplicity));
         }
     }
 
     public void filtersExecuteProcessing(double processingCost) {
+        filtersExecuteProcessing(processingCost, 1);
+    }
+
+    public void filtersExecuteProcessing(double processingCost, double multiplicity) {
         for (int entityId = firstFilterId; entityId < firstFilterId + nbFilters; ++entityId) {
-            addProcessing(new Processing(entityId, processingCost));
+            addProcessing(new Processing(entityId, processingCost, multiplicity));
         }
     }
 
     public void ordersExecuteProcessing(double processingCost) {
+        ordersExecuteProcessing(processingCost, 1);
+    }
+
+    public void ordersExecuteProcessing(double processingCost, double multiplicity) {
         for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
-            addProcessing(new Processing(entityId, processingCost));
+            addProcessing(new Processing(entityId, processingCost, multiplicity));
         }
     }
 
     public void execsExecuteProcessing(double processingCost) {
+        execsExecuteProcessing(processingCost, 1);
+    }
+
+    public void execsExecuteProcessing(double processingCost, double multiplicity) {
         for (int entityId = firstExecId; entityId < firstExecId + nbExecs; ++entityId) {
-            addProcessing(new Processing(entityId, processingCost));
+            addProcessing(new Processing(entityId, processingCost, multiplicity));
         }
     }
 
+    // Only the messages from and to the client entities depend on the client entity, the other ones are added once for
+    // all the clients. The messages of the agreement are sent once per batch of requests, nbClients / nbRequestsInBatch times.
     public void addCommunicationsUpright() {
+        int nbClients = getNbClients();
+        double nbClientsPerEntity = (double) nbClients / (nbEntities - firstClientId);
         for (int clientId = firstClientId; clientId < nbEntities; ++clientId) {
             // The request is sent from the client to the filter nodes
-            broadcastMessageToFilters(clientId, sizeReqBytes);
-
-            // The filters send the request to all order nodes
-            for (int entityId = firstFilterId; entityId < firstFilterId + nbFilters; ++entityId) {
-                broadcastMessageToOrders(entityId, sizeReqBytes);
-            }
-            // The primary sends a pre-prepare to all order nodes
-            broadcastMessageToOrders(firstOrderId, sizePrePrepareBytes / nbRequestsInBatch);
-            // The order nodes send a prepare to all order nodes
-            for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
-                broadcastMessageToOrders(entityId, sizePrepareBytes / nbRequestsInBatch);
-            }
-            // The order nodes send a commit to all order nodes
-            for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
-                broadcastMessageToOrders(entityId, sizeCommitBytes / nbRequestsInBatch);
-            }
-            // The order nodes send the ordered batch to all exec nodes 
-            for (int entityId = firstExecId; entityId < firstExecId + nbExecs; ++entityId) {
-                broadcastMessageToExecs(entityId, sizeOrderedBatchBytes / nbRequestsInBatch);
-            }
+            broadcastMessageToFilters(clientId, sizeReqBytes, nbClientsPerEntity);
 
             // The answer is sent to the client from the exec nodes.
             for (int entityId = firstExecId; entityId < firstExecId + nbExecs; ++entityId) {
-                addCommunication(new Communication(entityId, clientId, sizeRepBytes));
+                addCommunication(new Communication(entityId, clientId, sizeRepBytes, nbClientsPerEntity));
             }
         }
+
+        // The filters send the request to all order nodes
+        for (int entityId = firstFilterId; entityId < firstFilterId + nbFilters; ++entityId) {
+            broadcastMessageToOrders(entityId, sizeReqBytes, nbClients);
+        }
+        // The primary sends a pre-prepare to all order nodes
+        broadcastMessageToOrders(firstOrderId, sizePrePrepareBytes, nbClients / nbRequestsInBatch);
+        // The order nodes send a prepare to all order nodes
+        for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
+            broadcastMessageToOrders(entityId, sizePrepareBytes, nbClients / nbRequestsInBatch);
+        }
+        // The order nodes send a commit to all order nodes
+        for (int entityId = firstOrderId; entityId < firstOrderId + nbOrders; ++entityId) {
+            broadcastMessageToOrders(entityId, sizeCommitBytes, nbClients / nbRequestsInBatch);
+        }
+        // The order nodes send the ordered batch to all exec nodes 
+        for (int entityId = firstExecId; entityId < firstExecId + nbExecs; ++entityId) {
+            broadcastMessageToExecs(entityId, sizeOrderedBatchBytes, nbClients / nbRequestsInBatch);
+        }
+    }
+
+    // The path of a request. A request is sent in a batch, so the pre-prepare and the ordered batch carry a whole batch.
+    // Order nodes wait for the requests of u+1 filters, for the prepares and commits of a quorum of nbOrders-u order
+    // nodes, execs wait for the batch of u+1 order nodes and the client for u+1 replies. The clients are
+    // interchangeable and their requests all go through the same phases, so the path of the first client stands for
+    // all of them.
+    @Override
+    public ArrayList<CriticalPath> getCriticalPaths() {
+        int[] filtersId = getIdsRange(firstFilterId, nbFilters);
+        int[] ordersId = getIdsRange(firstOrderId, nbOrders);
+        int[] execsId = getIdsRange(firstExecId, nbExecs);
+        int[] primaryId = { firstOrderId };
+
+        int[] clientsId = { firstClientId };
+        CriticalPath criticalPath = new CriticalPath();
+        criticalPath.addPhase(new Phase(clientsId, filtersId, sizeReqBytes, 1, send_req, receive_req + computeMAC));
+        criticalPath.addPhase(new Phase(filtersId, ordersId, sizeReqBytes, u + 1, send_req, (u + 1) * (receive_req + computeMAC)));
+        criticalPath.addPhase(new Phase(primaryId, ordersId, sizePrePrepareBytes, 1, nbOrders * (computeMAC + send_pp), receive_pp + 2*computeMAC));
+        criticalPath.addPhase(new Phase(ordersId, ordersId, sizePrepareBytes, nbOrders - u, send_prepare, (nbOrders - u) * (receive_prepare + computeMAC)));
+        criticalPath.addPhase(new Phase(ordersId, ordersId, sizeCommitBytes, nbOrders - u, send_commit, (nbOrders - u) * (receive_commit + computeMAC)));
+        criticalPath.addPhase(new Phase(ordersId, execsId, sizeOrderedBatchBytes, u + 1, nbExecs * (computeMAC + send_batch), 
+                receive_batch + (u + 1) * computeMAC + execute_batch));
+        criticalPath.addPhase(new Phase(execsId, clientsId, sizeRepBytes, u + 1, send_reply, 0));
+
+        ArrayList<CriticalPath> criticalPaths = new ArrayList<CriticalPath>();
+        criticalPaths.add(criticalPath);
+        return criticalPaths;
     }
 
+    private int[] getIdsRange(int firstId, int nbIds) {
+        int[] ids = new int[nbIds];
+        for (int i = 0; i < nbIds; ++i)
+            ids[i] = firstId + i;
+        return ids;
+    }
+
+    // The processings do not depend on the client: they are added once for all the clients
     public void addProcessingsUpright() {
-        for (int clientId = firstClientId; clientId < nbEntities; ++clientId) {
-            // Filters receive the request from the client
-            filtersExecuteProcessing(receive_req + computeMAC + send_req);
-            // Filters send the request to the primary
-            ordersExecuteProcessing(receive_req + (nbOrders+1) * computeMAC + send_req * nbOrders);
-            // The primary receives the requests and sent it to all other nodes (message is discarded from the other order nodes)
-            ordersExecuteProcessing(nbFilters * (receive_req + computeMAC));
-            addProcessing(new Processing(firstOrderId, nbOrders * (computeMAC + send_pp)));
-            // Orders receive the preprepare message and send a prepare message
-            ordersExecuteProcessing(nbOrders * (receive_pp + 2*computeMAC + send_prepare));
-            // Orders receive the prepare message and send a commit message
-            ordersExecuteProcessing(nbOrders * (receive_prepare + 2*computeMAC + send_commit));
-            // Orders receive the commit message and send an ordered batch of messages to the exec nodes
-            ordersExecuteProcessing(nbOrders * (receive_commit + computeMAC) + nbExecs * (computeMAC + send_batch));
-            // Execs receive the batch and treat it
-            execsExecuteProcessing(receive_batch + nbOrders * computeMAC + execute_batch + send_reply);
-            // TODO: The client's processing are not taken into account here. 
-        }
+        int nbClients = getNbClients();
+        // Filters receive the request from the client
+        filtersExecuteProcessing(receive_req + computeMAC + send_req, nbClients);
+        // Filters send the request to the primary
+        ordersExecuteProcessing(receive_req + (nbOrders+1) * computeMAC + send_req * nbOrders, nbClients);
+        // The primary receives the requests and sent it to all other nodes (message is discarded from the other order nodes)
+        ordersExecuteProcessing(nbFilters * (receive_req + computeMAC), nbClients);
+        addProcessing(new Processing(firstOrderId, nbOrders * (computeMAC + send_pp), nbClients));
+        // Orders receive the preprepare message and send a prepare message
+        ordersExecuteProcessing(nbOrders * (receive_pp + 2*computeMAC + send_prepare), nbClients);
+        // Orders receive the prepare message and send a commit message
+        ordersExecuteProcessing(nbOrders * (receive_prepare + 2*computeMAC + send_commit), nbClients);
+        // Orders receive the commit message and send an ordered batch of messages to the exec nodes
+        ordersExecuteProcessing(nbOrders * (receive_commit + computeMAC) + nbExecs * (computeMAC + send_batch), nbClients);
+        // Execs receive the batch and treat it
+        execsExecuteProcessing(receive_batch + nbOrders * computeMAC + execute_batch + send_reply, nbClients);
+        // TODO: The client's processing are not taken into account here. 
     }
 
 }
@@ -0,0 +1,109 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of events stored in primitive arrays. Events of the same time are popped in the order they were
+ * pushed, so that a simulation is deterministic.
+ */
+class EventQueue {
+
+    private double[] times;
+    private long[] sequenceNumbers;
+    private int[] types;
+    private int[] ids;
+    private int size;
+    private long nbPushed;
+
+    // The last popped event
+    private double time;
+    private int type;
+    private int id;
+
+    EventQueue() {
+        times = new double[1024];
+        sequenceNumbers = new long[times.length];
+        types = new int[times.length];
+        ids = new int[times.length];
+        size = 0;
+        nbPushed = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+        nbPushed = 0;
+    }
+
+    void push(double eventTime, int eventType, int eventId) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, 2 * size);
+            sequenceNumbers = Arrays.copyOf(sequenceNumbers, 2 * size);
+            types = Arrays.copyOf(types, 2 * size);
+            ids = Arrays.copyOf(ids, 2 * size);
+        }
+        long sequenceNumber = nbPushed++;
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (times[parent] < eventTime || (times[parent] == eventTime && sequenceNumbers[parent] < sequenceNumber))
+                break;
+            set(i, parent);
+            i = parent;
+        }
+        times[i] = eventTime;
+        sequenceNumbers[i] = sequenceNumber;
+        types[i] = eventType;
+        ids[i] = eventId;
+    }
+
+    // Remove the first event, which is then given by getTime, getType and getId
+    void pop() {
+        assert(size > 0);
+        time = times[0];
+        type = types[0];
+        id = ids[0];
+
+        --size;
+        double lastTime = times[size];
+        long lastSequenceNumber = sequenceNumbers[size];
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && isBefore(child + 1, child))
+                ++child;
+            if (times[child] > lastTime || (times[child] == lastTime && sequenceNumbers[child] > lastSequenceNumber))
+                break;
+            set(i, child);
+            i = child;
+        }
+        set(i, size);
+    }
+
+    double getTime() {
+        return time;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    private boolean isBefore(int i, int j) {
+        return times[i] < times[j] || (times[i] == times[j] && sequenceNumbers[i] < sequenceNumbers[j]);
+    }
+
+    private void set(int i, int j) {
+        times[i] = times[j];
+        sequenceNumbers[i] = sequenceNumbers[j];
+        types[i] = types[j];
+        ids[i] = ids[j];
+    }
+
+}
@@ -0,0 +1,51 @@
+package simulation;
+
+/**
+ * A FIFO queue of ints in a growable ring buffer.
+ */
+class IntFifo {
+
+    private int[] values;
+    private int head;
+    private int size;
+
+    IntFifo() {
+        values = new int[16];
+        head = 0;
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            int[] newValues = new int[2 * values.length];
+            for (int i = 0; i < size; ++i)
+                newValues[i] = values[(head + i) % values.length];
+            values = newValues;
+            head = 0;
+        }
+        values[(head + size) % values.length] = value;
+        ++size;
+    }
+
+    int poll() {
+        assert(size > 0);
+        int value = values[head];
+        head = (head + 1) % values.length;
+        --size;
+        return value;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+}
@@ -0,0 +1,39 @@
+package simulation;
+
+/**
+ * Gives ids to records stored in arrays, and recycles the ids of the freed records. A new id is the number of ids
+ * given so far, the arrays have to grow when it reaches their length.
+ */
+class Pool {
+
+    private int[] freeIds;
+    private int nbFreeIds;
+    private int nbIds;
+
+    Pool() {
+        freeIds = new int[16];
+        nbFreeIds = 0;
+        nbIds = 0;
+    }
+
+    int allocate() {
+        if (nbFreeIds > 0)
+            return freeIds[--nbFreeIds];
+        return nbIds++;
+    }
+
+    void free(int id) {
+        if (nbFreeIds == freeIds.length) {
+            int[] newFreeIds = new int[2 * freeIds.length];
+            System.arraycopy(freeIds, 0, newFreeIds, 0, nbFreeIds);
+            freeIds = newFreeIds;
+        }
+        freeIds[nbFreeIds++] = id;
+    }
+
+    void clear() {
+        nbFreeIds = 0;
+        nbIds = 0;
+    }
+
+}
@@ -0,0 +1,735 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import protocol.CompiledProtocol;
+import protocol.CriticalPath;
+import protocol.Phase;
+import protocol.Protocol;
+import architecture.Architecture;
+import architecture.CompiledArchitecture;
+
+/**
+ * A discrete-event simulation of a protocol deployed with a given repartition. Each critical path of the protocol
+ * is a closed loop source that keeps a fixed number of requests in flight. The messages of a request are sent hop by
+ * hop on the links of their path, and its processings are executed on the cores of the CPUs of the entities. Each link
+ * and each CPU is a FIFO server, so queueing is taken into account, unlike in the analytical model. A switch with a
+ * forwarding capacity is a FIFO server for the bytes followed by one for the messages, each limited by its capacity.
+ *
+ * A receiver of a phase processes once the messages of a quorum of senders have arrived, the messages that arrive
+ * later still use the links. An entity sends the messages of a phase when it has processed the last previous phase
+ * it receives, or at the beginning of the request if there is none (as in LatencyEvaluator). A request is completed
+ * when the receivers of its last phase are done, but its slot only issues the next request once all its processings
+ * and messages are done, the ones of the slowest replicas included.
+ *
+ * A request costs each entity and each couple of entities what the compiled protocol costs them per request, as in
+ * the analytical model, the critical paths being taken equally often. Where the critical paths cost more, as for a
+ * message sent once per batch of requests, their processings and messages are scaled down, and a message counts for
+ * a fraction of a message at the switches. The cost they do not cover, as the messages beyond the quorums, is spent
+ * by background processings and messages issued at the beginning of the request, which the request does not wait for.
+ *
+ * All the state is kept in primitive arrays, and the messages and processings are recycled, so that no allocation
+ * happens during a simulation once the pools have grown.
+ */
+public class Simulation {
+
+    private static final int EVENT_CPU_DONE = 0, EVENT_LINK_DONE = 1, EVENT_ARRIVAL = 2, EVENT_SWITCH_DONE = 3;
+    private static final int BACKGROUND = -1; // Phase of the background processings and messages
+
+    private final CompiledArchitecture compiledArchitecture;
+    private final int nbCPUs, nbLinks, nbSwitches;
+    private final int[] switchAfterLink; // Switch with a forwarding capacity the link goes to, -1 if none
+    private final int[] cpuIndexOfEntity;
+
+    // Phases of all the critical paths, with entity indices
+    private final int nbPaths;
+    private final int[] lastPhaseOfPath;
+    private final int[][] senders, receivers;
+    private final double[][] msgSizesBytes; // For each sender position s and receiver position r: s * nbReceivers + r
+    private final double[][] msgWeights; // Number of messages each message counts for at the switches, same positions
+    private final int[] quorums;
+    private final double[][] nbCyclesBeforeSending, nbCyclesAfterReceiving; // For each sender or receiver position
+    private final int[] countersOffset; // Position of the counters of the receivers of the phase in the counters of a request
+    private final int nbCountersPerRequest;
+    // The phases triggered when the receiver at position r of phase k is done: triggeredPhases[k][r], with the position of the sender
+    private final int[][][] triggeredPhases, triggeredSenders;
+    // The phases whose senders do not wait for any previous phase of their path
+    private final int[][] initialPhases, initialSenders;
+
+    // Cost of a request that is not on its critical path
+    private final double[] backgroundCycles; // For each CPU
+    private final int[] backgroundSrcCPU, backgroundDstCPU; // Couples of distinct CPUs
+    private final double[] backgroundBytes, backgroundMessages;
+
+    // Requests, one slot for each request in flight
+    private int nbSlots;
+    private int[] pathOfSlot;
+    private int[] nbPendingOfSlot; // Processings and messages of the request of the slot that are not done yet
+    private boolean[] slotIsCompleted;
+    private double[] startTimeOfSlot;
+    private int[] nbReceivedMessages; // For each slot and each receiver of each phase
+    private int[] nbDoneLastReceivers;
+
+    // Processings (jobs) and messages in progress, recycled
+    private final Pool jobs, messages;
+    private int[] jobSlot, jobPhase, jobPosition, jobCPU;
+    private boolean[] jobIsSending;
+    private double[] jobDuration;
+    private int[] msgSlot, msgPhase, msgReceiverPosition, msgPathPosition, msgPathEnd;
+    private double[] msgSizeBytes, msgWeight;
+    private int[] msgSwitchServer; // Switch server the message is queued on or forwarded by
+
+    // Resources
+    private final int[] nbCores;
+    private final int[] nbBusyCores;
+    private final IntFifo[] cpuQueues;
+    private final double[] cpuBusyTime;
+    private final boolean[] linkIsBusy;
+    private final IntFifo[] linkQueues;
+    private final double[] linkBusyTime;
+    // Switch servers: 2 * switchIndex forwards the bytes, 2 * switchIndex + 1 the messages
+    private final boolean[] switchIsBusy;
+    private final IntFifo[] switchQueues;
+    private final double[] switchBusyTime;
+
+    private final EventQueue events;
+    private double now;
+    private boolean isMeasuring;
+
+    // Results
+    private double measureStartTime, measureEndTime;
+    private long nbCompletedRequests;
+    private double[] latencies;
+    private long nbEvents;
+    private double wallClockSeconds;
+
+    public Simulation(Architecture architecture, Protocol protocol, HashMap<Integer, Integer> repartition) { // entityId to cpuId
+        compiledArchitecture = new CompiledArchitecture(architecture);
+        CompiledProtocol compiledProtocol = protocol.compile(protocol.getEntitiesIdSet().toArray(new Integer[1]));
+        nbCPUs = compiledArchitecture.getNbProcessingNodes();
+        nbLinks = compiledArchitecture.getNbLinks();
+        nbSwitches = compiledArchitecture.getNbSwitches();
+        HashMap<Integer, Integer> switchIndex = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nbSwitches; ++i)
+            switchIndex.put(compiledArchitecture.getSwitchId(i), i);
+        switchAfterLink = new int[nbLinks];
+        for (int link = 0; link < nbLinks; ++link) {
+            Integer index = switchIndex.get(compiledArchitecture.getLinkDstNodeId(link));
+            switchAfterLink[link] = (index == null) ? -1 : index;
+        }
+        cpuIndexOfEntity = new int[compiledProtocol.getNbEntities()];
+        for (int i = 0; i < cpuIndexOfEntity.length; ++i) {
+            assert(repartition.containsKey(compiledProtocol.getEntityId(i)));
+            cpuIndexOfEntity[i] = compiledArchitecture.getProcessingNodeIndex(repartition.get(compiledProtocol.getEntityId(i)));
+        }
+
+        ArrayList<CriticalPath> criticalPaths = protocol.getCriticalPaths();
+        if (criticalPaths.isEmpty())
+            throw new IllegalArgumentException("The protocol cannot be simulated: it has no critical path");
+        nbPaths = criticalPaths.size();
+        int nbPhases = 0;
+        for (CriticalPath criticalPath : criticalPaths)
+            nbPhases += criticalPath.getPhases().size();
+        lastPhaseOfPath = new int[nbPaths];
+        senders = new int[nbPhases][];
+        receivers = new int[nbPhases][];
+        double[] phaseMsgSizeBytes = new double[nbPhases];
+        quorums = new int[nbPhases];
+        double[] phaseCyclesBeforeSending = new double[nbPhases], phaseCyclesAfterReceiving = new double[nbPhases];
+        countersOffset = new int[nbPhases];
+        triggeredPhases = new int[nbPhases][][];
+        triggeredSenders = new int[nbPhases][][];
+        initialPhases = new int[nbPaths][];
+        initialSenders = new int[nbPaths][];
+
+        int phase = 0, maxNbCounters = 0;
+        for (int path = 0; path < nbPaths; ++path) {
+            int firstPhase = phase, nbCounters = 0;
+            for (Phase pathPhase : criticalPaths.get(path).getPhases()) {
+                senders[phase] = getEntitiesIndex(compiledProtocol, pathPhase.getSendersId());
+                receivers[phase] = getEntitiesIndex(compiledProtocol, pathPhase.getReceiversId());
+                phaseMsgSizeBytes[phase] = pathPhase.getMsgSizeBytes();
+                quorums[phase] = pathPhase.getQuorum();
+                phaseCyclesBeforeSending[phase] = pathPhase.getNbCyclesBeforeSending();
+                phaseCyclesAfterReceiving[phase] = pathPhase.getNbCyclesAfterReceiving();
+                countersOffset[phase] = nbCounters;
+                nbCounters += receivers[phase].length;
+                ++phase;
+            }
+            lastPhaseOfPath[path] = phase - 1;
+            maxNbCounters = Math.max(maxNbCounters, nbCounters);
+            computeTriggers(path, firstPhase, phase);
+        }
+        nbCountersPerRequest = maxNbCounters;
+
+        // Cost of a request on the critical paths and in the compiled protocol, for each entity and each couple of entities
+        int nbEntities = compiledProtocol.getNbEntities();
+        double nbClients = compiledProtocol.getNbClients();
+        HashMap<Long, Integer> pairIndex = new HashMap<Long, Integer>();
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair)
+            pairIndex.put(getPairKey(compiledProtocol.getPairSrc(pair), compiledProtocol.getPairDst(pair)), pair);
+        double[] pathCycles = new double[nbEntities];
+        double[] pathBytes = new double[compiledProtocol.getNbPairs()];
+        double[] pathMessages = new double[compiledProtocol.getNbPairs()];
+        for (phase = 0; phase < nbPhases; ++phase) {
+            for (int sender : senders[phase])
+                pathCycles[sender] += phaseCyclesBeforeSending[phase] / nbPaths;
+            for (int receiver : receivers[phase]) {
+                pathCycles[receiver] += phaseCyclesAfterReceiving[phase] / nbPaths;
+                for (int sender : senders[phase]) {
+                    Integer pair = pairIndex.get(getPairKey(sender, receiver));
+                    if (pair != null) {
+                        pathBytes[pair] += phaseMsgSizeBytes[phase] / nbPaths;
+                        pathMessages[pair] += 1.0 / nbPaths;
+                    }
+                }
+            }
+        }
+
+        double[] cyclesScale = new double[nbEntities];
+        backgroundCycles = new double[nbCPUs];
+        for (int i = 0; i < nbEntities; ++i) {
+            double cycles = compiledProtocol.getCPULoad(i) / nbClients;
+            cyclesScale[i] = (pathCycles[i] > cycles) ? cycles / pathCycles[i] : 1;
+            if (cycles > pathCycles[i] * (1 + 1e-9))
+                backgroundCycles[cpuIndexOfEntity[i]] += cycles - pathCycles[i];
+        }
+        double[] bytesScale = new double[compiledProtocol.getNbPairs()];
+        double[] messagesScale = new double[compiledProtocol.getNbPairs()];
+        double[] bytesBetweenCPUs = new double[nbCPUs * nbCPUs];
+        double[] messagesBetweenCPUs = new double[nbCPUs * nbCPUs];
+        for (int pair = 0; pair < compiledProtocol.getNbPairs(); ++pair) {
+            double bytes = compiledProtocol.getPairBytes(pair) / nbClients;
+            double nbMessages = compiledProtocol.getPairMessages(pair) / nbClients;
+            bytesScale[pair] = (pathBytes[pair] > bytes) ? bytes / pathBytes[pair] : 1;
+            messagesScale[pair] = (pathMessages[pair] > nbMessages) ? nbMessages / pathMessages[pair] : 1;
+            int srcCPU = cpuIndexOfEntity[compiledProtocol.getPairSrc(pair)];
+            int dstCPU = cpuIndexOfEntity[compiledProtocol.getPairDst(pair)];
+            if (compiledArchitecture.getPathStart(srcCPU, dstCPU) != compiledArchitecture.getPathEnd(srcCPU, dstCPU)) {
+                if (bytes > pathBytes[pair] * (1 + 1e-9))
+                    bytesBetweenCPUs[srcCPU * nbCPUs + dstCPU] += bytes - pathBytes[pair];
+                if (nbMessages > pathMessages[pair] * (1 + 1e-9))
+                    messagesBetweenCPUs[srcCPU * nbCPUs + dstCPU] += nbMessages - pathMessages[pair];
+            }
+        }
+        int nbBackgroundMessages = 0;
+        for (int couple = 0; couple < bytesBetweenCPUs.length; ++couple) {
+            if (bytesBetweenCPUs[couple] > 0 || messagesBetweenCPUs[couple] > 0)
+                ++nbBackgroundMessages;
+        }
+        backgroundSrcCPU = new int[nbBackgroundMessages];
+        backgroundDstCPU = new int[nbBackgroundMessages];
+        backgroundBytes = new double[nbBackgroundMessages];
+        backgroundMessages = new double[nbBackgroundMessages];
+        nbBackgroundMessages = 0;
+        for (int couple = 0; couple < bytesBetweenCPUs.length; ++couple) {
+            if (bytesBetweenCPUs[couple] > 0 || messagesBetweenCPUs[couple] > 0) {
+                backgroundSrcCPU[nbBackgroundMessages] = couple / nbCPUs;
+                backgroundDstCPU[nbBackgroundMessages] = couple % nbCPUs;
+                backgroundBytes[nbBackgroundMessages] = bytesBetweenCPUs[couple];
+                backgroundMessages[nbBackgroundMessages++] = messagesBetweenCPUs[couple];
+            }
+        }
+
+        msgSizesBytes = new double[nbPhases][];
+        msgWeights = new double[nbPhases][];
+        nbCyclesBeforeSending = new double[nbPhases][];
+        nbCyclesAfterReceiving = new double[nbPhases][];
+        for (phase = 0; phase < nbPhases; ++phase) {
+            int nbSenders = senders[phase].length, nbReceivers = receivers[phase].length;
+            msgSizesBytes[phase] = new double[nbSenders * nbReceivers];
+            msgWeights[phase] = new double[nbSenders * nbReceivers];
+            nbCyclesBeforeSending[phase] = new double[nbSenders];
+            nbCyclesAfterReceiving[phase] = new double[nbReceivers];
+            for (int s = 0; s < nbSenders; ++s) {
+                nbCyclesBeforeSending[phase][s] = phaseCyclesBeforeSending[phase] * cyclesScale[senders[phase][s]];
+                for (int r = 0; r < nbReceivers; ++r) {
+                    Integer pair = pairIndex.get(getPairKey(senders[phase][s], receivers[phase][r]));
+                    msgSizesBytes[phase][s * nbReceivers + r] = (pair == null) ? 0 : phaseMsgSizeBytes[phase] * bytesScale[pair];
+                    msgWeights[phase][s * nbReceivers + r] = (pair == null) ? 0 : messagesScale[pair];
+                }
+            }
+            for (int r = 0; r < nbReceivers; ++r)
+                nbCyclesAfterReceiving[phase][r] = phaseCyclesAfterReceiving[phase] * cyclesScale[receivers[phase][r]];
+        }
+
+        jobs = new Pool();
+        messages = new Pool();
+        growJobs(1024);
+        growMessages(1024);
+
+        nbCores = new int[nbCPUs];
+        nbBusyCores = new int[nbCPUs];
+        cpuQueues = new IntFifo[nbCPUs];
+        cpuBusyTime = new double[nbCPUs];
+        for (int i = 0; i < nbCPUs; ++i) {
+            nbCores[i] = (int) Math.round(compiledArchitecture.getCPUCapacity(i) / compiledArchitecture.getCPUFreq(i));
+            cpuQueues[i] = new IntFifo();
+        }
+        linkIsBusy = new boolean[nbLinks];
+        linkQueues = new IntFifo[nbLinks];
+        linkBusyTime = new double[nbLinks];
+        for (int i = 0; i < nbLinks; ++i)
+            linkQueues[i] = new IntFifo();
+        switchIsBusy = new boolean[2 * nbSwitches];
+        switchQueues = new IntFifo[2 * nbSwitches];
+        switchBusyTime = new double[2 * nbSwitches];
+        for (int i = 0; i < 2 * nbSwitches; ++i)
+            switchQueues[i] = new IntFifo();
+
+        events = new EventQueue();
+        latencies = new double[1024];
+    }
+
+    private static int[] getEntitiesIndex(CompiledProtocol compiledProtocol, int[] entitiesId) {
+        int[] entitiesIndex = new int[entitiesId.length];
+        for (int i = 0; i < entitiesId.length; ++i)
+            entitiesIndex[i] = compiledProtocol.getEntityIndex(entitiesId[i]);
+        return entitiesIndex;
+    }
+
+    private static long getPairKey(int src, int dst) { // Entity indices
+        return ((long) src << 32) | dst;
+    }
+
+    // A sender of a phase waits for the last previous phase of the path in which it is a receiver
+    private void computeTriggers(int path, int firstPhase, int endPhase) {
+        ArrayList<ArrayList<ArrayList<Integer>>> triggers = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        for (int phase = firstPhase; phase < endPhase; ++phase) {
+            ArrayList<ArrayList<Integer>> phaseTriggers = new ArrayList<ArrayList<Integer>>();
+            for (int r = 0; r < receivers[phase].length; ++r)
+                phaseTriggers.add(new ArrayList<Integer>());
+            triggers.add(phaseTriggers);
+        }
+        ArrayList<Integer> initials = new ArrayList<Integer>();
+        for (int phase = firstPhase; phase < endPhase; ++phase) {
+            for (int s = 0; s < senders[phase].length; ++s) {
+                int triggerPhase = -1, triggerPosition = -1;
+                for (int previous = phase - 1; previous >= firstPhase && triggerPhase == -1; --previous) {
+                    for (int r = 0; r < receivers[previous].length; ++r) {
+                        if (receivers[previous][r] == senders[phase][s]) {
+                            triggerPhase = previous;
+                            triggerPosition = r;
+                            break;
+                        }
+                    }
+                }
+                if (triggerPhase == -1) {
+                    initials.add(phase);
+                    initials.add(s);
+                } else {
+                    triggers.get(triggerPhase - firstPhase).get(triggerPosition).add(phase);
+                    triggers.get(triggerPhase - firstPhase).get(triggerPosition).add(s);
+                }
+            }
+        }
+
+        for (int phase = firstPhase; phase < endPhase; ++phase) {
+            triggeredPhases[phase] = new int[receivers[phase].length][];
+            triggeredSenders[phase] = new int[receivers[phase].length][];
+            for (int r = 0; r < receivers[phase].length; ++r) {
+                ArrayList<Integer> phaseTriggers = triggers.get(phase - firstPhase).get(r);
+                triggeredPhases[phase][r] = new int[phaseTriggers.size() / 2];
+                triggeredSenders[phase][r] = new int[phaseTriggers.size() / 2];
+                for (int i = 0; i < phaseTriggers.size() / 2; ++i) {
+                    triggeredPhases[phase][r][i] = phaseTriggers.get(2 * i);
+                    triggeredSenders[phase][r][i] = phaseTriggers.get(2 * i + 1);
+                }
+            }
+        }
+        initialPhases[path] = new int[initials.size() / 2];
+        initialSenders[path] = new int[initials.size() / 2];
+        for (int i = 0; i < initials.size() / 2; ++i) {
+            initialPhases[path][i] = initials.get(2 * i);
+            initialSenders[path][i] = initials.get(2 * i + 1);
+        }
+    }
+
+    // Simulate with nbOutstandingRequests requests in flight for each critical path. Times are in simulated seconds,
+    // the results only cover the requests completed after the warmup.
+    public void run(int nbOutstandingRequests, double warmupTime, double duration) {
+        assert(nbOutstandingRequests > 0 && warmupTime >= 0 && duration > 0);
+        long wallClockStart = System.nanoTime();
+        reset(nbOutstandingRequests);
+
+        for (int slot = 0; slot < nbSlots; ++slot)
+            issueRequest(slot);
+
+        double endTime = warmupTime + duration;
+        while (!events.isEmpty()) {
+            events.pop();
+            if (events.getTime() > endTime)
+                break;
+            now = events.getTime();
+            if (!isMeasuring && now >= warmupTime)
+                startMeasure();
+            ++nbEvents;
+
+            int id = events.getId();
+            switch (events.getType()) {
+            case EVENT_CPU_DONE:
+                onCPUDone(id);
+                break;
+            case EVENT_LINK_DONE:
+                onLinkDone(id);
+                break;
+            case EVENT_ARRIVAL:
+                onArrival(id);
+                break;
+            case EVENT_SWITCH_DONE:
+                onSwitchDone(id);
+                break;
+            }
+        }
+        now = endTime;
+        if (!isMeasuring)
+            startMeasure();
+        measureEndTime = endTime;
+        wallClockSeconds = (System.nanoTime() - wallClockStart) / 1e9;
+    }
+
+    private void reset(int nbOutstandingRequests) {
+        nbSlots = nbPaths * nbOutstandingRequests;
+        pathOfSlot = new int[nbSlots];
+        nbPendingOfSlot = new int[nbSlots];
+        slotIsCompleted = new boolean[nbSlots];
+        startTimeOfSlot = new double[nbSlots];
+        nbReceivedMessages = new int[nbSlots * nbCountersPerRequest];
+        nbDoneLastReceivers = new int[nbSlots];
+        for (int slot = 0; slot < nbSlots; ++slot)
+            pathOfSlot[slot] = slot / nbOutstandingRequests;
+
+        jobs.clear();
+        messages.clear();
+        for (int i = 0; i < nbCPUs; ++i) {
+            nbBusyCores[i] = 0;
+            cpuQueues[i].clear();
+        }
+        for (int i = 0; i < nbLinks; ++i) {
+            linkIsBusy[i] = false;
+            linkQueues[i].clear();
+        }
+        for (int i = 0; i < 2 * nbSwitches; ++i) {
+            switchIsBusy[i] = false;
+            switchQueues[i].clear();
+        }
+        events.clear();
+        now = 0;
+        isMeasuring = false;
+        nbEvents = 0;
+    }
+
+    private void startMeasure() {
+        isMeasuring = true;
+        measureStartTime = now;
+        nbCompletedRequests = 0;
+        Arrays.fill(cpuBusyTime, 0.0);
+        Arrays.fill(linkBusyTime, 0.0);
+        Arrays.fill(switchBusyTime, 0.0);
+    }
+
+    private void issueRequest(int slot) {
+        slotIsCompleted[slot] = false;
+        startTimeOfSlot[slot] = now;
+        Arrays.fill(nbReceivedMessages, slot * nbCountersPerRequest, (slot + 1) * nbCountersPerRequest, 0);
+        nbDoneLastReceivers[slot] = 0;
+        int path = pathOfSlot[slot];
+        for (int i = 0; i < initialPhases[path].length; ++i)
+            startSending(slot, initialPhases[path][i], initialSenders[path][i]);
+
+        for (int cpu = 0; cpu < nbCPUs; ++cpu) {
+            if (backgroundCycles[cpu] > 0)
+                submitJob(slot, BACKGROUND, 0, false, cpu, backgroundCycles[cpu]);
+        }
+        for (int i = 0; i < backgroundBytes.length; ++i) {
+            sendMessage(slot, BACKGROUND, 0, backgroundBytes[i], backgroundMessages[i],
+                    compiledArchitecture.getPathStart(backgroundSrcCPU[i], backgroundDstCPU[i]),
+                    compiledArchitecture.getPathEnd(backgroundSrcCPU[i], backgroundDstCPU[i]));
+        }
+    }
+
+    private void completeRequest(int slot) {
+        if (isMeasuring) {
+            if (nbCompletedRequests == latencies.length)
+                latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+            latencies[(int) nbCompletedRequests++] = now - startTimeOfSlot[slot];
+        }
+        slotIsCompleted[slot] = true;
+        if (nbPendingOfSlot[slot] == 0)
+            issueRequest(slot); // Closed loop
+    }
+
+    private void pendingDone(int slot) { // A processing or a message of the request of the slot is done
+        if (--nbPendingOfSlot[slot] == 0 && slotIsCompleted[slot])
+            issueRequest(slot);
+    }
+
+    private void startSending(int slot, int phase, int senderPosition) {
+        if (nbCyclesBeforeSending[phase][senderPosition] == 0)
+            sendMessages(slot, phase, senderPosition);
+        else
+            submitJob(slot, phase, senderPosition, true, cpuIndexOfEntity[senders[phase][senderPosition]], nbCyclesBeforeSending[phase][senderPosition]);
+    }
+
+    private void sendMessages(int slot, int phase, int senderPosition) {
+        int sender = senders[phase][senderPosition];
+        int srcCPU = cpuIndexOfEntity[sender];
+        int[] phaseReceivers = receivers[phase];
+        for (int r = 0; r < phaseReceivers.length; ++r) {
+            int dstCPU = cpuIndexOfEntity[phaseReceivers[r]];
+            int pathStart = compiledArchitecture.getPathStart(srcCPU, dstCPU);
+            int pathEnd = compiledArchitecture.getPathEnd(srcCPU, dstCPU);
+            if (phaseReceivers[r] == sender || pathStart == pathEnd) // No link to cross
+                receiveMessage(slot, phase, r);
+            else
+                sendMessage(slot, phase, r, msgSizesBytes[phase][senderPosition * phaseReceivers.length + r],
+                        msgWeights[phase][senderPosition * phaseReceivers.length + r], pathStart, pathEnd);
+        }
+    }
+
+    private void sendMessage(int slot, int phase, int receiverPosition, double sizeBytes, double weight, int pathStart, int pathEnd) {
+        int msg = messages.allocate();
+        if (msg == msgSlot.length)
+            growMessages(2 * msgSlot.length);
+        msgSlot[msg] = slot;
+        ++nbPendingOfSlot[slot];
+        msgPhase[msg] = phase;
+        msgReceiverPosition[msg] = receiverPosition;
+        msgPathPosition[msg] = pathStart;
+        msgPathEnd[msg] = pathEnd;
+        msgSizeBytes[msg] = sizeBytes;
+        msgWeight[msg] = weight;
+        enqueueOnLink(msg);
+    }
+
+    private void receiveMessage(int slot, int phase, int receiverPosition) {
+        int nbReceived = ++nbReceivedMessages[slot * nbCountersPerRequest + countersOffset[phase] + receiverPosition];
+        if (nbReceived != quorums[phase]) // Not enough messages yet, or already processed
+            return;
+        if (nbCyclesAfterReceiving[phase][receiverPosition] == 0)
+            receiverDone(slot, phase, receiverPosition);
+        else
+            submitJob(slot, phase, receiverPosition, false, cpuIndexOfEntity[receivers[phase][receiverPosition]],
+                    nbCyclesAfterReceiving[phase][receiverPosition]);
+    }
+
+    private void receiverDone(int slot, int phase, int receiverPosition) {
+        int[] phases = triggeredPhases[phase][receiverPosition];
+        int[] sendersPosition = triggeredSenders[phase][receiverPosition];
+        for (int i = 0; i < phases.length; ++i)
+            startSending(slot, phases[i], sendersPosition[i]);
+        if (phase == lastPhaseOfPath[pathOfSlot[slot]] && ++nbDoneLastReceivers[slot] == receivers[phase].length)
+            completeRequest(slot);
+    }
+
+    private void submitJob(int slot, int phase, int position, boolean isSending, int cpu, double nbCycles) {
+        int job = jobs.allocate();
+        if (job == jobSlot.length)
+            growJobs(2 * jobSlot.length);
+        jobSlot[job] = slot;
+        ++nbPendingOfSlot[slot];
+        jobPhase[job] = phase;
+        jobPosition[job] = position;
+        jobIsSending[job] = isSending;
+        jobCPU[job] = cpu;
+        jobDuration[job] = nbCycles / compiledArchitecture.getCPUFreq(cpu);
+        if (nbBusyCores[cpu] < nbCores[cpu]) {
+            ++nbBusyCores[cpu];
+            events.push(now + jobDuration[job], EVENT_CPU_DONE, job);
+        } else {
+            cpuQueues[cpu].add(job);
+        }
+    }
+
+    private void onCPUDone(int job) {
+        int cpu = jobCPU[job];
+        cpuBusyTime[cpu] += jobDuration[job];
+        if (cpuQueues[cpu].isEmpty()) {
+            --nbBusyCores[cpu];
+        } else {
+            int nextJob = cpuQueues[cpu].poll();
+            events.push(now + jobDuration[nextJob], EVENT_CPU_DONE, nextJob);
+        }
+
+        int slot = jobSlot[job];
+        if (jobPhase[job] != BACKGROUND) {
+            if (jobIsSending[job])
+                sendMessages(slot, jobPhase[job], jobPosition[job]);
+            else
+                receiverDone(slot, jobPhase[job], jobPosition[job]);
+        }
+        jobs.free(job);
+        pendingDone(slot);
+    }
+
+    private void enqueueOnLink(int msg) {
+        int link = compiledArchitecture.getPathLink(msgPathPosition[msg]);
+        if (linkIsBusy[link]) {
+            linkQueues[link].add(msg);
+        } else {
+            linkIsBusy[link] = true;
+            events.push(now + msgSizeBytes[msg] / compiledArchitecture.getLinkBandwidth(link), EVENT_LINK_DONE, msg);
+        }
+    }
+
+    private void onLinkDone(int msg) {
+        int link = compiledArchitecture.getPathLink(msgPathPosition[msg]);
+        linkBusyTime[link] += msgSizeBytes[msg] / compiledArchitecture.getLinkBandwidth(link);
+        if (linkQueues[link].isEmpty()) {
+            linkIsBusy[link] = false;
+        } else {
+            int nextMsg = linkQueues[link].poll();
+            events.push(now + msgSizeBytes[nextMsg] / compiledArchitecture.getLinkBandwidth(link), EVENT_LINK_DONE, nextMsg);
+        }
+
+        double latency = compiledArchitecture.getLinkLatency(link);
+        if (latency == 0)
+            onArrival(msg);
+        else
+            events.push(now + latency, EVENT_ARRIVAL, msg);
+    }
+
+    private void onArrival(int msg) { // The message arrives at the end of the link at msgPathPosition
+        if (msgPathPosition[msg] + 1 < msgPathEnd[msg]) {
+            int nextSwitch = switchAfterLink[compiledArchitecture.getPathLink(msgPathPosition[msg])];
+            if (nextSwitch == -1) {
+                ++msgPathPosition[msg];
+                enqueueOnLink(msg);
+            } else {
+                enqueueOnSwitch(msg, compiledArchitecture.getSwitchBytesCapacity(nextSwitch) > 0 ? 2 * nextSwitch : 2 * nextSwitch + 1);
+            }
+            return;
+        }
+        int slot = msgSlot[msg];
+        if (msgPhase[msg] != BACKGROUND)
+            receiveMessage(slot, msgPhase[msg], msgReceiverPosition[msg]);
+        messages.free(msg);
+        pendingDone(slot);
+    }
+
+    private double getForwardingTime(int msg, int server) {
+        if (server % 2 == 0)
+            return msgSizeBytes[msg] / compiledArchitecture.getSwitchBytesCapacity(server / 2);
+        return msgWeight[msg] / compiledArchitecture.getSwitchMessagesCapacity(server / 2);
+    }
+
+    private void enqueueOnSwitch(int msg, int server) {
+        msgSwitchServer[msg] = server;
+        if (switchIsBusy[server]) {
+            switchQueues[server].add(msg);
+        } else {
+            switchIsBusy[server] = true;
+            events.push(now + getForwardingTime(msg, server), EVENT_SWITCH_DONE, msg);
+        }
+    }
+
+    private void onSwitchDone(int msg) { // A server of the switch at the end of the link at msgPathPosition is done
+        int server = msgSwitchServer[msg];
+        switchBusyTime[server] += getForwardingTime(msg, server);
+        if (switchQueues[server].isEmpty()) {
+            switchIsBusy[server] = false;
+        } else {
+            int nextMsg = switchQueues[server].poll();
+            events.push(now + getForwardingTime(nextMsg, server), EVENT_SWITCH_DONE, nextMsg);
+        }
+
+        if (server % 2 == 0 && compiledArchitecture.getSwitchMessagesCapacity(server / 2) > 0) {
+            enqueueOnSwitch(msg, server + 1);
+        } else {
+            ++msgPathPosition[msg];
+            enqueueOnLink(msg);
+        }
+    }
+
+    private void growJobs(int size) {
+        int oldSize = (jobSlot == null) ? 0 : jobSlot.length;
+        jobSlot = copyOf(jobSlot, size);
+        jobPhase = copyOf(jobPhase, size);
+        jobPosition = copyOf(jobPosition, size);
+        jobCPU = copyOf(jobCPU, size);
+        jobIsSending = (oldSize == 0) ? new boolean[size] : Arrays.copyOf(jobIsSending, size);
+        jobDuration = (oldSize == 0) ? new double[size] : Arrays.copyOf(jobDuration, size);
+    }
+
+    private void growMessages(int size) {
+        msgSlot = copyOf(msgSlot, size);
+        msgPhase = copyOf(msgPhase, size);
+        msgReceiverPosition = copyOf(msgReceiverPosition, size);
+        msgPathPosition = copyOf(msgPathPosition, size);
+        msgPathEnd = copyOf(msgPathEnd, size);
+        msgSizeBytes = (msgSizeBytes == null) ? new double[size] : Arrays.copyOf(msgSizeBytes, size);
+        msgWeight = (msgWeight == null) ? new double[size] : Arrays.copyOf(msgWeight, size);
+        msgSwitchServer = copyOf(msgSwitchServer, size);
+    }
+
+    private static int[] copyOf(int[] array, int size) {
+        return (array == null) ? new int[size] : Arrays.copyOf(array, size);
+    }
+
+    public double getThroughput() { // Completed requests per second
+        return nbCompletedRequests / (measureEndTime - measureStartTime);
+    }
+
+    public long getNbCompletedRequests() {
+        return nbCompletedRequests;
+    }
+
+    public double getLatencyPercentile(double percentile) { // In seconds, percentile between 0 and 100
+        assert(0 <= percentile && percentile <= 100);
+        if (nbCompletedRequests == 0)
+            return Double.NaN;
+        double[] sorted = Arrays.copyOf(latencies, (int) nbCompletedRequests);
+        Arrays.sort(sorted);
+        return getPercentile(sorted, percentile);
+    }
+
+    public double getCPUUtilization(int cpuIndex) {
+        return cpuBusyTime[cpuIndex] / (nbCores[cpuIndex] * (measureEndTime - measureStartTime));
+    }
+
+    public double getLinkUtilization(int linkIndex) {
+        return linkBusyTime[linkIndex] / (measureEndTime - measureStartTime);
+    }
+
+    public double getSwitchUtilization(int switchIndex) { // Switches with a forwarding capacity only, the most used of its servers
+        return Math.max(switchBusyTime[2 * switchIndex], switchBusyTime[2 * switchIndex + 1]) / (measureEndTime - measureStartTime);
+    }
+
+    public long getNbEvents() {
+        return nbEvents;
+    }
+
+    public void printResults() {
+        System.out.printf("\nSimulated %.3fs: %d requests, %.1f req/s\n", measureEndTime - measureStartTime, nbCompletedRequests, getThroughput());
+        if (nbCompletedRequests > 0) {
+            double[] sorted = Arrays.copyOf(latencies, (int) nbCompletedRequests);
+            Arrays.sort(sorted);
+            System.out.printf("Latency: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms\n",
+                    getPercentile(sorted, 50) * 1000, getPercentile(sorted, 90) * 1000, getPercentile(sorted, 99) * 1000,
+                    getPercentile(sorted, 99.9) * 1000, sorted[sorted.length - 1] * 1000);
+        }
+        for (int i = 0; i < nbCPUs; ++i) {
+            if (cpuBusyTime[i] > 0)
+                System.out.printf("\tUtilization of node [id %d, %s]: %.1f%%\n", compiledArchitecture.getProcessingNodeId(i),
+                        compiledArchitecture.getProcessingNodeName(i), 100 * getCPUUtilization(i));
+        }
+        for (int i = 0; i < nbLinks; ++i) {
+            if (linkBusyTime[i] > 0)
+                System.out.printf("\tUtilization of link from %d to %d: %.1f%%\n", compiledArchitecture.getLinkSrcNodeId(i),
+                        compiledArchitecture.getLinkDstNodeId(i), 100 * getLinkUtilization(i));
+        }
+        for (int i = 0; i < nbSwitches; ++i) {
+            if (getSwitchUtilization(i) > 0)
+                System.out.printf("\tUtilization of switch %d: %.1f%%\n", compiledArchitecture.getSwitchId(i), 100 * getSwitchUtilization(i));
+        }
+        System.out.printf("%d events in %.2fs (%.2f M events/s)\n", nbEvents, wallClockSeconds, nbEvents / wallClockSeconds / 1e6);
+    }
+
+    private static double getPercentile(double[] sorted, double percentile) {
+        int position = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, position)];
+    }
+
+}
@@ -0,0 +1,62 @@
+# UpRight (UpRight Cluster Services, SOSP 2009), see protocol.ProtocolSpec for the syntax
+param u 1              # Number of failures tolerated
+param r 1              # Number of commission failures tolerated
+param nbClients 1
+param nbRequestsInBatch 30
+
+role Filter 2*u+r+1
+role Order 2*u+r+1     # Order[0] is the primary
+role Exec "u + max(u, r) + 1"
+role Client nbClients
+clients nbClients
+
+# The replicas of a role are on distinct machines and interchangeable, except the primary, as are the clients
+distinct Filter
+interchangeable Filter
+distinct Order
+interchangeable Order[1:]
+distinct Exec
+interchangeable Exec
+interchangeable Client
+
+# Size of messages in Bytes
+message req 273
+message rep 80
+message prePrepare 88+nbRequestsInBatch*req
+message prepare 88
+message commit 72
+message orderedBatch 88+nbRequestsInBatch*req
+
+# Processing counts in cycles
+let computeMAC 644
+let sendReq 19*req+643
+let sendPP 19*prePrepare+643
+let sendPrepare 19*prepare+643
+let sendCommit 19*commit+643
+let sendReply 19*rep+643
+let sendBatch 19*orderedBatch+643
+let receiveReq 20*req+679
+let receivePP 20*prePrepare+679
+let receivePrepare 20*prepare+679
+let receiveCommit 20*commit+679
+let receiveBatch 20*orderedBatch+679
+let executeBatch 3000
+
+# The requests go through the filters to the order nodes, the batches of requests are agreed on by the order nodes
+# and executed by the exec nodes, which reply to the client
+send req Client Filter broadcast
+send req Filter Order broadcast nbClients
+send prePrepare Order[0] Order broadcast nbClients/nbRequestsInBatch
+send prepare Order Order broadcast nbClients/nbRequestsInBatch
+send commit Order Order broadcast nbClients/nbRequestsInBatch
+send orderedBatch Order Exec broadcast nbClients/nbRequestsInBatch
+send rep Exec Client broadcast
+
+process Filter "receiveReq + computeMAC + sendReq" nbClients
+process Order "receiveReq + (Order + 1) * computeMAC + sendReq * Order" nbClients
+process Order "Filter * (receiveReq + computeMAC)" nbClients
+process Order[0] "Order * (computeMAC + sendPP)" nbClients
+process Order "Order * (receivePP + 2 * computeMAC + sendPrepare)" nbClients
+process Order "Order * (receivePrepare + 2 * computeMAC + sendCommit)" nbClients
+process Order "Order * (receiveCommit + computeMAC) + Exec * (computeMAC + sendBatch)" nbClients
+process Exec "receiveBatch + Order * computeMAC + executeBatch + sendReply" nbClients